@@ -0,0 +1,124 @@
+/*
+ * WebIDE - A powerful IDE for Android web development.
+ * Copyright (C) 2025  如日中天  <3382198490@qq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.web.webide.build;
+
+import com.android.apksig.apk.ApkUtils;
+import com.android.apksig.internal.zip.CentralDirectoryRecord;
+import com.android.apksig.internal.zip.LocalFileRecord;
+import com.android.apksig.util.DataSource;
+import com.android.apksig.util.DataSources;
+import com.android.apksig.zip.ZipFormatException;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 只读 ZIP/APK：用 apksig 解析中央目录，条目可以按原始压缩数据整段拷贝
+ * (见 {@link ApkStreamWriter#copyRaw})，也可以按需解压。
+ */
+public class ApkArchive implements Closeable {
+
+    private final RandomAccessFile file;
+    private final DataSource source;
+    private final long cdOffset;
+    private final List<CentralDirectoryRecord> entries;
+    private final Map<String, CentralDirectoryRecord> byName;
+
+    public ApkArchive(File apk) throws IOException {
+        file = new RandomAccessFile(apk, "r");
+        try {
+            source = DataSources.asMappedDataSource(file);
+            ApkUtils.ZipSections sections = ApkUtils.findZipSections(source);
+            cdOffset = sections.getZipCentralDirectoryOffset();
+
+            long cdSize = sections.getZipCentralDirectorySizeBytes();
+            if (cdSize > Integer.MAX_VALUE) {
+                throw new IOException("中央目录过大: " + cdSize);
+            }
+            ByteBuffer cd = source.getByteBuffer(cdOffset, (int) cdSize);
+            cd.order(ByteOrder.LITTLE_ENDIAN);
+
+            int count = sections.getZipCentralDirectoryRecordCount();
+            List<CentralDirectoryRecord> list = new ArrayList<>(count);
+            Map<String, CentralDirectoryRecord> map = new HashMap<>(count * 2);
+            for (int i = 0; i < count; i++) {
+                CentralDirectoryRecord record = CentralDirectoryRecord.getRecord(cd);
+                list.add(record);
+                map.put(record.getName(), record);
+            }
+            entries = Collections.unmodifiableList(list);
+            byName = map;
+        } catch (ZipFormatException e) {
+            file.close();
+            throw new IOException("无效的 APK: " + apk.getName(), e);
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /** 按中央目录顺序返回所有条目 */
+    public List<CentralDirectoryRecord> getEntries() {
+        return entries;
+    }
+
+    public CentralDirectoryRecord getEntry(String name) {
+        return byName.get(name);
+    }
+
+    public DataSource getDataSource() {
+        return source;
+    }
+
+    public long getSize() {
+        return source.size();
+    }
+
+    public long getCentralDirectoryOffset() {
+        return cdOffset;
+    }
+
+    public LocalFileRecord getLocalFileRecord(CentralDirectoryRecord entry) throws IOException {
+        try {
+            return LocalFileRecord.getRecord(source, entry, cdOffset);
+        } catch (ZipFormatException e) {
+            throw new IOException("损坏的 ZIP 条目: " + entry.getName(), e);
+        }
+    }
+
+    public byte[] getUncompressedData(CentralDirectoryRecord entry) throws IOException {
+        try {
+            return LocalFileRecord.getUncompressedData(source, entry, cdOffset);
+        } catch (ZipFormatException e) {
+            throw new IOException("损坏的 ZIP 条目: " + entry.getName(), e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
@@ -1,5 +1,3 @@
-
-
 /*
  * WebIDE - A powerful IDE for Android web development.
  * Copyright (C) 2025  如日中天  <3382198490@qq.com>
@@ -22,23 +20,21 @@ package com.web.webide.build;
 import android.content.Context;
 import com.web.webide.core.utils.LogCatcher;
 import java.io.*;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Enumeration;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
-import java.util.zip.ZipOutputStream;
+import org.json.JSONObject;
 
-// 引入你的库 (确保这些类在你的 classpath 中)
-import com.Day.Studio.Function.axmleditor.decode.AXMLDoc;
-import com.Day.Studio.Function.ApkXmlEditor;
-import com.Day.Studio.Function.axmleditor.editor.PermissionEditor;
+import com.android.apksig.internal.zip.CentralDirectoryRecord;
+import com.android.apksig.util.DataSinks;
+import com.android.apksig.util.DataSource;
+import com.android.apksig.util.DataSources;
+import com.android.apksig.util.ReadableDataSink;
 
 public class ApkBuilder {
 
@@ -49,6 +45,13 @@ public class ApkBuilder {
     private static final String ICON_RES_1 = "res/MO.webp"; // 桌面图标
     private static final String ICON_RES_2 = "res/fq.webp"; // 前景/圆图标
 
+    // 普通条目的压缩级别
+    private static final int DEFLATE_LEVEL = 5;
+
+    // Debug 模式注入到 HTML 的脚本 (引用 assets/eruda.min.js)，插在 </body> 之前，没有则追加
+    private static final String ERUDA_INJECTION = "<script src=\"eruda.min.js\"></script><script>eruda.init();</script>\n";
+    private static final int ERUDA_INJECTION_BYTES = ERUDA_INJECTION.getBytes(StandardCharsets.UTF_8).length;
+
     private static class AppConfig {
         String appName = "WebApp";
         String appPackage = "com.example.webapp";
@@ -56,8 +59,17 @@ public class ApkBuilder {
         String versionCode = "1";
         String iconPath = null; // 新增：用户图标路径
         List<String> permissions = new ArrayList<>();
+        CompressionPolicy compression = CompressionPolicy.defaults(DEFLATE_LEVEL);
+        boolean reuseV1Digests = false;
     }
 
+    // 资源压缩线程数，<= 0 表示按 CPU 核数自动选择
+    private static volatile int compressionParallelism = 0;
+
+    // 流式构建时，预估包体不超过最大堆内存的 1/N 则未签名包直接放在内存里，否则落到一个临时文件。
+    // 留出余量给签名器 (v1/v2 摘要缓冲) 和内存缓冲区扩容时的临时拷贝
+    private static final int IN_MEMORY_BUILD_HEAP_DIVISOR = 4;
+
     public static String bin(
             Context context,
             String mRootDir,
@@ -70,21 +82,86 @@ public class ApkBuilder {
             String[] ps,
             boolean isDebug // 🔥 改动1：新增 isDebug 参数
     ) {
+        return bin(context, mRootDir, projectPath, aname, pkg, ver, code, amph, ps, isDebug, true);
+    }
+
+    /**
+     * @param streaming true: 合并时直接写出对齐好的包并交给签名器 (单遍)；
+     *                  false: 旧流程 temp_raw.zip -> ZipAligner -> 签名
+     */
+    public static String bin(
+            Context context,
+            String mRootDir,
+            String projectPath,
+            String aname,
+            String pkg,
+            String ver,
+            String code,
+            String amph,
+            String[] ps,
+            boolean isDebug,
+            boolean streaming
+    ) {
+        return bin(context, mRootDir, projectPath, aname, pkg, ver, code, amph, ps, isDebug, streaming, null);
+    }
+
+    /**
+     * 同上，并把各阶段耗时、读写字节数、条目统计等写入 report (可为 null)
+     *
+     * @return APK 路径，失败时为 "error: ..."
+     */
+    public static String bin(
+            Context context,
+            String mRootDir,
+            String projectPath,
+            String aname,
+            String pkg,
+            String ver,
+            String code,
+            String amph,
+            String[] ps,
+            boolean isDebug,
+            boolean streaming,
+            BuildReport report
+    ) {
+        if (report == null) report = new BuildReport();
+        String result = build(context, mRootDir, projectPath, aname, pkg, ver, code, amph, ps, isDebug, streaming, report);
+        boolean success = !result.startsWith("error:");
+        report.finish(success ? result : null, success ? null : result);
+        LogCatcher.i("ApkBuilder", "构建报告:\n" + report.summary());
+        return result;
+    }
+
+    private static String build(
+            Context context,
+            String mRootDir,
+            String projectPath,
+            String aname,
+            String pkg,
+            String ver,
+            String code,
+            String amph,
+            String[] ps,
+            boolean isDebug,
+            boolean streaming,
+            BuildReport report
+    ) {
 
         File bf = new File(projectPath, "build");
         if (!bf.exists()) bf.mkdirs();
 
-        File templateApk = new File(context.getCacheDir(), "webapp_template.apk");
         File rawZipFile = new File(bf, "temp_raw.zip");
         File alignedZipFile = new File(bf, "temp_aligned.apk");
+        File unsignedFile = new File(bf, "temp_unsigned.apk");
         File finalApkFile = new File(bf, aname + "_release.apk");
 
-        LogCatcher.i("ApkBuilder", "========== 开始构建 WebApp (Debug: " + isDebug + ") ==========");
+        LogCatcher.i("ApkBuilder", "========== 开始构建 WebApp (Debug: " + isDebug + ", Streaming: " + streaming + ") ==========");
 
         try {
             // 0. 清理旧文件
             if (rawZipFile.exists()) rawZipFile.delete();
             if (alignedZipFile.exists()) alignedZipFile.delete();
+            if (unsignedFile.exists()) unsignedFile.delete();
             if (finalApkFile.exists()) finalApkFile.delete();
 
             // 1. 准备配置
@@ -103,30 +180,24 @@ public class ApkBuilder {
                 for (String p : ps) config.permissions.add(p);
             }
 
-            // 2. 提取模板 APK
-            if (!copyAssetFile(context, "webapp_1.0.apk", templateApk)) {
-                return "error: 找不到构建模板 (assets/webapp_1.0.apk)";
-            }
-
-            // 3. 合并逻辑 (包含图标替换)
-            LogCatcher.i("ApkBuilder", ">> 正在合并资源...");
-            // 🔥 改动2：传入 context 和 isDebug
-            mergeApk(context, templateApk, rawZipFile, projectPath, config, isDebug);
-
-            if (rawZipFile.length() < 1000) {
-                return "error: 构建失败，生成的包体过小";
-            }
+            // webapp.json 里的构建选项 (压缩策略、签名摘要复用)
+            JSONObject projectConfig = readProjectConfig(new File(projectPath, "webapp.json"));
+            config.compression = loadCompressionPolicy(projectConfig);
+            config.reuseV1Digests = loadReuseV1Digests(projectConfig);
 
-            // 4. ZipAlign
-            LogCatcher.i("ApkBuilder", ">> 正在 ZipAlign...");
+            // 2. 加载模板 APK (每个 IDE 版本只解压一次，中央目录常驻内存)
+            ApkArchive templateApk;
+            // 只计时，不统计读写字节数 (模板命中缓存时不读取任何数据)
+            BuildReport.Stage templateStage = report.stage("加载模板");
             try {
-                ZipAligner.align(rawZipFile, alignedZipFile);
-            } catch (Exception e) {
-                return "error: 对齐失败 - " + e.getMessage();
+                templateApk = BuildTemplate.get(context);
+            } catch (IOException e) {
+                return "error: " + e.getMessage();
+            } finally {
+                templateStage.close();
             }
 
-            // 5. 签名
-            LogCatcher.i("ApkBuilder", ">> 正在签名...");
+            // 签名文件
             String signaturePath = new File(mRootDir, "WebIDE.jks").getAbsolutePath();
             File keyFile = new File(signaturePath);
             if (!keyFile.exists()) {
@@ -135,15 +206,51 @@ public class ApkBuilder {
                 signaturePath = internalKey.getAbsolutePath();
             }
 
-            boolean signResult = signerApk(
-                    signaturePath, "WebIDE", "WebIDE", "WebIDE",
-                    alignedZipFile.getAbsolutePath(),
-                    finalApkFile.getAbsolutePath()
-            );
+            boolean signResult;
+            if (streaming) {
+                signResult = buildStreaming(context, templateApk, unsignedFile, finalApkFile, projectPath, config, isDebug,
+                        signaturePath, report);
+            } else {
+                // 3. 合并逻辑 (包含图标替换)
+                LogCatcher.i("ApkBuilder", ">> 正在合并资源...");
+                try (FileOutputStream fos = new FileOutputStream(rawZipFile)) {
+                    ApkStreamWriter writer = new ApkStreamWriter(DataSinks.asDataSink(fos));
+                    // 🔥 改动2：传入 context 和 isDebug
+                    mergeApk(context, templateApk, writer, projectPath, config, isDebug, report);
+                    writer.finish();
+                }
+
+                if (rawZipFile.length() < 1000) {
+                    return "error: 构建失败，生成的包体过小";
+                }
+
+                // 4. ZipAlign
+                LogCatcher.i("ApkBuilder", ">> 正在 ZipAlign...");
+                try (BuildReport.Stage stage = report.stage("ZipAlign")) {
+                    ZipAligner.align(rawZipFile, alignedZipFile);
+                    stage.addBytesRead(rawZipFile.length());
+                    stage.addBytesWritten(alignedZipFile.length());
+                } catch (Exception e) {
+                    return "error: 对齐失败 - " + e.getMessage();
+                }
 
-            // 清理临时文件
-            rawZipFile.delete();
-            alignedZipFile.delete();
+                // 5. 签名
+                LogCatcher.i("ApkBuilder", ">> 正在签名...");
+                try (BuildReport.Stage stage = report.stage("签名")) {
+                    signResult = signerApk(
+                            signaturePath, "WebIDE", "WebIDE", "WebIDE",
+                            alignedZipFile.getAbsolutePath(),
+                            finalApkFile.getAbsolutePath(),
+                            config.reuseV1Digests
+                    );
+                    stage.addBytesRead(alignedZipFile.length());
+                    stage.addBytesWritten(finalApkFile.length());
+                }
+
+                // 清理临时文件
+                rawZipFile.delete();
+                alignedZipFile.delete();
+            }
 
             if (signResult && finalApkFile.length() > 0) {
                 LogCatcher.i("ApkBuilder", "✅ 构建成功: " + finalApkFile.getAbsolutePath());
@@ -158,275 +265,409 @@ public class ApkBuilder {
         }
     }
 
-    // 🔥 改动3：增加 context 和 isDebug 参数
-    private static void mergeApk(Context context, File templateFile, File outputFile, String projectPath, AppConfig config, boolean isDebug) throws Exception {
-        ZipFile zipFile = new ZipFile(templateFile);
-        ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(outputFile));
-        zos.setLevel(5);
+    /**
+     * 单遍构建：合并时直接写出 4 字节对齐的未签名包，通过 DataSource 交给签名器，
+     * 只有最终的 _release.apk 需要完整落盘。预估包体超过 {@link #inMemoryBuildLimit()} 时
+     * 未签名包写入 temp_unsigned.apk 兜底，防止 OOM。
+     */
+    private static boolean buildStreaming(Context context, ApkArchive templateApk, File unsignedFile, File finalApkFile,
+                                          String projectPath, AppConfig config, boolean isDebug,
+                                          String signaturePath, BuildReport report) throws Exception {
+        long estimatedSize = templateApk.getSize() + directorySize(new File(projectPath, "src/main/assets"));
+        boolean inMemory = estimatedSize <= inMemoryBuildLimit();
+
+        LogCatcher.i("ApkBuilder", ">> 正在合并资源 (单遍流式, " + (inMemory ? "内存" : "临时文件") + ")...");
+        if (inMemory) {
+            ReadableDataSink unsigned = DataSinks.newInMemoryDataSink((int) estimatedSize);
+            ApkStreamWriter writer = new ApkStreamWriter(unsigned);
+            mergeApk(context, templateApk, writer, projectPath, config, isDebug, report);
+            writer.finish();
+            if (unsigned.size() < 1000) {
+                throw new IOException("构建失败，生成的包体过小");
+            }
 
-        try {
-            // A. 优先写入 resources.arsc (保持 STORED)
-            ZipEntry arscEntry = zipFile.getEntry("resources.arsc");
-            if (arscEntry != null) {
-                copyAsStored(zipFile, arscEntry, zos);
+            LogCatcher.i("ApkBuilder", ">> 正在签名...");
+            return sign(signaturePath, unsigned, finalApkFile, config.reuseV1Digests, report);
+        }
+
+        try (RandomAccessFile raf = new RandomAccessFile(unsignedFile, "rw")) {
+            raf.setLength(0);
+            ApkStreamWriter writer = new ApkStreamWriter(DataSinks.asDataSink(raf));
+            mergeApk(context, templateApk, writer, projectPath, config, isDebug, report);
+            writer.finish();
+            if (raf.length() < 1000) {
+                throw new IOException("构建失败，生成的包体过小");
             }
 
-            Enumeration<? extends ZipEntry> entries = zipFile.entries();
-            while (entries.hasMoreElements()) {
-                ZipEntry entry = entries.nextElement();
-                String name = entry.getName();
+            LogCatcher.i("ApkBuilder", ">> 正在签名...");
+            return sign(signaturePath, DataSources.asMappedDataSource(raf), finalApkFile, config.reuseV1Digests, report);
+        } finally {
+            unsignedFile.delete();
+        }
+    }
 
-                if (name.equals("resources.arsc")) continue;
-                if (name.startsWith("META-INF/")) continue;
-                if (name.startsWith("assets/")) continue;
+    /**
+     * 未签名包可以放在内存里的最大预估大小，按当前进程的最大堆内存计算 (大堆设备上能覆盖更大的项目)
+     */
+    private static long inMemoryBuildLimit() {
+        long limit = Runtime.getRuntime().maxMemory() / IN_MEMORY_BUILD_HEAP_DIVISOR;
+        // 内存缓冲区以 int 为下标
+        return Math.min(limit, Integer.MAX_VALUE - 8);
+    }
 
-                // --- 1. 处理 Manifest (修改包名、权限) ---
-                if (name.equals("AndroidManifest.xml")) {
-                    processManifest(zipFile, entry, zos, config);
-                    continue;
-                }
+    private static boolean sign(String signaturePath, DataSource unsigned, File finalApkFile, boolean reuseV1Digests,
+                                BuildReport report) {
+        try (BuildReport.Stage stage = report.stage("签名")) {
+            boolean result = signerApk(signaturePath, "WebIDE", "WebIDE", "WebIDE", unsigned, finalApkFile.getAbsolutePath(),
+                    reuseV1Digests);
+            stage.addBytesRead(unsigned.size());
+            stage.addBytesWritten(finalApkFile.length());
+            return result;
+        }
+    }
 
-                // --- 2. 处理图标替换 ---
-                if (config.iconPath != null && (name.equals(ICON_RES_1) || name.equals(ICON_RES_2))) {
-                    LogCatcher.d("ApkBuilder", "正在替换图标: " + name);
-                    ZipEntry iconEntry = new ZipEntry(name);
-                    zos.putNextEntry(iconEntry);
-                    try (FileInputStream fis = new FileInputStream(new File(config.iconPath))) {
-                        copyStream(fis, zos);
-                    }
-                    zos.closeEntry();
-                    continue;
-                }
+    /**
+     * 设置用户资源的并行压缩线程数 (<= 0 为自动，1 为单线程)
+     */
+    public static void setCompressionParallelism(int parallelism) {
+        compressionParallelism = parallelism;
+    }
+
+    private static long directorySize(File file) {
+        if (file.isFile()) return file.length();
+        long total = 0;
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) total += directorySize(child);
+        }
+        return total;
+    }
+
+    // 🔥 改动3：增加 context 和 isDebug 参数
+    private static void mergeApk(Context context, ApkArchive template, ApkStreamWriter writer, String projectPath, AppConfig config, boolean isDebug,
+                                 BuildReport report) throws Exception {
+        writer.setReport(report);
+        BuildReport.Stage mergeStage = report.stage("合并资源");
+        long startOffset = writer.getBytesWritten();
+
+        // A. 优先写入 resources.arsc (保持 STORED，写入时即对齐)
+        CentralDirectoryRecord arscEntry = template.getEntry("resources.arsc");
+        if (arscEntry != null) {
+            mergeStage.addBytesRead(arscEntry.getCompressedSize());
+            if (arscEntry.getCompressionMethod() == ZipEntry.STORED) {
+                writer.copyRaw(template, arscEntry);
+            } else {
+                writer.writeStored("resources.arsc", template.getUncompressedData(arscEntry));
+            }
+        }
+
+        for (CentralDirectoryRecord entry : template.getEntries()) {
+            String name = entry.getName();
 
-                // --- 3. 普通文件拷贝 ---
-                ZipEntry newEntry = new ZipEntry(name);
-                zos.putNextEntry(newEntry);
-                try (InputStream is = zipFile.getInputStream(entry)) {
-                    copyStream(is, zos);
+            if (name.equals("resources.arsc")) continue;
+            if (name.startsWith("META-INF/")) continue;
+            if (name.startsWith("assets/")) continue;
+
+            // --- 1. 处理 Manifest (修改包名、权限) ---
+            if (name.equals("AndroidManifest.xml")) {
+                try (BuildReport.Stage stage = report.stage("处理 Manifest")) {
+                    byte[] manifest = processManifest(template.getUncompressedData(entry), config);
+                    stage.addBytesRead(entry.getCompressedSize());
+                    stage.addBytesWritten(manifest.length);
+                    writer.writeDeflated(name, manifest, DEFLATE_LEVEL);
                 }
-                zos.closeEntry();
+                mergeStage.addBytesRead(entry.getCompressedSize());
+                continue;
             }
 
-            // 🔥 改动4：在注入用户 assets 之前，先注入 eruda.min.js (如果 isDebug 为 true)
-            if (isDebug) {
-                try {
-                    // 从 IDE 自身的 assets 中读取
-                    InputStream erudaIn = context.getAssets().open("eruda.min.js");
-                    ZipEntry erudaEntry = new ZipEntry("assets/eruda.min.js");
-                    zos.putNextEntry(erudaEntry);
-                    copyStream(erudaIn, zos);
-                    erudaIn.close();
-                    zos.closeEntry();
-                    LogCatcher.d("ApkBuilder", "注入成功: assets/eruda.min.js");
-                } catch (Exception e) {
-                    LogCatcher.w("ApkBuilder", "注入 eruda 失败 (可能 IDE assets 中缺少文件): " + e.getMessage());
+            // --- 2. 处理图标替换 ---
+            if (config.iconPath != null && (name.equals(ICON_RES_1) || name.equals(ICON_RES_2))) {
+                LogCatcher.d("ApkBuilder", "正在替换图标: " + name);
+                File icon = new File(config.iconPath);
+                try (FileInputStream fis = new FileInputStream(icon)) {
+                    writer.writeDeflated(name, fis, DEFLATE_LEVEL);
                 }
+                mergeStage.addBytesRead(icon.length());
+                continue;
             }
 
-            // B. 注入用户 assets
-            File userAssetsDir = new File(projectPath, "src/main/assets");
-            if (userAssetsDir.exists() && userAssetsDir.isDirectory()) {
-                // 🔥 改动5：传递 isDebug 参数
-                addProjectFilesRecursively(zos, userAssetsDir, "assets", isDebug);
+            // --- 3. 普通文件：原样拷贝压缩数据，不解压也不重新压缩 ---
+            writer.copyRaw(template, entry);
+            mergeStage.addBytesRead(entry.getCompressedSize());
+        }
+
+        // 🔥 改动4：在注入用户 assets 之前，先注入 eruda.min.js (如果 isDebug 为 true)
+        if (isDebug) {
+            try (InputStream erudaIn = context.getAssets().open("eruda.min.js")) {
+                // 从 IDE 自身的 assets 中读取
+                writer.writeDeflated("assets/eruda.min.js", erudaIn, DEFLATE_LEVEL);
+                LogCatcher.d("ApkBuilder", "注入成功: assets/eruda.min.js");
+            } catch (Exception e) {
+                LogCatcher.w("ApkBuilder", "注入 eruda 失败 (可能 IDE assets 中缺少文件): " + e.getMessage());
             }
+        }
 
-            // C. 将 webapp.json 配置文件打包到 assets 目录
-            File configFile = new File(projectPath, "webapp.json");
-            if (configFile.exists()) {
-                LogCatcher.i("ApkBuilder", "正在打包配置文件: webapp.json");
-                try (FileInputStream fis = new FileInputStream(configFile)) {
-                    ZipEntry configEntry = new ZipEntry("assets/webapp.json");
-                    zos.putNextEntry(configEntry);
-                    copyStream(fis, zos);
-                    zos.closeEntry();
-                }
-            } else {
-                LogCatcher.w("ApkBuilder", "未找到 webapp.json 配置文件");
+        // B. 注入用户 assets (未改动的文件直接复用 build/.cache 中的压缩结果)
+        AssetBuildCache cache = new AssetBuildCache(new File(projectPath, "build"), DEFLATE_LEVEL);
+        File configFile = new File(projectPath, "webapp.json");
+        CompressionPolicy policy = config.compression;
+        File userAssetsDir = new File(projectPath, "src/main/assets");
+        if (userAssetsDir.exists() && userAssetsDir.isDirectory()) {
+            try (BuildReport.Stage stage = report.stage("压缩用户资源")) {
+                long before = writer.getBytesWritten();
+                // 🔥 改动5：传递 isDebug 参数
+                long read = addProjectFiles(writer, cache, policy, userAssetsDir, isDebug);
+                stage.addBytesRead(read);
+                stage.addBytesWritten(writer.getBytesWritten() - before);
+                mergeStage.addBytesRead(read);
             }
+        }
 
-        } finally {
-            zipFile.close();
-            zos.close();
+        // C. 将 webapp.json 配置文件打包到 assets 目录
+        if (configFile.exists()) {
+            LogCatcher.i("ApkBuilder", "正在打包配置文件: webapp.json");
+            // 与其他用户资源一样按压缩策略打包
+            Deflater deflater = new Deflater(DEFLATE_LEVEL, true);
+            try {
+                writer.write("assets/webapp.json", packFile(configFile, "assets/webapp.json", cache, policy, deflater),
+                        policy.getStoredAlignment());
+            } finally {
+                deflater.end();
+            }
+            mergeStage.addBytesRead(configFile.length());
+        } else {
+            LogCatcher.w("ApkBuilder", "未找到 webapp.json 配置文件");
         }
+
+        cache.save();
+        report.setCacheStats(cache.getHits(), cache.getMisses());
+        LogCatcher.i("ApkBuilder", "资源缓存: 命中 " + cache.getHits() + " 个, 重新压缩 " + cache.getMisses() + " 个");
+
+        mergeStage.addBytesWritten(writer.getBytesWritten() - startOffset);
+        mergeStage.close();
     }
 
     /**
      * Manifest 处理逻辑：包名修改、版本修改、权限修改
+     *
+     * 在内存里只解析一次，所有修改作用在同一份解析结果上，最后只序列化一次
      */
-    private static void processManifest(ZipFile zipFile, ZipEntry entry, ZipOutputStream zos, AppConfig config) throws Exception {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        try (InputStream is = zipFile.getInputStream(entry)) {
-            copyStream(is, bos);
+    private static byte[] processManifest(byte[] originalData, AppConfig config) throws Exception {
+        ManifestEditor manifest = new ManifestEditor(originalData);
+
+        // 1. 基础属性修改
+        int versionCode;
+        try {
+            versionCode = Integer.parseInt(config.versionCode);
+        } catch (NumberFormatException e) {
+            versionCode = 1;
+        }
+        manifest.setAppName(config.appName);
+        manifest.setPackageInfo(config.appPackage, versionCode, config.versionName);
+
+        // 2. 权限修改 (使用 PermissionEditor)
+        if (config.permissions != null && !config.permissions.isEmpty()) {
+            LogCatcher.i("ApkBuilder", "正在添加权限: " + config.permissions.size() + " 个");
+            for (String perm : config.permissions) {
+                manifest.addPermission(perm);
+            }
         }
-        byte[] originalData = bos.toByteArray();
 
-        File tempManifest = File.createTempFile("TempManifest", ".xml");
-        try (FileOutputStream fos = new FileOutputStream(tempManifest)) {
-            fos.write(originalData);
+        // 3. AXML 字符串池修正 (解决包名变更导致的 Provider/Class 问题)
+        if (!config.appPackage.equals(OLD_PACKAGE_NAME)) {
+            Map<String, String> replacements = new HashMap<>();
+            replacements.put(OLD_PACKAGE_NAME + ".androidx-startup", config.appPackage + ".androidx-startup");
+            replacements.put(OLD_PACKAGE_NAME + ".fileprovider", config.appPackage + ".fileprovider");
+            replacements.put(".MainActivity", OLD_PACKAGE_NAME + ".MainActivity");
+            // 解决 INSTALL_FAILED_DUPLICATE_PERMISSION 错误
+            // 将 com.web.webapp.DYNAMIC_RECEIVER_NOT_EXPORTED_PERMISSION 替换为 新包名.DYNAMIC...
+            replacements.put(OLD_PACKAGE_NAME + ".DYNAMIC_RECEIVER_NOT_EXPORTED_PERMISSION",
+                    config.appPackage + ".DYNAMIC_RECEIVER_NOT_EXPORTED_PERMISSION");
+
+            manifest.replaceStrings(replacements);
         }
 
-        try {
-            // 1. 基础属性修改
-            ApkXmlEditor.setXmlPaht(tempManifest.getAbsolutePath());
-            ApkXmlEditor.setAppName(config.appName);
-            ApkXmlEditor.setAppPack(config.appPackage);
-            try {
-                ApkXmlEditor.setAppbcode(Integer.parseInt(config.versionCode));
-            } catch (NumberFormatException e) {
-                ApkXmlEditor.setAppbcode(1);
-            }
-            ApkXmlEditor.setAppbname(config.versionName);
-            ApkXmlEditor.operation();
-
-            // 2. 权限修改 (使用 PermissionEditor)
-            if (config.permissions != null && !config.permissions.isEmpty()) {
-                LogCatcher.i("ApkBuilder", "正在添加权限: " + config.permissions.size() + " 个");
-                for (String perm : config.permissions) {
-                    setPermission(tempManifest.getAbsolutePath(), perm, false); // false = add
-                }
-            }
+        // 4. 处理 Provider 授权冲突
+        LogCatcher.i("ApkBuilder", "正在处理 Provider 授权冲突...");
+        ProviderAuthReplacer.replaceProviderAuthorities(manifest, OLD_PACKAGE_NAME, config.appPackage);
+        ProviderAuthReplacer.fixProviderConflicts(manifest, config.appPackage);
 
-            // 3. 移除 testOnly 标志
-            //removeTestOnly(tempManifest);
-
-            // 4. AXML 字符串池修正 (解决包名变更导致的 Provider/Class 问题)
-            if (!config.appPackage.equals(OLD_PACKAGE_NAME)) {
-                Map<String, String> replacements = new HashMap<>();
-                replacements.put(OLD_PACKAGE_NAME + ".androidx-startup", config.appPackage + ".androidx-startup");
-                replacements.put(OLD_PACKAGE_NAME + ".fileprovider", config.appPackage + ".fileprovider");
-                replacements.put(".MainActivity", OLD_PACKAGE_NAME + ".MainActivity");
-// 解决 INSTALL_FAILED_DUPLICATE_PERMISSION 错误
-                // 将 com.web.webapp.DYNAMIC_RECEIVER_NOT_EXPORTED_PERMISSION 替换为 新包名.DYNAMIC...
-                replacements.put(OLD_PACKAGE_NAME + ".DYNAMIC_RECEIVER_NOT_EXPORTED_PERMISSION",
-                        config.appPackage + ".DYNAMIC_RECEIVER_NOT_EXPORTED_PERMISSION");
-
-                ManifestStringReplacer.batchReplaceStringInAXML(tempManifest, replacements);
-            }
+        return manifest.toByteArray();
+    }
 
-            // 5. 【新增】处理 Provider 授权冲突
-            LogCatcher.i("ApkBuilder", "正在处理 Provider 授权冲突...");
-            // 注意：因为我没有 ProviderAuthReplacer 的源码，这里保留你原有的调用，如果报错请根据实际情况调整
-            ProviderAuthReplacer.replaceProviderAuthorities(tempManifest, OLD_PACKAGE_NAME, config.appPackage);
-            ProviderAuthReplacer.fixProviderConflicts(tempManifest, config.appPackage);
-
-            // 写入 Zip
-            ZipEntry newEntry = new ZipEntry("AndroidManifest.xml");
-            zos.putNextEntry(newEntry);
-            try (FileInputStream fis = new FileInputStream(tempManifest)) {
-                copyStream(fis, zos);
-            }
-            zos.closeEntry();
+    // --- 🔥 改动6：修改递归方法以支持 HTML 注入，其他文件保持原样 ---
 
-        } finally {
-            tempManifest.delete();
+    /**
+     * 读取 webapp.json (与 CodeEditScreen 一样忽略 // 注释行)，不存在或无效时返回 null
+     */
+    private static JSONObject readProjectConfig(File configFile) {
+        if (!configFile.exists()) return null;
+        try {
+            StringBuilder json = new StringBuilder();
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(new FileInputStream(configFile), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (!line.trim().startsWith("//")) json.append(line).append('\n');
+                }
+            }
+            return new JSONObject(json.toString());
+        } catch (Exception e) {
+            LogCatcher.w("ApkBuilder", "webapp.json 无效，使用默认构建选项: " + e.getMessage());
+            return null;
         }
     }
 
     /**
-     * 使用 PermissionEditor 修改权限
+     * webapp.json 里的 "compression" 配置，见 {@link CompressionPolicy}
      */
-    public static void setPermission(String path, String permission, boolean remove) {
+    private static CompressionPolicy loadCompressionPolicy(JSONObject projectConfig) {
         try {
-            File file = new File(path);
-            AXMLDoc doc = new AXMLDoc();
-            doc.parse(new FileInputStream(file));
-
-            PermissionEditor pe = new PermissionEditor(doc);
-            PermissionEditor.EditorInfo info = new PermissionEditor.EditorInfo();
-            PermissionEditor.PermissionOpera op = new PermissionEditor.PermissionOpera(permission);
+            return CompressionPolicy.fromJson(projectConfig, DEFLATE_LEVEL);
+        } catch (Exception e) {
+            LogCatcher.w("ApkBuilder", "压缩配置无效，使用默认策略: " + e.getMessage());
+            return CompressionPolicy.defaults(DEFLATE_LEVEL);
+        }
+    }
 
-            // 根据你的库实现调用 add 或 remove
-            info.with(remove ? op.remove() : op.add());
+    /**
+     * webapp.json 里的签名选项，默认关闭：
+     * <pre>
+     * "signing": {
+     *   "reuseV1Digests": true
+     * }
+     * </pre>
+     * 开启后重复构建时复用上次签名中未变条目的 v1 (JAR) 摘要，缓存文件放在输出 APK 旁。
+     * 条目只按名称、CRC32 和大小识别，内容变了但这三者恰好都相同 (CRC32 碰撞) 时会沿用旧摘要，
+     * 生成的 v1 签名无法通过校验。只建议在频繁调试构建时开启。
+     */
+    private static boolean loadReuseV1Digests(JSONObject projectConfig) {
+        JSONObject signing = projectConfig == null ? null : projectConfig.optJSONObject("signing");
+        return signing != null && signing.optBoolean("reuseV1Digests", false);
+    }
 
-            pe.setEditorInfo(info);
-            pe.commit();
+    /**
+     * 按压缩策略打包单个用户文件：STORED 直接读取原文件，DEFLATE 走构建缓存，
+     * AUTO 先压缩 (同样走缓存)，节省不够时改为 STORED
+     */
+    private static ApkStreamWriter.EntryData packFile(File file, String zipPath, AssetBuildCache cache,
+                                                      CompressionPolicy policy, Deflater deflater) throws IOException {
+        CompressionPolicy.Rule rule = policy.select(zipPath, file.length());
+        if (rule.getMode() == CompressionPolicy.Mode.STORE) {
+            return ApkStreamWriter.EntryData.stored(readFile(file));
+        }
+        ApkStreamWriter.EntryData deflated = cache.get(zipPath, file, policy.levelFor(rule), deflater);
+        if (rule.getMode() == CompressionPolicy.Mode.AUTO && !policy.worthDeflating(deflated.size, deflated.data.length)) {
+            return ApkStreamWriter.EntryData.stored(readFile(file));
+        }
+        return deflated;
+    }
 
-            doc.build(new FileOutputStream(file));
-            doc.release();
-        } catch (Exception e) {
-            LogCatcher.e("ApkBuilder", "权限修改失败: " + permission, e);
+    private static byte[] readFile(File file) throws IOException {
+        try (FileInputStream in = new FileInputStream(file)) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream((int) Math.max(32, file.length()));
+            copyStream(in, bos);
+            return bos.toByteArray();
         }
     }
 
-    // --- 🔥 改动6：修改递归方法以支持 HTML 注入，其他文件保持原样 ---
+    /**
+     * @return 写入的文件原始大小之和
+     */
+    private static long addProjectFiles(ApkStreamWriter writer, AssetBuildCache cache, CompressionPolicy policy,
+                                        File assetsDir, boolean isDebug) throws IOException {
+        List<File> files = new ArrayList<>();
+        List<String> zipPaths = new ArrayList<>();
+        collectProjectFiles(assetsDir, "assets", files, zipPaths);
+
+        List<ParallelCompressor.Task> tasks = new ArrayList<>(files.size());
+        for (int i = 0; i < files.size(); i++) {
+            File file = files.get(i);
+            String zipPath = zipPaths.get(i);
+            tasks.add(deflater -> {
+                try {
+                    // 🔥 只有在 (Debug模式) 且 (是HTML文件) 时，才拦截修改内容
+                    if (isDebug && (file.getName().endsWith(".html") || file.getName().endsWith(".htm"))) {
+                        // 边读边插入代码边压缩，只在内存里保留压缩结果 (STORED 时才读出整个注入结果)
+                        return injectAndPack(file, zipPath, policy, deflater);
+                    }
+                    // ⚠️ 这是你原本的逻辑，绝对保留，保证 css/js/img 不会丢失
+                    return packFile(file, zipPath, cache, policy, deflater);
+                } catch (IOException e) {
+                    // 不能跳过读取失败的文件，否则包里少了资源构建却显示成功
+                    throw new IOException("打包文件失败: " + zipPath + " (" + e.getMessage() + ")", e);
+                }
+            });
+        }
 
-    private static void addProjectFilesRecursively(ZipOutputStream zos, File file, String zipPath, boolean isDebug) {
+        // 多线程压缩，按收集顺序写入，保证输出与线程数无关
+        long[] bytesRead = new long[1];
+        try (ParallelCompressor compressor = new ParallelCompressor(compressionParallelism, DEFLATE_LEVEL)) {
+            LogCatcher.d("ApkBuilder", "并行压缩 " + tasks.size() + " 个文件, 线程数: " + compressor.getParallelism());
+            compressor.compressInOrder(tasks, (index, data) -> {
+                try {
+                    writer.write(zipPaths.get(index), data, policy.getStoredAlignment());
+                } catch (IOException e) {
+                    // 条目可能已经写出一部分，输出流不再完整，只能让整个构建失败
+                    throw new IOException("写入文件失败: " + zipPaths.get(index) + " (" + e.getMessage() + ")", e);
+                }
+                bytesRead[0] += data.size;
+            });
+        }
+        return bytesRead[0];
+    }
+
+    // 按文件名排序，保证每次构建的条目顺序一致
+    private static void collectProjectFiles(File file, String zipPath, List<File> files, List<String> zipPaths) {
         if (file.isDirectory()) {
             File[] children = file.listFiles();
             if (children != null) {
+                Arrays.sort(children, (a, b) -> a.getName().compareTo(b.getName()));
                 for (File child : children) {
-                    addProjectFilesRecursively(zos, child, zipPath + "/" + child.getName(), isDebug);
+                    collectProjectFiles(child, zipPath + "/" + child.getName(), files, zipPaths);
                 }
             }
         } else {
-            try {
-                ZipEntry newEntry = new ZipEntry(zipPath);
-                zos.putNextEntry(newEntry);
-
-                // 🔥 只有在 (Debug模式) 且 (是HTML文件) 时，才拦截修改内容
-                if (isDebug && (file.getName().endsWith(".html") || file.getName().endsWith(".htm"))) {
-                    // 读取原文件 -> 插入代码 -> 写入Zip
-                    injectScriptToHtml(file, zos);
-                } else {
-                    // ⚠️ 这是你原本的逻辑，绝对保留，保证 css/js/img 不会丢失
-                    try (FileInputStream fis = new FileInputStream(file)) {
-                        copyStream(fis, zos);
-                    }
-                }
-
-                zos.closeEntry();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+            files.add(file);
+            zipPaths.add(zipPath);
         }
     }
 
     // 🔥 改动7：新增 HTML 注入辅助方法
-    private static void injectScriptToHtml(File htmlFile, ZipOutputStream zos) throws IOException {
-        // 读取文件内容
-        byte[] bytes = new byte[(int) htmlFile.length()];
-        try (FileInputStream fis = new FileInputStream(htmlFile)) {
-            fis.read(bytes);
+    /**
+     * 注入调试脚本后按压缩策略打包：与 packFile 相同，STORE 直接存储，
+     * AUTO 节省不够时改为 STORED (注入内容变了，不走构建缓存)
+     */
+    private static ApkStreamWriter.EntryData injectAndPack(File htmlFile, String zipPath, CompressionPolicy policy,
+                                                           Deflater deflater) throws IOException {
+        // 注入后的大小：原文件 + 插入的脚本 (UTF-8 字节数)，不需要先把注入结果读出来
+        long injectedSize = htmlFile.length() + ERUDA_INJECTION_BYTES;
+        CompressionPolicy.Rule rule = policy.select(zipPath, injectedSize);
+        if (rule.getMode() == CompressionPolicy.Mode.STORE) {
+            return ApkStreamWriter.EntryData.stored(readInjected(htmlFile));
         }
-        String html = new String(bytes, StandardCharsets.UTF_8);
-
-        // 注入脚本 (引用 assets/eruda.min.js)
-        String injection = "<script src=\"eruda.min.js\"></script><script>eruda.init();</script>";
-
-        // 查找 </body> 插入，没有则追加
-        if (html.contains("</body>")) {
-            html = html.replace("</body>", injection + "\n</body>");
-        } else if (html.contains("</BODY>")) {
-            html = html.replace("</BODY>", injection + "\n</BODY>");
-        } else {
-            html += injection;
+        deflater.setLevel(policy.levelFor(rule));
+        ApkStreamWriter.EntryData deflated;
+        try (InputStream in = new HtmlScriptInjector(new FileInputStream(htmlFile), ERUDA_INJECTION)) {
+            deflated = ApkStreamWriter.deflate(in, deflater);
         }
-
-        // 写入 Zip
-        zos.write(html.getBytes(StandardCharsets.UTF_8));
+        if (rule.getMode() == CompressionPolicy.Mode.AUTO && !policy.worthDeflating(deflated.size, deflated.data.length)) {
+            // 节省不够时才重新读一遍，保存未压缩的注入结果
+            return ApkStreamWriter.EntryData.stored(readInjected(htmlFile));
+        }
+        return deflated;
     }
 
-    // --- 以下全是原有的辅助方法，未动 ---
-
-    private static void copyAsStored(ZipFile zipFile, ZipEntry entry, ZipOutputStream zos) throws IOException {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        try (InputStream is = zipFile.getInputStream(entry)) {
-            copyStream(is, bos);
+    private static byte[] readInjected(File htmlFile) throws IOException {
+        try (InputStream in = new HtmlScriptInjector(new FileInputStream(htmlFile), ERUDA_INJECTION)) {
+            ByteArrayOutputStream bos = new ByteArrayOutputStream((int) Math.max(32, htmlFile.length() + ERUDA_INJECTION_BYTES));
+            copyStream(in, bos);
+            return bos.toByteArray();
         }
-        byte[] data = bos.toByteArray();
-        CRC32 crc = new CRC32();
-        crc.update(data);
-        ZipEntry newEntry = new ZipEntry("resources.arsc");
-        newEntry.setMethod(ZipEntry.STORED);
-        newEntry.setSize(data.length);
-        newEntry.setCompressedSize(data.length);
-        newEntry.setCrc(crc.getValue());
-        newEntry.setExtra(null);
-        zos.putNextEntry(newEntry);
-        zos.write(data);
-        zos.closeEntry();
     }
 
+    // --- 以下全是原有的辅助方法，未动 ---
+
     private static void removeTestOnly(File manifestFile) {
         try {
             FileInputStream fis = new FileInputStream(manifestFile);
@@ -464,10 +705,19 @@ public class ApkBuilder {
     }
 
     public static boolean signerApk(String keyPath, String pass, String alias, String keyPass, String inPath, String outPath) {
+        return signerApk(keyPath, pass, alias, keyPass, inPath, outPath, false);
+    }
+
+    /**
+     * @param reuseV1Digests 复用未变条目的 v1 摘要，见 {@link #loadReuseV1Digests}
+     */
+    public static boolean signerApk(String keyPath, String pass, String alias, String keyPass, String inPath, String outPath,
+                                    boolean reuseV1Digests) {
         try {
             com.mcal.apksigner.ApkSigner signer = new com.mcal.apksigner.ApkSigner(new File(inPath), new File(outPath));
             signer.setV1SigningEnabled(true);
             signer.setV2SigningEnabled(true);
+            signer.setJarEntryDigestCacheEnabled(reuseV1Digests);
             signer.signRelease(new File(keyPath), pass, alias, keyPass);
             return true;
         } catch (Throwable e) {
@@ -476,147 +726,20 @@ public class ApkBuilder {
         }
     }
 
-    // ==================================================================================
-    //   AXML 字符串池批量替换器 (保持原样)
-    // ==================================================================================
-
-    private static class ManifestStringReplacer {
-
-        private static final int CHUNK_STRING_POOL = 0x001C0001;
-
-        public static void batchReplaceStringInAXML(File axmlFile, Map<String, String> replacementMap) throws Exception {
-            byte[] data = new byte[(int) axmlFile.length()];
-            try (FileInputStream fis = new FileInputStream(axmlFile)) {
-                fis.read(data);
-            }
-
-            ByteBuffer buffer = ByteBuffer.wrap(data);
-            buffer.order(ByteOrder.LITTLE_ENDIAN);
-            buffer.position(8);
-
-            int chunkType = buffer.getInt();
-            if (chunkType != CHUNK_STRING_POOL) return;
-
-            int chunkSize = buffer.getInt();
-            int stringCount = buffer.getInt();
-            int styleCount = buffer.getInt();
-            int flags = buffer.getInt();
-            int stringsOffset = buffer.getInt();
-            int stylesOffset = buffer.getInt();
-
-            boolean isUTF8 = (flags & 0x0100) != 0;
-            int stringPoolStart = buffer.position() - 28;
-
-            int[] offsets = new int[stringCount];
-            for (int i = 0; i < stringCount; i++) {
-                offsets[i] = buffer.getInt();
-            }
-
-            List<String> strings = new ArrayList<>();
-            int dataStart = stringPoolStart + stringsOffset;
-
-            for (int i = 0; i < stringCount; i++) {
-                int strPos = dataStart + offsets[i];
-                buffer.position(strPos);
-
-                if (isUTF8) {
-                    int len1 = buffer.get() & 0xFF;
-                    int len = len1;
-                    if ((len1 & 0x80) != 0) len = ((len1 & 0x7F) << 8) | (buffer.get() & 0xFF);
-
-                    int len2 = buffer.get() & 0xFF;
-                    int encodedLen = len2;
-                    if ((len2 & 0x80) != 0) encodedLen = ((len2 & 0x7F) << 8) | (buffer.get() & 0xFF);
-
-                    byte[] strBytes = new byte[encodedLen];
-                    buffer.get(strBytes);
-                    strings.add(new String(strBytes, StandardCharsets.UTF_8));
-                } else {
-                    int len = buffer.getShort() & 0xFFFF;
-                    byte[] strBytes = new byte[len * 2];
-                    buffer.get(strBytes);
-                    strings.add(new String(strBytes, StandardCharsets.UTF_16LE));
-                }
-            }
-
-            boolean modified = false;
-            for (int i = 0; i < strings.size(); i++) {
-                String currentStr = strings.get(i);
-                for (Map.Entry<String, String> entry : replacementMap.entrySet()) {
-                    String target = entry.getKey();
-                    String replacement = entry.getValue();
-                    if (currentStr.equals(target)) {
-                        strings.set(i, replacement);
-                        modified = true;
-                        break;
-                    }
-                }
-            }
-
-            if (!modified) return;
-
-            ByteArrayOutputStream poolBos = new ByteArrayOutputStream();
-            List<Integer> newOffsets = new ArrayList<>();
-            int currentOffset = 0;
-
-            for (String s : strings) {
-                newOffsets.add(currentOffset);
-                if (isUTF8) {
-                    byte[] rawBytes = s.getBytes(StandardCharsets.UTF_8);
-                    poolBos.write(s.length());
-                    poolBos.write(rawBytes.length);
-                    poolBos.write(rawBytes);
-                    poolBos.write(0);
-                    currentOffset += (2 + rawBytes.length + 1);
-                } else {
-                    byte[] rawBytes = s.getBytes(StandardCharsets.UTF_16LE);
-                    int charLen = s.length();
-                    poolBos.write(charLen & 0xFF);
-                    poolBos.write((charLen >> 8) & 0xFF);
-                    poolBos.write(rawBytes);
-                    poolBos.write(0); poolBos.write(0);
-                    currentOffset += (2 + rawBytes.length + 2);
-                }
-            }
-
-            while (currentOffset % 4 != 0) {
-                poolBos.write(0);
-                currentOffset++;
-            }
-
-            byte[] newStringData = poolBos.toByteArray();
-
-            ByteArrayOutputStream fileBos = new ByteArrayOutputStream();
-            fileBos.write(data, 0, 8); // Header
-
-            int newChunkSize = 28 + (stringCount * 4) + (styleCount * 4) + newStringData.length;
-            ByteBuffer headerBuf = ByteBuffer.allocate(28).order(ByteOrder.LITTLE_ENDIAN);
-            headerBuf.putInt(CHUNK_STRING_POOL);
-            headerBuf.putInt(newChunkSize);
-            headerBuf.putInt(stringCount);
-            headerBuf.putInt(styleCount);
-            headerBuf.putInt(flags);
-            headerBuf.putInt(28 + (stringCount * 4) + (styleCount * 4));
-            headerBuf.putInt(0);
-
-            fileBos.write(headerBuf.array());
-
-            ByteBuffer offsetBuf = ByteBuffer.allocate(stringCount * 4).order(ByteOrder.LITTLE_ENDIAN);
-            for (int off : newOffsets) offsetBuf.putInt(off);
-            fileBos.write(offsetBuf.array());
-
-            fileBos.write(newStringData);
-
-            int oldChunkEnd = stringPoolStart + chunkSize;
-            fileBos.write(data, oldChunkEnd, data.length - oldChunkEnd);
-
-            byte[] finalData = fileBos.toByteArray();
-            ByteBuffer finalBuf = ByteBuffer.wrap(finalData).order(ByteOrder.LITTLE_ENDIAN);
-            finalBuf.putInt(4, finalData.length);
-
-            try (FileOutputStream fos = new FileOutputStream(axmlFile)) {
-                fos.write(finalData);
-            }
+    /**
+     * 直接对内存/文件中的未签名包签名，省去先写出对齐文件再读回的过程
+     */
+    public static boolean signerApk(String keyPath, String pass, String alias, String keyPass, DataSource in, String outPath,
+                                    boolean reuseV1Digests) {
+        try {
+            com.mcal.apksigner.ApkSigner signer = new com.mcal.apksigner.ApkSigner(in, new File(outPath));
+            signer.setV1SigningEnabled(true);
+            signer.setV2SigningEnabled(true);
+            signer.setJarEntryDigestCacheEnabled(reuseV1Digests);
+            return signer.signRelease(new File(keyPath), pass, alias, keyPass);
+        } catch (Throwable e) {
+            e.printStackTrace();
+            return false;
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,377 @@
+/*
+ * WebIDE - A powerful IDE for Android web development.
+ * Copyright (C) 2025  如日中天  <3382198490@qq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.web.webide.build;
+
+import com.android.apksig.internal.zip.CentralDirectoryRecord;
+import com.android.apksig.internal.zip.LocalFileRecord;
+import com.android.apksig.util.DataSink;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * 单遍 APK 写入器：直接把条目写进 {@link DataSink}，写入时即完成 4 字节对齐，
+ * 最后追加中央目录和 EOCD。
+ *
+ * 配合 apksig 的 DataSink/DataSource 重载使用，合并、对齐、签名只需一次落盘，
+ * 不再需要 temp_raw.zip / temp_aligned.apk 两个中间文件。
+ * 模板中未改动的条目通过 {@link #copyRaw} 原样拷贝压缩数据，不再解压后重新压缩。
+ */
+public class ApkStreamWriter {
+
+    private static final int LFH_SIGNATURE = 0x04034b50;
+    private static final int CD_SIGNATURE = 0x02014b50;
+    private static final int EOCD_SIGNATURE = 0x06054b50;
+    private static final int LFH_SIZE = 30;
+    private static final int CD_SIZE = 46;
+    private static final int EOCD_SIZE = 22;
+
+    // 不支持 Zip64：条目数、偏移和大小超过这些值时直接报错，而不是截断后写出损坏的包
+    private static final int ZIP32_MAX_ENTRIES = 0xFFFF;
+    private static final long ZIP32_MAX_VALUE = 0xFFFFFFFFL;
+
+    private static final short METHOD_STORED = 0;
+    private static final short METHOD_DEFLATED = 8;
+    private static final short GP_FLAG_EFS = 0x0800; // UTF-8 文件名
+
+    // zipalign 使用的 Extra ID
+    private static final short ALIGNMENT_EXTRA_ID = (short) 0xD935;
+    private static final int ALIGNMENT_EXTRA_MIN_SIZE = 6;
+    private static final int DEFAULT_ALIGNMENT = 4;
+    /** 按内存页对齐，运行时可以直接 mmap STORED 条目 */
+    public static final int PAGE_ALIGNMENT = 4096;
+
+    // 固定时间戳 (1981-01-01 00:00)，保证同样的输入得到同样的输出
+    private static final int DOS_TIME = 0;
+    private static final int DOS_DATE = (1 << 5) | 1;
+
+    private final DataSink out;
+    private final List<byte[]> centralDirectory = new ArrayList<>();
+    private final Set<String> names = new HashSet<>();
+    private long offset = 0;
+    private long centralDirectorySize = 0;
+    private boolean finished = false;
+    private BuildReport report;
+
+    public ApkStreamWriter(DataSink out) {
+        this.out = out;
+    }
+
+    /** 把写入的每个条目 (名称、存储方式、大小) 记到构建报告里 */
+    public void setReport(BuildReport report) {
+        this.report = report;
+    }
+
+    /** 已写入的字节数 (即下一条记录的起始偏移) */
+    public long getBytesWritten() {
+        return offset;
+    }
+
+    /**
+     * 以 STORED 方式写入，数据起始位置 4 字节对齐
+     */
+    public void writeStored(String name, byte[] data) throws IOException {
+        writeStored(name, data, DEFAULT_ALIGNMENT);
+    }
+
+    /**
+     * 以 STORED 方式写入，数据起始位置按 alignment 对齐 (例如 {@link #PAGE_ALIGNMENT})
+     */
+    public void writeStored(String name, byte[] data, int alignment) throws IOException {
+        write(name, EntryData.stored(data), alignment);
+    }
+
+    /**
+     * 读取输入流并以 DEFLATED 方式写入。压缩结果先放在内存里，因为 LFH 需要提前知道 CRC 和大小
+     */
+    public void writeDeflated(String name, InputStream in, int level) throws IOException {
+        write(name, deflate(in, level));
+    }
+
+    public void writeDeflated(String name, byte[] data, int level) throws IOException {
+        writeDeflated(name, new ByteArrayInputStream(data), level);
+    }
+
+    /**
+     * 写入已经准备好的条目数据 (例如来自构建缓存)，STORED 条目按 4 字节对齐
+     */
+    public void write(String name, EntryData data) throws IOException {
+        write(name, data, DEFAULT_ALIGNMENT);
+    }
+
+    /**
+     * 同上，alignment 只对 STORED 条目生效
+     */
+    public void write(String name, EntryData data, int alignment) throws IOException {
+        if (data.stored) {
+            writeEntry(name, METHOD_STORED, data.crc, data.data, data.data.length, data.size, alignment);
+        } else {
+            writeEntry(name, METHOD_DEFLATED, data.crc, data.data, data.data.length, data.size, 1);
+        }
+    }
+
+    /**
+     * 压缩输入流，同时计算 CRC32 和原始大小
+     */
+    public static EntryData deflate(InputStream in, int level) throws IOException {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            return deflate(in, deflater);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * 使用调用方提供的 Deflater (nowrap 模式) 压缩，便于线程内复用；调用前需已 reset
+     */
+    public static EntryData deflate(InputStream in, Deflater deflater) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        byte[] inBuf = new byte[8192];
+        byte[] outBuf = new byte[8192];
+        long size = 0;
+        int len;
+        while ((len = in.read(inBuf)) > 0) {
+            crc.update(inBuf, 0, len);
+            size += len;
+            deflater.setInput(inBuf, 0, len);
+            while (!deflater.needsInput()) {
+                int n = deflater.deflate(outBuf);
+                compressed.write(outBuf, 0, n);
+            }
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            int n = deflater.deflate(outBuf);
+            compressed.write(outBuf, 0, n);
+        }
+        return new EntryData(compressed.toByteArray(), crc.getValue(), size);
+    }
+
+    /** 条目数据 (原始 DEFLATE 数据，或 STORED 的原始内容) + 未压缩数据的 CRC32 和大小 */
+    public static class EntryData {
+        public final byte[] data;
+        public final long crc;
+        public final long size;
+        public final boolean stored;
+
+        /** DEFLATE 压缩后的数据 */
+        public EntryData(byte[] data, long crc, long size) {
+            this(data, crc, size, false);
+        }
+
+        private EntryData(byte[] data, long crc, long size, boolean stored) {
+            this.data = data;
+            this.crc = crc;
+            this.size = size;
+            this.stored = stored;
+        }
+
+        /** 不压缩的数据 */
+        public static EntryData stored(byte[] data) {
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, data.length);
+            return new EntryData(data, crc.getValue(), data.length, true);
+        }
+    }
+
+    /**
+     * 从模板中原样拷贝一个条目：LFH、压缩数据、CRC 和大小都不变，只在 STORED 条目未对齐时改写 Extra。
+     * 与 {@link LocalFileRecord#outputRecord} 一样直接搬运字节，不经过 Inflater/Deflater。
+     */
+    public void copyRaw(ApkArchive archive, CentralDirectoryRecord entry) throws IOException {
+        checkWritable(entry.getName());
+        LocalFileRecord record = archive.getLocalFileRecord(entry);
+        long headerOffset = offset;
+        checkZip32(entry.getName() + " 的 LFH 偏移", headerOffset);
+
+        long written;
+        if (!record.isDataCompressed()
+                && (headerOffset + record.getDataStartOffsetInRecord()) % DEFAULT_ALIGNMENT != 0) {
+            ByteBuffer extra = createAlignmentExtra(
+                    record.getExtra(), headerOffset + record.getExtraFieldStartOffsetInsideRecord(), DEFAULT_ALIGNMENT);
+            written = record.outputRecordWithModifiedExtra(archive.getDataSource(), extra, out);
+        } else {
+            written = record.outputRecord(archive.getDataSource(), out);
+        }
+        offset += written;
+        if (report != null) {
+            report.recordEntry(entry.getName(), !record.isDataCompressed(), true,
+                    entry.getCompressedSize(), entry.getUncompressedSize());
+        }
+
+        ByteBuffer cd = ByteBuffer.allocate(entry.getSize());
+        entry.createWithModifiedLocalFileHeaderOffset(headerOffset).copyTo(cd);
+        addCentralDirectoryRecord(cd.array());
+    }
+
+    private void checkWritable(String name) throws IOException {
+        if (finished) throw new IllegalStateException("已调用 finish()");
+        if (names.size() >= ZIP32_MAX_ENTRIES) {
+            throw new IOException("条目数超过 ZIP 格式上限 " + ZIP32_MAX_ENTRIES + " (不支持 Zip64): " + name);
+        }
+        if (!names.add(name)) throw new IOException("重复的 ZIP 条目: " + name);
+    }
+
+    private static void checkZip32(String what, long value) throws IOException {
+        if (value < 0 || value > ZIP32_MAX_VALUE) {
+            throw new IOException(what + " 超过 4 GiB (不支持 Zip64): " + value);
+        }
+    }
+
+    /**
+     * 生成对齐用的 Extra：保留原有的其他字段，去掉旧的对齐字段，
+     * 末尾追加 ID(2) + 大小(2) + 对齐倍数(2) + padding
+     */
+    private static ByteBuffer createAlignmentExtra(ByteBuffer original, long extraStartOffset, int alignment) {
+        ByteBuffer result = ByteBuffer.allocate(original.remaining() + ALIGNMENT_EXTRA_MIN_SIZE + alignment)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        original.order(ByteOrder.LITTLE_ENDIAN);
+        while (original.remaining() >= 4) {
+            short id = original.getShort();
+            int size = original.getShort() & 0xFFFF;
+            if (size > original.remaining()) break;
+            if (id == ALIGNMENT_EXTRA_ID || (id == 0 && size == 0)) {
+                original.position(original.position() + size);
+                continue;
+            }
+            result.putShort(id);
+            result.putShort((short) size);
+            for (int i = 0; i < size; i++) result.put(original.get());
+        }
+
+        long minDataStart = extraStartOffset + result.position() + ALIGNMENT_EXTRA_MIN_SIZE;
+        int padding = (int) ((alignment - (minDataStart % alignment)) % alignment);
+        result.putShort(ALIGNMENT_EXTRA_ID);
+        result.putShort((short) (2 + padding));
+        result.putShort((short) alignment);
+        result.position(result.position() + padding);
+        result.flip();
+        return result;
+    }
+
+    private void writeEntry(String name, short method, long crc, byte[] data, int dataLength,
+                            long uncompressedSize, int alignment) throws IOException {
+        checkWritable(name);
+
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        long headerOffset = offset;
+        // 在写出任何字节之前检查，失败时输出流仍然完整
+        if (nameBytes.length > 0xFFFF) throw new IOException("条目名称过长: " + name);
+        checkZip32(name + " 的 LFH 偏移", headerOffset);
+        checkZip32(name + " 的原始大小", uncompressedSize);
+
+        byte[] extra = new byte[0];
+        if (alignment > 1) {
+            ByteBuffer extraBuf = createAlignmentExtra(
+                    ByteBuffer.allocate(0), headerOffset + LFH_SIZE + nameBytes.length, alignment);
+            extra = new byte[extraBuf.remaining()];
+            extraBuf.get(extra);
+        }
+
+        ByteBuffer lfh = ByteBuffer.allocate(LFH_SIZE + nameBytes.length + extra.length).order(ByteOrder.LITTLE_ENDIAN);
+        lfh.putInt(LFH_SIGNATURE);
+        lfh.putShort((short) 0x14);
+        lfh.putShort(GP_FLAG_EFS);
+        lfh.putShort(method);
+        lfh.putShort((short) DOS_TIME);
+        lfh.putShort((short) DOS_DATE);
+        lfh.putInt((int) crc);
+        lfh.putInt(dataLength);
+        lfh.putInt((int) uncompressedSize);
+        lfh.putShort((short) nameBytes.length);
+        lfh.putShort((short) extra.length);
+        lfh.put(nameBytes);
+        lfh.put(extra);
+        lfh.flip();
+
+        offset += lfh.remaining();
+        out.consume(lfh);
+        out.consume(data, 0, dataLength);
+        offset += dataLength;
+        if (report != null) {
+            report.recordEntry(name, method == METHOD_STORED, false, dataLength, uncompressedSize);
+        }
+
+        ByteBuffer cd = ByteBuffer.allocate(CD_SIZE + nameBytes.length).order(ByteOrder.LITTLE_ENDIAN);
+        cd.putInt(CD_SIGNATURE);
+        cd.putShort((short) 0x14); // Version made by
+        cd.putShort((short) 0x14); // Version needed
+        cd.putShort(GP_FLAG_EFS);
+        cd.putShort(method);
+        cd.putShort((short) DOS_TIME);
+        cd.putShort((short) DOS_DATE);
+        cd.putInt((int) crc);
+        cd.putInt(dataLength);
+        cd.putInt((int) uncompressedSize);
+        cd.putShort((short) nameBytes.length);
+        cd.putShort((short) 0); // Extra
+        cd.putShort((short) 0); // Comment
+        cd.putShort((short) 0); // Disk number
+        cd.putShort((short) 0); // Internal attrs
+        cd.putInt(0);           // External attrs
+        cd.putInt((int) headerOffset);
+        cd.put(nameBytes);
+        addCentralDirectoryRecord(cd.array());
+    }
+
+    private void addCentralDirectoryRecord(byte[] record) {
+        centralDirectory.add(record);
+        centralDirectorySize += record.length;
+    }
+
+    /**
+     * 写入中央目录和 EOCD，之后不能再写入条目
+     */
+    public void finish() throws IOException {
+        if (finished) return;
+        long cdOffset = offset;
+        checkZip32("中央目录偏移", cdOffset);
+        checkZip32("中央目录大小", centralDirectorySize);
+        finished = true;
+
+        for (byte[] record : centralDirectory) {
+            out.consume(record, 0, record.length);
+        }
+        offset += centralDirectorySize;
+
+        ByteBuffer eocd = ByteBuffer.allocate(EOCD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        eocd.putInt(EOCD_SIGNATURE);
+        eocd.putShort((short) 0); // Disk number
+        eocd.putShort((short) 0); // CD start disk
+        eocd.putShort((short) centralDirectory.size());
+        eocd.putShort((short) centralDirectory.size());
+        eocd.putInt((int) centralDirectorySize);
+        eocd.putInt((int) cdOffset);
+        eocd.putShort((short) 0); // Comment
+        eocd.flip();
+        offset += eocd.remaining();
+        out.consume(eocd);
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * WebIDE - A powerful IDE for Android web development.
+ * Copyright (C) 2025  如日中天  <3382198490@qq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.web.webide.build;
+
+import com.web.webide.core.utils.LogCatcher;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+/**
+ * 用户 assets 的增量构建缓存 (build/.cache/assets)。
+ *
+ * 索引按 条目路径 + 文件大小 + 修改时间 记录文件内容的 SHA-256；
+ * 压缩结果按 内容哈希 + 压缩级别 存成独立文件，内容相同的文件共用一份，不同级别互不影响。
+ * 命中时直接拼接缓存的 DEFLATE 数据，只有改动过的文件才会重新压缩。
+ */
+public class AssetBuildCache {
+
+    private static final String TAG = "AssetBuildCache";
+    private static final int INDEX_VERSION = 2;
+    private static final String INDEX_FILE = "index";
+    private static final String BLOB_SUFFIX = ".z";
+
+    private final File dir;
+    private final int level;
+    private final Map<String, IndexEntry> index = new ConcurrentHashMap<>();
+    // 本次构建用到的条目，save() 时只保留这些
+    private final Map<String, IndexEntry> used = new ConcurrentHashMap<>();
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    private static class IndexEntry {
+        final long size;
+        final long lastModified;
+        final String hash;
+
+        IndexEntry(long size, long lastModified, String hash) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+        }
+    }
+
+    public AssetBuildCache(File projectBuildDir, int level) {
+        this.dir = new File(projectBuildDir, ".cache/assets");
+        this.level = level;
+        if (!dir.exists()) dir.mkdirs();
+        loadIndex();
+    }
+
+    /**
+     * 返回文件的压缩数据：命中缓存时直接读取，否则压缩并写入缓存
+     */
+    public ApkStreamWriter.EntryData get(String zipPath, File file) throws IOException {
+        Deflater deflater = new Deflater(level, true);
+        try {
+            return get(zipPath, file, deflater);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * 同上，未命中时使用调用方 (压缩线程) 复用的 Deflater；可在多个线程上并发调用
+     */
+    public ApkStreamWriter.EntryData get(String zipPath, File file, Deflater deflater) throws IOException {
+        return get(zipPath, file, level, deflater);
+    }
+
+    /**
+     * 按指定级别压缩 (见 {@link CompressionPolicy})，deflater 需已 reset
+     */
+    public ApkStreamWriter.EntryData get(String zipPath, File file, int level, Deflater deflater) throws IOException {
+        long size = file.length();
+        long lastModified = file.lastModified();
+
+        IndexEntry entry = index.get(zipPath);
+        String hash;
+        if (entry != null && entry.size == size && entry.lastModified == lastModified) {
+            hash = entry.hash;
+        } else {
+            // 大小或时间变了，再按内容判断 (例如只是 touch 过，或者内容与别的文件相同)
+            hash = sha256(file);
+        }
+
+        File blob = blobFile(hash, level);
+        if (blob.exists()) {
+            try {
+                ApkStreamWriter.EntryData cached = readBlob(blob);
+                if (cached.size == size) {
+                    hits.incrementAndGet();
+                    used.put(zipPath, new IndexEntry(size, lastModified, hash));
+                    return cached;
+                }
+            } catch (IOException e) {
+                LogCatcher.w(TAG, "缓存文件损坏，重新压缩: " + zipPath);
+            }
+        }
+
+        // 哈希和压缩数据来自同一次读取：文件在两次读取之间被保存时，缓存文件也不会和它的键对不上
+        misses.incrementAndGet();
+        MessageDigest md = newSha256();
+        ApkStreamWriter.EntryData data;
+        try (InputStream in = new DigestInputStream(new FileInputStream(file), md)) {
+            deflater.setLevel(level);
+            data = ApkStreamWriter.deflate(in, deflater);
+        }
+        String dataHash = toHex(md.digest());
+        used.put(zipPath, new IndexEntry(data.size, lastModified, dataHash));
+        writeBlob(blobFile(dataHash, level), data);
+        return data;
+    }
+
+    public int getHits() {
+        return hits.get();
+    }
+
+    public int getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * 写回索引，并删除本次构建没有用到的压缩文件
+     */
+    public void save() {
+        File indexFile = new File(dir, INDEX_FILE);
+        File tmp = new File(dir, INDEX_FILE + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(INDEX_VERSION);
+            out.writeInt(used.size());
+            for (Map.Entry<String, IndexEntry> e : used.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeLong(e.getValue().size);
+                out.writeLong(e.getValue().lastModified);
+                out.writeUTF(e.getValue().hash);
+            }
+        } catch (IOException e) {
+            LogCatcher.w(TAG, "保存缓存索引失败: " + e.getMessage());
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(indexFile)) {
+            indexFile.delete();
+            tmp.renameTo(indexFile);
+        }
+
+        // 同一内容可能以多个级别缓存，按哈希前缀判断是否还在使用
+        Set<String> live = new HashSet<>();
+        for (IndexEntry e : used.values()) live.add(e.hash);
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                String name = f.getName();
+                int dot = name.indexOf('.');
+                String hash = dot > 0 ? name.substring(0, dot) : name;
+                if ((name.endsWith(BLOB_SUFFIX) && !live.contains(hash)) || name.endsWith(".tmp")) f.delete();
+            }
+        }
+    }
+
+    private void loadIndex() {
+        File indexFile = new File(dir, INDEX_FILE);
+        if (!indexFile.exists()) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (in.readInt() != INDEX_VERSION) return;
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                long size = in.readLong();
+                long lastModified = in.readLong();
+                String hash = in.readUTF();
+                index.put(path, new IndexEntry(size, lastModified, hash));
+            }
+        } catch (IOException e) {
+            LogCatcher.w(TAG, "缓存索引损坏，将重新构建: " + e.getMessage());
+            index.clear();
+        }
+    }
+
+    private File blobFile(String hash, int level) {
+        return new File(dir, hash + "." + level + BLOB_SUFFIX);
+    }
+
+    // 格式: CRC32(8) + 原始大小(8) + DEFLATE 数据
+    private static ApkStreamWriter.EntryData readBlob(File blob) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(blob)))) {
+            long crc = in.readLong();
+            long size = in.readLong();
+            long length = blob.length() - 16;
+            if (length < 0 || length > Integer.MAX_VALUE) throw new IOException("无效的缓存文件");
+            byte[] data = new byte[(int) length];
+            in.readFully(data);
+            return new ApkStreamWriter.EntryData(data, crc, size);
+        }
+    }
+
+    private static void writeBlob(File blob, ApkStreamWriter.EntryData data) {
+        File tmp = new File(blob.getPath() + "." + Thread.currentThread().getId() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeLong(data.crc);
+            out.writeLong(data.size);
+            out.write(data.data);
+        } catch (IOException e) {
+            LogCatcher.w(TAG, "写入缓存失败: " + e.getMessage());
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(blob)) tmp.delete();
+    }
+
+    private static String sha256(File file) throws IOException {
+        MessageDigest md = newSha256();
+        byte[] buf = new byte[8192];
+        try (InputStream in = new FileInputStream(file)) {
+            int len;
+            while ((len = in.read(buf)) > 0) md.update(buf, 0, len);
+        }
+        return toHex(md.digest());
+    }
+
+    private static MessageDigest newSha256() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static String toHex(byte[] digest) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest) sb.append(String.format("%02x", b));
+        return sb.toString();
+    }
+}
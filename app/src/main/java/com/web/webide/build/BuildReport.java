@@ -0,0 +1,266 @@
+/*
+ * WebIDE - A powerful IDE for Android web development.
+ * Copyright (C) 2025  如日中天  <3382198490@qq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.web.webide.build;
+
+import android.os.Process;
+import android.os.SystemClock;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 一次构建的统计报告：各阶段耗时 (墙钟 / CPU)、读写字节数、条目的存储方式、压缩率、最大的条目、缓存命中。
+ *
+ * 阶段用 try-with-resources 计时，可以嵌套 (例如 "合并资源" 里的 "处理 Manifest")：
+ * <pre>
+ * try (BuildReport.Stage stage = report.stage("签名")) {
+ *     ...
+ *     stage.addBytesWritten(out.length());
+ * }
+ * </pre>
+ * 只在构建线程上使用，不是线程安全的。
+ */
+public class BuildReport {
+
+    private static final int LARGEST_ENTRIES = 5;
+
+    private final long startWall = SystemClock.elapsedRealtime();
+    private final long startCpu = Process.getElapsedCpuTime();
+    private final List<Stage> stages = new ArrayList<>();
+    private final List<Entry> entries = new ArrayList<>();
+    private int openStages;
+    private long totalWallMs = -1;
+    private long totalCpuMs = -1;
+    private int cacheHits;
+    private int cacheMisses;
+    private String outputPath;
+    private String error;
+
+    /** 一个计时阶段，close() 时结束计时 */
+    public class Stage implements AutoCloseable {
+        private final String name;
+        private final int depth;
+        private final long wallStart = SystemClock.elapsedRealtime();
+        private final long cpuStart = Process.getElapsedCpuTime();
+        private long wallMs = -1;
+        private long cpuMs = -1;
+        private long bytesRead;
+        private long bytesWritten;
+
+        private Stage(String name, int depth) {
+            this.name = name;
+            this.depth = depth;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /** 嵌套层级，0 为顶层阶段 */
+        public int getDepth() {
+            return depth;
+        }
+
+        public long getWallTimeMs() {
+            return wallMs;
+        }
+
+        /** 整个进程 (包括压缩线程) 在该阶段消耗的 CPU 时间 */
+        public long getCpuTimeMs() {
+            return cpuMs;
+        }
+
+        public long getBytesRead() {
+            return bytesRead;
+        }
+
+        public long getBytesWritten() {
+            return bytesWritten;
+        }
+
+        public void addBytesRead(long bytes) {
+            bytesRead += bytes;
+        }
+
+        public void addBytesWritten(long bytes) {
+            bytesWritten += bytes;
+        }
+
+        @Override
+        public void close() {
+            if (wallMs >= 0) return;
+            wallMs = SystemClock.elapsedRealtime() - wallStart;
+            cpuMs = Process.getElapsedCpuTime() - cpuStart;
+            openStages--;
+        }
+    }
+
+    /** 写入 APK 的一个条目 */
+    public static class Entry {
+        public final String name;
+        /** true: STORED，false: DEFLATED */
+        public final boolean stored;
+        /** true: 从模板原样拷贝的压缩数据 */
+        public final boolean copied;
+        public final long compressedSize;
+        public final long uncompressedSize;
+
+        Entry(String name, boolean stored, boolean copied, long compressedSize, long uncompressedSize) {
+            this.name = name;
+            this.stored = stored;
+            this.copied = copied;
+            this.compressedSize = compressedSize;
+            this.uncompressedSize = uncompressedSize;
+        }
+    }
+
+    /**
+     * 开始一个阶段，用 try-with-resources 结束
+     */
+    public Stage stage(String name) {
+        Stage stage = new Stage(name, openStages++);
+        stages.add(stage);
+        return stage;
+    }
+
+    void recordEntry(String name, boolean stored, boolean copied, long compressedSize, long uncompressedSize) {
+        entries.add(new Entry(name, stored, copied, compressedSize, uncompressedSize));
+    }
+
+    void setCacheStats(int hits, int misses) {
+        cacheHits = hits;
+        cacheMisses = misses;
+    }
+
+    /**
+     * 构建结束 (成功或失败) 时调用，记录总耗时
+     */
+    void finish(String outputPath, String error) {
+        // 出错时可能有阶段没来得及结束
+        for (int i = stages.size() - 1; i >= 0; i--) stages.get(i).close();
+        this.outputPath = outputPath;
+        this.error = error;
+        totalWallMs = SystemClock.elapsedRealtime() - startWall;
+        totalCpuMs = Process.getElapsedCpuTime() - startCpu;
+    }
+
+    public List<Stage> getStages() {
+        return Collections.unmodifiableList(stages);
+    }
+
+    public List<Entry> getEntries() {
+        return Collections.unmodifiableList(entries);
+    }
+
+    public long getTotalWallTimeMs() {
+        return totalWallMs;
+    }
+
+    public long getTotalCpuTimeMs() {
+        return totalCpuMs;
+    }
+
+    public int getCacheHits() {
+        return cacheHits;
+    }
+
+    public int getCacheMisses() {
+        return cacheMisses;
+    }
+
+    /** 成功时为输出的 APK 路径，失败时为 null */
+    public String getOutputPath() {
+        return outputPath;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public int getStoredCount() {
+        int count = 0;
+        for (Entry e : entries) if (e.stored) count++;
+        return count;
+    }
+
+    public int getDeflatedCount() {
+        return entries.size() - getStoredCount();
+    }
+
+    public int getCopiedCount() {
+        int count = 0;
+        for (Entry e : entries) if (e.copied) count++;
+        return count;
+    }
+
+    /** 压缩后大小 / 原始大小 (所有条目)，没有条目时为 1 */
+    public double getCompressionRatio() {
+        long compressed = 0;
+        long uncompressed = 0;
+        for (Entry e : entries) {
+            compressed += e.compressedSize;
+            uncompressed += e.uncompressedSize;
+        }
+        return uncompressed == 0 ? 1.0 : (double) compressed / uncompressed;
+    }
+
+    /** 按压缩后大小排序的前几个条目 */
+    public List<Entry> getLargestEntries() {
+        List<Entry> sorted = new ArrayList<>(entries);
+        Collections.sort(sorted, (a, b) -> Long.compare(b.compressedSize, a.compressedSize));
+        return sorted.subList(0, Math.min(LARGEST_ENTRIES, sorted.size()));
+    }
+
+    /**
+     * 供日志和构建结果弹窗显示的多行文本
+     */
+    public String summary() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "总耗时 %d ms (CPU %d ms)\n", totalWallMs, totalCpuMs));
+        for (Stage s : stages) {
+            for (int i = 0; i < s.depth; i++) sb.append("  ");
+            sb.append(String.format(Locale.ROOT, "· %s: %d ms (CPU %d ms)", s.name, s.wallMs, s.cpuMs));
+            if (s.bytesRead > 0 || s.bytesWritten > 0) {
+                sb.append(String.format(Locale.ROOT, ", 读 %s / 写 %s",
+                        formatBytes(s.bytesRead), formatBytes(s.bytesWritten)));
+            }
+            sb.append('\n');
+        }
+        if (!entries.isEmpty()) {
+            sb.append(String.format(Locale.ROOT, "条目 %d 个: STORED %d, DEFLATED %d, 原样拷贝 %d\n",
+                    entries.size(), getStoredCount(), getDeflatedCount(), getCopiedCount()));
+            sb.append(String.format(Locale.ROOT, "压缩率 %.1f%%\n", getCompressionRatio() * 100));
+            sb.append("最大的条目:\n");
+            for (Entry e : getLargestEntries()) {
+                sb.append(String.format(Locale.ROOT, "  %s  %s%s\n",
+                        e.name, formatBytes(e.compressedSize), e.stored ? " (STORED)" : ""));
+            }
+        }
+        if (cacheHits > 0 || cacheMisses > 0) {
+            sb.append(String.format(Locale.ROOT, "资源缓存: 命中 %d, 重新压缩 %d\n", cacheHits, cacheMisses));
+        }
+        return sb.toString().trim();
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes < 1024) return bytes + " B";
+        if (bytes < 1024 * 1024) return String.format(Locale.ROOT, "%.1f KB", bytes / 1024.0);
+        return String.format(Locale.ROOT, "%.2f MB", bytes / (1024.0 * 1024));
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * WebIDE - A powerful IDE for Android web development.
+ * Copyright (C) 2025  如日中天  <3382198490@qq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.web.webide.build;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import com.web.webide.core.utils.LogCatcher;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 构建模板 (assets/webapp_1.0.apk) 的缓存。
+ *
+ * 模板只在 IDE 安装/升级后解压一次到 cacheDir，旁边的 .stamp 记录 IDE 版本和文件大小；
+ * 解析好的中央目录 ({@link ApkArchive}) 在进程内常驻，后续构建直接复用，
+ * 不再每次拷贝几 MB 的模板再重新解析。
+ */
+public final class BuildTemplate {
+
+    private static final String TAG = "BuildTemplate";
+    private static final String ASSET_NAME = "webapp_1.0.apk";
+    private static final String FILE_NAME = "webapp_template.apk";
+    private static final String STAMP_SUFFIX = ".stamp";
+
+    private static ApkArchive archive;
+    private static String archiveStamp;
+
+    private BuildTemplate() {
+    }
+
+    /**
+     * 返回已解析的模板。返回的实例由本类持有，调用方不要关闭
+     */
+    public static synchronized ApkArchive get(Context context) throws IOException {
+        File templateFile = new File(context.getCacheDir(), FILE_NAME);
+        File stampFile = new File(context.getCacheDir(), FILE_NAME + STAMP_SUFFIX);
+        String version = ideVersion(context);
+
+        String stamp = readStamp(stampFile);
+        if (stamp == null || !stamp.equals(version + ":" + templateFile.length())) {
+            LogCatcher.i(TAG, "IDE 版本变化或模板缺失，重新解压构建模板");
+            release();
+            extract(context, templateFile, stampFile, version);
+            stamp = readStamp(stampFile);
+        }
+
+        if (archive == null || !stamp.equals(archiveStamp)) {
+            release();
+            archive = new ApkArchive(templateFile);
+            archiveStamp = stamp;
+            LogCatcher.d(TAG, "模板索引已加载: " + archive.getEntries().size() + " 个条目");
+        }
+        return archive;
+    }
+
+    /**
+     * 关闭常驻的模板 (例如清理缓存目录前)
+     */
+    public static synchronized void release() {
+        if (archive != null) {
+            try {
+                archive.close();
+            } catch (IOException ignored) {
+            }
+            archive = null;
+            archiveStamp = null;
+        }
+    }
+
+    private static void extract(Context context, File templateFile, File stampFile, String version) throws IOException {
+        stampFile.delete();
+        File tmp = new File(templateFile.getPath() + ".tmp");
+        try (InputStream in = context.getAssets().open(ASSET_NAME);
+             OutputStream out = new FileOutputStream(tmp)) {
+            byte[] buf = new byte[65536];
+            int len;
+            while ((len = in.read(buf)) > 0) out.write(buf, 0, len);
+        } catch (IOException e) {
+            tmp.delete();
+            throw new IOException("找不到构建模板 (assets/" + ASSET_NAME + ")", e);
+        }
+        if (!tmp.renameTo(templateFile)) {
+            templateFile.delete();
+            if (!tmp.renameTo(templateFile)) throw new IOException("无法写入构建模板: " + templateFile);
+        }
+        try (OutputStream out = new FileOutputStream(stampFile)) {
+            out.write((version + ":" + templateFile.length()).getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static String readStamp(File stampFile) {
+        if (!stampFile.exists()) return null;
+        try (InputStream in = new FileInputStream(stampFile)) {
+            byte[] data = new byte[(int) stampFile.length()];
+            int read = 0;
+            while (read < data.length) {
+                int n = in.read(data, read, data.length - read);
+                if (n < 0) break;
+                read += n;
+            }
+            return new String(data, 0, read, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // 版本号 + 安装时间：同版本重新安装 (调试包) 也会触发重新解压
+    private static String ideVersion(Context context) {
+        try {
+            PackageInfo info = context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
+            return info.getLongVersionCode() + "-" + info.lastUpdateTime;
+        } catch (Exception e) {
+            return "unknown";
+        }
+    }
+}
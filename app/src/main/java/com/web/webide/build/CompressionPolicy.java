@@ -0,0 +1,210 @@
+/*
+ * WebIDE - A powerful IDE for Android web development.
+ * Copyright (C) 2025  如日中天  <3382198490@qq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.web.webide.build;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * 用户 assets 的压缩策略：按扩展名和文件大小决定 STORED、指定级别的 DEFLATE，
+ * 或者 AUTO (先压缩，节省不到 minSavings% 就改为 STORED)。
+ *
+ * 图片、音视频、字体等本身已压缩的格式默认直接 STORED：构建时不再白白消耗 CPU，
+ * 生成的 App 里 WebView 读取它们时也不用每次解压。STORED 条目按 4 字节对齐，
+ * 开启 pageAlign 后按 4096 字节对齐，运行时可以直接映射。
+ *
+ * 可以在项目的 webapp.json 里覆盖 (规则按顺序匹配，用户规则优先于默认规则)：
+ * <pre>
+ * "compression": {
+ *   "pageAlign": true,
+ *   "minSavings": 10,
+ *   "rules": [
+ *     { "ext": ["glb", "bin"], "mode": "store" },
+ *     { "ext": ["js"], "mode": "deflate", "level": 9 },
+ *     { "minSize": 1048576, "mode": "auto" }
+ *   ]
+ * }
+ * </pre>
+ */
+public class CompressionPolicy {
+
+    public enum Mode {
+        STORE, DEFLATE, AUTO
+    }
+
+    private static final int DEFAULT_MIN_SAVINGS_PERCENT = 5;
+
+    // 本身已经压缩过的格式
+    private static final String[] PRECOMPRESSED = {
+            "png", "jpg", "jpeg", "gif", "webp", "avif", "heic", "heif",
+            "mp3", "mp4", "m4a", "m4v", "aac", "ogg", "oga", "opus", "webm", "mkv", "mov", "3gp", "flac",
+            "woff", "woff2",
+            "zip", "gz", "tgz", "bz2", "xz", "7z", "br", "zst", "jar", "apk"
+    };
+
+    // 文本类资源，压缩效果稳定，不必试压
+    private static final String[] TEXT = {
+            "html", "htm", "css", "js", "mjs", "json", "xml", "svg", "txt", "md", "map", "csv", "wasm"
+    };
+
+    /** 一条规则：扩展名 (null 表示任意) + 大小范围 -> 压缩方式 */
+    public static class Rule {
+        final Set<String> extensions;
+        final long minSize;
+        final long maxSize;
+        final Mode mode;
+        final int level;
+
+        /**
+         * @param level DEFLATE / AUTO 使用的压缩级别，< 0 表示使用默认级别
+         */
+        public Rule(Set<String> extensions, long minSize, long maxSize, Mode mode, int level) {
+            this.extensions = extensions;
+            this.minSize = minSize;
+            this.maxSize = maxSize;
+            this.mode = mode;
+            this.level = level;
+        }
+
+        boolean matches(String extension, long size) {
+            return (extensions == null || extensions.contains(extension)) && size >= minSize && size <= maxSize;
+        }
+
+        public Mode getMode() {
+            return mode;
+        }
+    }
+
+    private final List<Rule> rules;
+    private final int defaultLevel;
+    private final int minSavingsPercent;
+    private final boolean pageAligned;
+
+    private CompressionPolicy(List<Rule> rules, int defaultLevel, int minSavingsPercent, boolean pageAligned) {
+        this.rules = rules;
+        this.defaultLevel = defaultLevel;
+        this.minSavingsPercent = minSavingsPercent;
+        this.pageAligned = pageAligned;
+    }
+
+    /**
+     * 默认策略：已压缩格式 STORED，文本 DEFLATE，其他 AUTO
+     */
+    public static CompressionPolicy defaults(int level) {
+        return new CompressionPolicy(defaultRules(), level, DEFAULT_MIN_SAVINGS_PERCENT, false);
+    }
+
+    /**
+     * 读取 webapp.json 中的 "compression" 配置，没有配置时返回默认策略
+     */
+    public static CompressionPolicy fromJson(JSONObject config, int level) {
+        JSONObject json = config == null ? null : config.optJSONObject("compression");
+        if (json == null) return defaults(level);
+
+        List<Rule> rules = new ArrayList<>();
+        JSONArray array = json.optJSONArray("rules");
+        if (array != null) {
+            for (int i = 0; i < array.length(); i++) {
+                JSONObject item = array.optJSONObject(i);
+                if (item != null) rules.add(parseRule(item));
+            }
+        }
+        rules.addAll(defaultRules());
+
+        int minSavings = json.optInt("minSavings", DEFAULT_MIN_SAVINGS_PERCENT);
+        return new CompressionPolicy(Collections.unmodifiableList(rules), level,
+                Math.max(0, Math.min(100, minSavings)), json.optBoolean("pageAlign", false));
+    }
+
+    private static Rule parseRule(JSONObject item) {
+        Set<String> extensions = null;
+        JSONArray ext = item.optJSONArray("ext");
+        if (ext != null) {
+            extensions = new HashSet<>();
+            for (int i = 0; i < ext.length(); i++) {
+                extensions.add(normalizeExtension(ext.optString(i)));
+            }
+        } else if (item.has("ext")) {
+            extensions = Collections.singleton(normalizeExtension(item.optString("ext")));
+        }
+
+        Mode mode;
+        try {
+            mode = Mode.valueOf(item.optString("mode", "auto").toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            mode = Mode.AUTO;
+        }
+        int level = item.optInt("level", -1);
+        if (level > 9) level = 9;
+        return new Rule(extensions, item.optLong("minSize", 0), item.optLong("maxSize", Long.MAX_VALUE), mode, level);
+    }
+
+    private static List<Rule> defaultRules() {
+        List<Rule> rules = new ArrayList<>();
+        rules.add(new Rule(new HashSet<>(Arrays.asList(PRECOMPRESSED)), 0, Long.MAX_VALUE, Mode.STORE, -1));
+        rules.add(new Rule(new HashSet<>(Arrays.asList(TEXT)), 0, Long.MAX_VALUE, Mode.DEFLATE, -1));
+        rules.add(new Rule(null, 0, Long.MAX_VALUE, Mode.AUTO, -1));
+        return rules;
+    }
+
+    /**
+     * 第一条匹配的规则；默认规则里有兜底的 AUTO，所以总能找到
+     */
+    public Rule select(String path, long size) {
+        String extension = extensionOf(path);
+        for (Rule rule : rules) {
+            if (rule.matches(extension, size)) return rule;
+        }
+        return new Rule(null, 0, Long.MAX_VALUE, Mode.AUTO, -1);
+    }
+
+    public int levelFor(Rule rule) {
+        return rule.level >= 0 ? rule.level : defaultLevel;
+    }
+
+    /**
+     * AUTO 模式下，压缩后至少节省 minSavings% 才保留 DEFLATE
+     */
+    public boolean worthDeflating(long size, long compressedSize) {
+        return compressedSize * 100 <= size * (100 - minSavingsPercent) && compressedSize < size;
+    }
+
+    /** STORED 条目的对齐字节数 */
+    public int getStoredAlignment() {
+        return pageAligned ? ApkStreamWriter.PAGE_ALIGNMENT : 4;
+    }
+
+    private static String extensionOf(String path) {
+        int slash = path.lastIndexOf('/');
+        int dot = path.lastIndexOf('.');
+        if (dot <= slash + 1) return "";
+        return path.substring(dot + 1).toLowerCase(Locale.ROOT);
+    }
+
+    private static String normalizeExtension(String extension) {
+        String ext = extension.trim().toLowerCase(Locale.ROOT);
+        return ext.startsWith(".") ? ext.substring(1) : ext;
+    }
+}
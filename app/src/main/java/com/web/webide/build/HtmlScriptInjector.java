@@ -0,0 +1,142 @@
+/*
+ * WebIDE - A powerful IDE for Android web development.
+ * Copyright (C) 2025  如日中天  <3382198490@qq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.web.webide.build;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 流式地往 HTML 里插入一段代码：在第一个 {@code </body>} (不区分大小写) 之前插入，
+ * 找不到时追加到末尾。
+ *
+ * 只在一个固定大小的窗口里扫描，窗口末尾保留 {@code </body>} 长度 - 1 个字节，
+ * 跨窗口的标签也能匹配。内存占用与文件大小无关，不需要把整个 HTML 读进来再解码成 String。
+ * 按字节匹配 ASCII 标签，UTF-8 的多字节字符不会被误判。
+ */
+public class HtmlScriptInjector extends InputStream {
+
+    private static final byte[] END_BODY = "</body>".getBytes(StandardCharsets.US_ASCII);
+    private static final int WINDOW_SIZE = 16 * 1024;
+
+    private final InputStream in;
+    private final byte[] injection;
+    private final byte[] window = new byte[WINDOW_SIZE];
+    private int count;       // 窗口中的有效字节数
+    private int pos;         // 下一个要输出的字节
+    private int safe;        // [pos, safe) 可以直接输出
+    private int injectAt = -1;
+    private boolean injected;
+    private boolean eof;
+    private byte[] pending;  // 正在输出的插入内容
+    private int pendingPos;
+
+    public HtmlScriptInjector(InputStream in, String injection) {
+        this.in = in;
+        this.injection = injection.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        while (true) {
+            if (pending != null) {
+                int n = Math.min(len, pending.length - pendingPos);
+                System.arraycopy(pending, pendingPos, b, off, n);
+                pendingPos += n;
+                if (pendingPos == pending.length) pending = null;
+                return n;
+            }
+            if (pos < safe) {
+                int n = Math.min(len, safe - pos);
+                System.arraycopy(window, pos, b, off, n);
+                pos += n;
+                return n;
+            }
+            if (pos == injectAt) {
+                // 标签前的内容已经输出，插入代码后原样输出剩下的部分
+                startInjection();
+                injectAt = -1;
+                safe = count;
+                continue;
+            }
+            if (eof) {
+                if (injected) return -1;
+                startInjection();
+                continue;
+            }
+            fill();
+        }
+    }
+
+    private void startInjection() {
+        pending = injection;
+        pendingPos = 0;
+        injected = true;
+    }
+
+    private void fill() throws IOException {
+        // 把未输出的尾部 (最多 </body> 长度 - 1 个字节) 移到窗口开头
+        count -= pos;
+        System.arraycopy(window, pos, window, 0, count);
+        pos = 0;
+
+        int n = in.read(window, count, window.length - count);
+        if (n < 0) {
+            eof = true;
+        } else {
+            count += n;
+        }
+
+        if (injected) {
+            safe = count;
+            return;
+        }
+        int index = indexOfEndBody(window, count);
+        if (index >= 0) {
+            injectAt = index;
+            safe = index;
+        } else {
+            safe = eof ? count : Math.max(0, count - (END_BODY.length - 1));
+        }
+    }
+
+    private static int indexOfEndBody(byte[] data, int length) {
+        outer:
+        for (int i = 0; i <= length - END_BODY.length; i++) {
+            for (int j = 0; j < END_BODY.length; j++) {
+                int c = data[i + j];
+                if (c >= 'A' && c <= 'Z') c += 'a' - 'A';
+                if (c != END_BODY[j]) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * WebIDE - A powerful IDE for Android web development.
+ * Copyright (C) 2025  如日中天  <3382198490@qq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.web.webide.build;
+
+import com.Day.Studio.Function.axmleditor.decode.AXMLDoc;
+import com.Day.Studio.Function.axmleditor.decode.StringBlock;
+import com.Day.Studio.Function.axmleditor.editor.ApplicationInfoEditor;
+import com.Day.Studio.Function.axmleditor.editor.PackageInfoEditor;
+import com.Day.Studio.Function.axmleditor.editor.PermissionEditor;
+import com.web.webide.core.utils.LogCatcher;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 内存中的二进制 AndroidManifest 编辑器。
+ *
+ * 只解析一次 AXML：应用名、包名/版本、权限、字符串池替换都直接改同一棵树和同一个字符串池，
+ * 最后 {@link #toByteArray()} 序列化一次。不再为每一步写临时文件、重新解析、重新序列化。
+ */
+public class ManifestEditor {
+
+    private static final String TAG = "ManifestEditor";
+
+    private final AXMLDoc doc;
+    private boolean released;
+
+    public ManifestEditor(byte[] data) throws IOException {
+        doc = new AXMLDoc();
+        try {
+            doc.parse(new ByteArrayInputStream(data));
+        } catch (Exception e) {
+            throw new IOException("无效的 AndroidManifest.xml", e);
+        }
+    }
+
+    /**
+     * 应用名 (application 的 label)，debuggable 固定为 false
+     */
+    public ManifestEditor setAppName(String appName) {
+        ApplicationInfoEditor editor = new ApplicationInfoEditor(doc);
+        editor.setEditorInfo(new ApplicationInfoEditor.EditorInfo(appName, false));
+        editor.commit();
+        return this;
+    }
+
+    public ManifestEditor setPackageInfo(String packageName, int versionCode, String versionName) {
+        PackageInfoEditor editor = new PackageInfoEditor(doc);
+        editor.setEditorInfo(new PackageInfoEditor.EditorInfo(versionCode, versionName, packageName));
+        editor.commit();
+        return this;
+    }
+
+    public ManifestEditor addPermission(String permission) {
+        return editPermission(permission, false);
+    }
+
+    public ManifestEditor removePermission(String permission) {
+        return editPermission(permission, true);
+    }
+
+    private ManifestEditor editPermission(String permission, boolean remove) {
+        try {
+            PermissionEditor editor = new PermissionEditor(doc);
+            PermissionEditor.EditorInfo info = new PermissionEditor.EditorInfo();
+            PermissionEditor.PermissionOpera op = new PermissionEditor.PermissionOpera(permission);
+            info.with(remove ? op.remove() : op.add());
+            editor.setEditorInfo(info);
+            editor.commit();
+        } catch (Exception e) {
+            LogCatcher.e(TAG, "权限修改失败: " + permission, e);
+        }
+        return this;
+    }
+
+    /**
+     * 按完全匹配替换字符串池中的字符串
+     *
+     * @return 被替换的字符串个数
+     */
+    public int replaceStrings(Map<String, String> replacements) {
+        if (replacements.isEmpty()) return 0;
+        StringBlock pool = doc.getStringBlock();
+        int replaced = 0;
+        for (int i = 0; i < pool.getStringCount(); i++) {
+            String current = pool.getStringFor(i);
+            String value = current == null ? null : replacements.get(current);
+            if (value != null) {
+                LogCatcher.d(TAG, "替换: " + current + " -> " + value);
+                pool.setString(i, value);
+                replaced++;
+            }
+        }
+        return replaced;
+    }
+
+    /**
+     * 字符串池快照 (按索引顺序)
+     */
+    public List<String> getStrings() {
+        StringBlock pool = doc.getStringBlock();
+        List<String> strings = new ArrayList<>(pool.getStringCount());
+        for (int i = 0; i < pool.getStringCount(); i++) {
+            strings.add(pool.getStringFor(i));
+        }
+        return strings;
+    }
+
+    /**
+     * 序列化修改后的 Manifest，并释放解析树；之后不能再修改
+     */
+    public byte[] toByteArray() throws IOException {
+        if (released) throw new IllegalStateException("ManifestEditor 已经序列化过");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            doc.build(out);
+        } catch (Exception e) {
+            throw new IOException("写入 AndroidManifest.xml 失败", e);
+        } finally {
+            doc.release();
+            released = true;
+        }
+        return out.toByteArray();
+    }
+}
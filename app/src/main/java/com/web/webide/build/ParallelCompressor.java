@@ -0,0 +1,155 @@
+/*
+ * WebIDE - A powerful IDE for Android web development.
+ * Copyright (C) 2025  如日中天  <3382198490@qq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.web.webide.build;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+/**
+ * 多核并行压缩：在固定大小的线程池里并发压缩，再按提交顺序交给 {@link Sink} 写入。
+ *
+ * 每个工作线程复用自己的 {@link Deflater} (每个条目前 reset 并恢复默认级别)；同一时刻最多只有
+ * parallelism * 2 个压缩结果在内存里。各条目独立压缩，输出与线程数无关。
+ */
+public class ParallelCompressor implements Closeable {
+
+    private static final int MAX_DEFAULT_PARALLELISM = 8;
+
+    public interface Task {
+        ApkStreamWriter.EntryData compress(Deflater deflater) throws IOException;
+    }
+
+    public interface Sink {
+        void write(int index, ApkStreamWriter.EntryData data) throws IOException;
+    }
+
+    private final int parallelism;
+    private final int level;
+    private final ExecutorService pool;
+    private final List<Deflater> deflaters = Collections.synchronizedList(new ArrayList<>());
+    private final ThreadLocal<Deflater> threadDeflater;
+
+    /**
+     * @param parallelism 线程数，<= 0 时按 CPU 核数自动选择，1 表示在调用线程上串行压缩
+     */
+    public ParallelCompressor(int parallelism, int level) {
+        this.parallelism = parallelism > 0 ? parallelism : defaultParallelism();
+        this.level = level;
+        this.threadDeflater = ThreadLocal.withInitial(() -> {
+            Deflater deflater = new Deflater(this.level, true);
+            deflaters.add(deflater);
+            return deflater;
+        });
+        if (this.parallelism > 1) {
+            AtomicInteger counter = new AtomicInteger();
+            pool = Executors.newFixedThreadPool(this.parallelism, r -> {
+                Thread t = new Thread(r, "apk-deflate-" + counter.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+        } else {
+            pool = null;
+        }
+    }
+
+    public static int defaultParallelism() {
+        return Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), MAX_DEFAULT_PARALLELISM));
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * 并行执行所有任务，并严格按列表顺序把结果交给 sink
+     */
+    public void compressInOrder(List<? extends Task> tasks, Sink sink) throws IOException {
+        if (pool == null) {
+            for (int i = 0; i < tasks.size(); i++) {
+                sink.write(i, run(tasks.get(i)));
+            }
+            return;
+        }
+
+        int window = parallelism * 2;
+        Deque<Future<ApkStreamWriter.EntryData>> inFlight = new ArrayDeque<>();
+        int next = 0;
+        int written = 0;
+        try {
+            while (written < tasks.size()) {
+                while (next < tasks.size() && inFlight.size() < window) {
+                    Task task = tasks.get(next++);
+                    inFlight.addLast(pool.submit(() -> run(task)));
+                }
+                sink.write(written++, await(inFlight.removeFirst()));
+            }
+        } finally {
+            for (Future<?> f : inFlight) f.cancel(true);
+        }
+    }
+
+    private ApkStreamWriter.EntryData run(Task task) throws IOException {
+        Deflater deflater = threadDeflater.get();
+        deflater.reset();
+        // 任务可能按压缩策略改过级别
+        deflater.setLevel(level);
+        return task.compress(deflater);
+    }
+
+    private static ApkStreamWriter.EntryData await(Future<ApkStreamWriter.EntryData> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("压缩被中断", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (pool != null) {
+            pool.shutdownNow();
+            try {
+                pool.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (deflaters) {
+            for (Deflater d : deflaters) d.end();
+            deflaters.clear();
+        }
+    }
+}
@@ -41,14 +41,36 @@ public class ProviderAuthReplacer {
      * @throws Exception 处理异常
      */
     public static void replaceProviderAuthorities(File manifestFile, String oldPackageName, String newPackageName) throws Exception {
-        if (oldPackageName == null || newPackageName == null ||
-                oldPackageName.equals(newPackageName)) {
-            LogCatcher.d("ProviderAuthReplacer", "包名相同，无需替换");
-            return;
+        Map<String, String> authMapping = buildAuthorityMapping(oldPackageName, newPackageName);
+
+        // 执行批量替换
+        if (!authMapping.isEmpty()) {
+            LogCatcher.i("ProviderAuthReplacer", "开始替换 Provider 授权，共 " + authMapping.size() + " 个映射");
+            batchReplaceStringInAXML(manifestFile, authMapping);
         }
+    }
 
+    /**
+     * 同上，直接修改已解析的 Manifest (不落盘、不重新解析)
+     */
+    public static void replaceProviderAuthorities(ManifestEditor manifest, String oldPackageName, String newPackageName) {
+        Map<String, String> authMapping = buildAuthorityMapping(oldPackageName, newPackageName);
+        if (!authMapping.isEmpty()) {
+            LogCatcher.i("ProviderAuthReplacer", "开始替换 Provider 授权，共 " + authMapping.size() + " 个映射");
+            if (manifest.replaceStrings(authMapping) == 0) {
+                LogCatcher.w("ProviderAuthReplacer", "未找到匹配的字符串进行替换");
+            }
+        }
+    }
+
+    private static Map<String, String> buildAuthorityMapping(String oldPackageName, String newPackageName) {
         // 构建需要替换的授权映射
         Map<String, String> authMapping = new HashMap<>();
+        if (oldPackageName == null || newPackageName == null ||
+                oldPackageName.equals(newPackageName)) {
+            LogCatcher.d("ProviderAuthReplacer", "包名相同，无需替换");
+            return authMapping;
+        }
 
         // 1. 基础 Provider 授权替换
         String[] baseProviders = {
@@ -94,11 +116,7 @@ public class ProviderAuthReplacer {
             authMapping.put(oldAuth, newAuth);
         }
 
-        // 执行批量替换
-        if (!authMapping.isEmpty()) {
-            LogCatcher.i("ProviderAuthReplacer", "开始替换 Provider 授权，共 " + authMapping.size() + " 个映射");
-            batchReplaceStringInAXML(manifestFile, authMapping);
-        }
+        return authMapping;
     }
 
     /**
@@ -153,8 +171,7 @@ public class ProviderAuthReplacer {
             strings.add(str);
 
             // 检查是否为 Provider 授权（常见的授权模式）
-            if (str.contains(".provider") || str.contains(".fileprovider") ||
-                    str.contains("content://") || str.contains(".startup")) {
+            if (isProviderAuthority(str)) {
                 authorities.add(str);
             }
         }
@@ -162,6 +179,11 @@ public class ProviderAuthReplacer {
         return authorities;
     }
 
+    private static boolean isProviderAuthority(String str) {
+        return str.contains(".provider") || str.contains(".fileprovider") ||
+                str.contains("content://") || str.contains(".startup");
+    }
+
     /**
      * 批量替换 AXML 中的字符串
      * @param axmlFile AXML 文件
@@ -412,4 +434,31 @@ public class ProviderAuthReplacer {
             LogCatcher.e("ProviderAuthReplacer", "修复 Provider 冲突失败", e);
         }
     }
+
+    /**
+     * 同上，直接修改已解析的 Manifest
+     */
+    public static void fixProviderConflicts(ManifestEditor manifest, String newPackageName) {
+        LogCatcher.i("ProviderAuthReplacer", "开始检查 Provider 冲突...");
+
+        Map<String, String> replacements = new HashMap<>();
+        int found = 0;
+        for (String str : manifest.getStrings()) {
+            if (str == null || !isProviderAuthority(str)) continue;
+            found++;
+            if (str.contains("com.web.webapp")) {
+                String newAuth = str.replace("com.web.webapp", newPackageName);
+                replacements.put(str, newAuth);
+                LogCatcher.d("ProviderAuthReplacer", "需要替换: " + str + " -> " + newAuth);
+            }
+        }
+        LogCatcher.i("ProviderAuthReplacer", "发现 " + found + " 个 Provider 授权");
+
+        if (!replacements.isEmpty()) {
+            manifest.replaceStrings(replacements);
+            LogCatcher.i("ProviderAuthReplacer", "Provider 冲突修复完成");
+        } else {
+            LogCatcher.i("ProviderAuthReplacer", "未发现需要替换的 Provider 授权");
+        }
+    }
 }
\ No newline at end of file
@@ -39,6 +39,7 @@ import androidx.compose.foundation.layout.*
 import androidx.compose.foundation.pager.HorizontalPager
 import androidx.compose.foundation.pager.rememberPagerState
 import androidx.compose.foundation.rememberScrollState
+import androidx.compose.foundation.verticalScroll
 import androidx.compose.foundation.shape.RoundedCornerShape
 import androidx.compose.material.icons.Icons
 import androidx.compose.material.icons.automirrored.filled.ArrowBack
@@ -54,6 +55,7 @@ import androidx.compose.ui.geometry.Offset
 import androidx.compose.ui.graphics.StrokeCap
 import androidx.compose.ui.graphics.drawscope.withTransform
 import androidx.compose.ui.platform.LocalContext
+import androidx.compose.ui.text.font.FontFamily
 import androidx.compose.ui.text.style.TextOverflow
 import androidx.compose.ui.unit.dp
 import androidx.compose.ui.util.lerp
@@ -74,6 +76,7 @@ import androidx.compose.ui.input.pointer.pointerInput
 import androidx.compose.ui.platform.LocalFocusManager
 import androidx.compose.ui.platform.LocalSoftwareKeyboardController
 import com.web.webide.build.ApkInstaller
+import com.web.webide.build.BuildReport
 import com.web.webide.ui.editor.components.EditorToolbar
 import com.web.webide.ui.editor.components.JumpLinePanel
 import com.web.webide.ui.editor.components.SearchPanel
@@ -85,7 +88,11 @@ import java.io.File
 
 // 构建结果状态
 sealed class BuildResultState {
-    data class Finished(val message: String, val apkPath: String? = null) : BuildResultState()
+    data class Finished(
+        val message: String,
+        val apkPath: String? = null,
+        val report: BuildReport? = null
+    ) : BuildResultState()
 }
 
 @OptIn(ExperimentalMaterial3Api::class)
@@ -470,7 +477,7 @@ fun CodeEditScreen(folderName: String, navController: NavController, viewModel:
                     onDismissRequest = { buildResult = null },
                     title = { Text(if (isSuccess) "构建成功" else "构建失败") },
                     text = {
-                        Column {
+                        Column(modifier = Modifier.verticalScroll(rememberScrollState())) {
                             if (isSuccess) {
                                 Text("APK 已生成，是否立即安装？")
                                 Spacer(modifier = Modifier.height(8.dp))
@@ -480,6 +487,15 @@ fun CodeEditScreen(folderName: String, navController: NavController, viewModel:
                                 Text("错误信息：", color = MaterialTheme.colorScheme.error)
                                 Text(result.message)
                             }
+                            result.report?.let { report ->
+                                Spacer(modifier = Modifier.height(8.dp))
+                                Text("构建报告:", style = MaterialTheme.typography.titleSmall)
+                                Text(
+                                    report.summary(),
+                                    style = MaterialTheme.typography.bodySmall,
+                                    fontFamily = FontFamily.Monospace
+                                )
+                            }
                         }
                     },
                     confirmButton = {
@@ -813,6 +829,7 @@ private suspend fun performBuild(
         }
     }
 
+    val report = BuildReport()
     val result = withContext(Dispatchers.IO) {
         com.web.webide.build.ApkBuilder.bin(
             context,
@@ -824,13 +841,15 @@ private suspend fun performBuild(
             verCode,
             iconPath,
             permissions,
-            isDebug
+            isDebug,
+            true,
+            report
         )
     }
 
     if (result.startsWith("error:")) {
-        onResult(BuildResultState.Finished(result, null))
+        onResult(BuildResultState.Finished(result, null, report))
     } else {
-        onResult(BuildResultState.Finished("构建成功", result))
+        onResult(BuildResultState.Finished("构建成功", result, report))
     }
 }
\ No newline at end of file
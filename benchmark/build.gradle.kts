@@ -0,0 +1,75 @@
+/*
+ * WebIDE - A powerful IDE for Android web development.
+ * Copyright (C) 2025  如日中天  <3382198490@qq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+// APK 构建流程的 JMH 基准测试 (在电脑上的 JVM 中运行，不打包进 App)
+//
+//   ./gradlew :benchmark:jmh
+//   ./gradlew :benchmark:jmh -PjmhIncludes=ZipAlignerBenchmark
+//
+// 结果写到 benchmark/build/results/jmh/results.json
+plugins {
+    `java-library`
+    alias(libs.plugins.jmh)
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_17
+    targetCompatibility = JavaVersion.VERSION_17
+}
+
+// app 是 Android 模块，JVM 上不能直接依赖；这里只编译构建流程里与 Android 无关的几个类，
+// 它们用到的 LogCatcher / android.os 在 src/jmh/java 下有 JVM 版的替身。
+// 这些类或替身对不上时 check (根目录的 ./gradlew check 也包括) 会编译失败，而不是等到下次跑基准测试才发现
+val appBuildSources = listOf(
+    "ApkArchive.java",
+    "ApkStreamWriter.java",
+    "BuildReport.java",
+    "ManifestEditor.java",
+    "ProviderAuthReplacer.java",
+    "ZipAligner.java",
+)
+
+sourceSets {
+    named("jmh") {
+        java {
+            srcDir("../app/src/main/java")
+            include("com/web/webide/benchmark/**")
+            include("com/web/webide/core/utils/LogCatcher.java")
+            include("android/os/**")
+            appBuildSources.forEach { include("com/web/webide/build/$it") }
+        }
+    }
+}
+
+dependencies {
+    jmhImplementation(project(":signer"))
+    jmhImplementation(files("../app/libs/xml.jar"))
+}
+
+tasks.named("check") {
+    dependsOn(tasks.named("jmhClasses"))
+}
+
+jmh {
+    jmhVersion.set(libs.versions.jmh)
+    resultFormat.set("JSON")
+    // 基准测试从仓库里读取构建模板和调试签名
+    jvmArgsAppend.add("-Dwebide.root=${rootProject.projectDir.absolutePath}")
+    jvmArgsAppend.add("-Xmx2g")
+    (findProperty("jmhIncludes") as String?)?.let { includes.add(it) }
+}
@@ -0,0 +1,88 @@
+/*
+ * WebIDE - A powerful IDE for Android web development.
+ * Copyright (C) 2025  如日中天  <3382198490@qq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.web.webide.benchmark;
+
+import com.android.apksig.ApkSigner;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * apksig {@link ApkSigner#sign()}：与 ApkBuilder 相同的 v1 + v2 签名配置
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ApkSignerBenchmark {
+
+    @Param({"1", "20", "200"})
+    public int sizeMb;
+
+    @Param({"FEW_LARGE", "MANY_SMALL"})
+    public SyntheticApk.Layout layout;
+
+    private File dir;
+    private File input;
+    private File output;
+    private ApkSigner.SignerConfig signerConfig;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("apksigner-bench").toFile();
+        input = SyntheticApk.create(dir, sizeMb, layout);
+        output = new File(dir, "signed.apk");
+        signerConfig = SyntheticApk.debugSignerConfig();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        SyntheticApk.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public long sign() throws Exception {
+        new ApkSigner.Builder(Collections.singletonList(signerConfig))
+                .setInputApk(input)
+                .setOutputApk(output)
+                .setMinSdkVersion(21)
+                .setV1SigningEnabled(true)
+                .setV2SigningEnabled(true)
+                .setV3SigningEnabled(false)
+                .build()
+                .sign();
+        return output.length();
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * WebIDE - A powerful IDE for Android web development.
+ * Copyright (C) 2025  如日中天  <3382198490@qq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.web.webide.benchmark;
+
+import com.android.apksig.ApkSigner;
+import com.android.apksig.internal.asn1.Asn1BerParser;
+import com.android.apksig.internal.asn1.Asn1DecodingException;
+import com.android.apksig.internal.asn1.Asn1DerEncoder;
+import com.android.apksig.internal.asn1.Asn1EncodingException;
+import com.android.apksig.internal.pkcs7.ContentInfo;
+import com.android.apksig.internal.pkcs7.SignedData;
+import com.android.apksig.internal.x509.Certificate;
+import java.io.File;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * apksig ASN.1 编解码 ({@link Asn1BerParser} / {@link Asn1DerEncoder}) 的吞吐量：
+ * 解析和编码 v1 签名块 (META-INF/CERT.RSA) 中的 PKCS#7 SignedData 以及调试签名的 X.509 证书，
+ * 签名和校验时每个签名者都要走一遍这些路径。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class Asn1CodecBenchmark {
+
+    private ByteBuffer signedDataEncoded;
+    private ByteBuffer certificateEncoded;
+    private SignedData signedData;
+    private Certificate certificate;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        // 用调试签名对一个小 APK 做 v1 签名，取出其中真实的 SignedData
+        File dir = Files.createTempDirectory("asn1-bench").toFile();
+        try {
+            File signed = new File(dir, "signed.apk");
+            ApkSigner.SignerConfig signerConfig = SyntheticApk.debugSignerConfig();
+            new ApkSigner.Builder(Collections.singletonList(signerConfig))
+                    .setInputApk(SyntheticApk.create(dir, 1, SyntheticApk.Layout.FEW_LARGE))
+                    .setOutputApk(signed)
+                    .setMinSdkVersion(21)
+                    .setV1SigningEnabled(true)
+                    .setV2SigningEnabled(false)
+                    .setV3SigningEnabled(false)
+                    .build()
+                    .sign();
+            byte[] cms;
+            try (ZipFile zip = new ZipFile(signed);
+                 InputStream in = zip.getInputStream(zip.getEntry("META-INF/CERT.RSA"))) {
+                cms = in.readAllBytes();
+            }
+            ContentInfo contentInfo = Asn1BerParser.parse(ByteBuffer.wrap(cms), ContentInfo.class);
+            signedDataEncoded = contentInfo.content.getEncoded();
+            certificateEncoded = ByteBuffer.wrap(signerConfig.getCertificates().get(0).getEncoded());
+        } finally {
+            SyntheticApk.deleteRecursively(dir);
+        }
+        signedData = parseSignedData();
+        certificate = parseCertificate();
+    }
+
+    @Benchmark
+    public SignedData parseSignedData() throws Asn1DecodingException {
+        return Asn1BerParser.parse(signedDataEncoded.duplicate(), SignedData.class);
+    }
+
+    @Benchmark
+    public byte[] encodeSignedData() throws Asn1EncodingException {
+        return Asn1DerEncoder.encode(signedData);
+    }
+
+    @Benchmark
+    public Certificate parseCertificate() throws Asn1DecodingException {
+        return Asn1BerParser.parse(certificateEncoded.duplicate(), Certificate.class);
+    }
+
+    @Benchmark
+    public byte[] encodeCertificate() throws Asn1EncodingException {
+        return Asn1DerEncoder.encode(certificate);
+    }
+}
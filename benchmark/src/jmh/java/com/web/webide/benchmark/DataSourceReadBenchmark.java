@@ -0,0 +1,136 @@
+/*
+ * WebIDE - A powerful IDE for Android web development.
+ * Copyright (C) 2025  如日中天  <3382198490@qq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.web.webide.benchmark;
+
+import com.android.apksig.util.DataSink;
+import com.android.apksig.util.DataSource;
+import com.android.apksig.util.DataSources;
+import com.android.apksig.util.RunnablesExecutors;
+import com.android.apksig.util.WorkStealingRunnablesExecutor;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * apksig {@link DataSource} 的并发读取吞吐量随线程数的变化：threads 个线程按 1 MB 分块读完整个 APK
+ * (与 v2/v3 分块摘要的访问方式相同)，每块过一遍 CRC32，保证数据真的被读到。
+ *
+ * 结果是每秒读完整个文件的次数，乘以 sizeMb 即为 MB/s。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DataSourceReadBenchmark {
+
+    private static final int CHUNK_SIZE = 1024 * 1024;
+
+    /** 读取方式 */
+    public enum Source {
+        /** DataSources.asDataSource：FileChannel 定位读取 + 线程内复用的直接缓冲区 */
+        FILE_CHANNEL,
+        /** DataSources.asMappedDataSource：内存映射，不拷贝 */
+        MAPPED
+    }
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    @Param({"FILE_CHANNEL", "MAPPED"})
+    public Source source;
+
+    @Param({"200"})
+    public int sizeMb;
+
+    private File dir;
+    private RandomAccessFile file;
+    private DataSource dataSource;
+    private WorkStealingRunnablesExecutor executor;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("datasource-bench").toFile();
+        file = new RandomAccessFile(SyntheticApk.create(dir, sizeMb, SyntheticApk.Layout.FEW_LARGE), "r");
+        dataSource = source == Source.MAPPED
+                ? DataSources.asMappedDataSource(file)
+                : DataSources.asDataSource(file.getChannel(), 0, file.length());
+        executor = RunnablesExecutors.newWorkStealingExecutor(threads);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        executor.close();
+        file.close();
+        SyntheticApk.deleteRecursively(dir);
+    }
+
+    @Benchmark
+    public long readAll() {
+        long size = dataSource.size();
+        int chunkCount = (int) ((size + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        AtomicInteger nextChunk = new AtomicInteger();
+        AtomicLong checksum = new AtomicLong();
+        executor.execute(() -> () -> {
+            CRC32 crc = new CRC32();
+            DataSink sink = new DataSink() {
+                @Override
+                public void consume(byte[] buf, int offset, int length) {
+                    crc.update(buf, offset, length);
+                }
+
+                @Override
+                public void consume(ByteBuffer buf) {
+                    crc.update(buf);
+                }
+            };
+            int chunk;
+            while ((chunk = nextChunk.getAndIncrement()) < chunkCount) {
+                long offset = (long) chunk * CHUNK_SIZE;
+                try {
+                    dataSource.feed(offset, Math.min(CHUNK_SIZE, size - offset), sink);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            checksum.addAndGet(crc.getValue());
+        });
+        return checksum.get();
+    }
+}
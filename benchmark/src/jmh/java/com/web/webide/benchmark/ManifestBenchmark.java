@@ -0,0 +1,108 @@
+/*
+ * WebIDE - A powerful IDE for Android web development.
+ * Copyright (C) 2025  如日中天  <3382198490@qq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.web.webide.benchmark;
+
+import com.web.webide.build.ManifestEditor;
+import com.web.webide.build.ProviderAuthReplacer;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * 模板 AndroidManifest.xml 的改写：
+ * <ul>
+ *   <li>{@link ProviderAuthReplacer#batchReplaceStringInAXML}：基于文件的字符串池重写</li>
+ *   <li>{@link ManifestEditor}：ApkBuilder.processManifest 使用的内存流水线 (解析一次、序列化一次)</li>
+ * </ul>
+ * xml.jar 中有接口缺少 ACC_ABSTRACT 标志，ART 可以加载但 HotSpot 默认会拒绝，所以这里的 fork 关闭了类文件校验。
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-XX:+UnlockDiagnosticVMOptions", "-XX:-BytecodeVerificationRemote"})
+public class ManifestBenchmark {
+
+    private static final String OLD_PACKAGE = "com.web.webapp";
+    private static final String NEW_PACKAGE = "com.example.benchmark";
+
+    private byte[] manifest;
+    private Map<String, String> replacements;
+    private File file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        manifest = SyntheticApk.templateManifest();
+        // 与 ApkBuilder.processManifest 中的替换表相同
+        replacements = new HashMap<>();
+        replacements.put(OLD_PACKAGE + ".androidx-startup", NEW_PACKAGE + ".androidx-startup");
+        replacements.put(OLD_PACKAGE + ".fileprovider", NEW_PACKAGE + ".fileprovider");
+        replacements.put(".MainActivity", OLD_PACKAGE + ".MainActivity");
+        replacements.put(OLD_PACKAGE + ".DYNAMIC_RECEIVER_NOT_EXPORTED_PERMISSION",
+                NEW_PACKAGE + ".DYNAMIC_RECEIVER_NOT_EXPORTED_PERMISSION");
+        file = File.createTempFile("manifest-bench", ".xml");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+    }
+
+    // 文件版本会原地改写，每次调用前恢复原始内容 (单次耗时在百微秒级以上，Invocation 级别的开销可以忽略)
+    @Setup(Level.Invocation)
+    public void resetFile() throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(manifest);
+        }
+    }
+
+    @Benchmark
+    public long batchReplaceStringInAXML() throws Exception {
+        ProviderAuthReplacer.batchReplaceStringInAXML(file, replacements);
+        return file.length();
+    }
+
+    @Benchmark
+    public byte[] manifestEditorPipeline() throws Exception {
+        ManifestEditor editor = new ManifestEditor(manifest);
+        editor.setAppName("Benchmark");
+        editor.setPackageInfo(NEW_PACKAGE, 2, "2.0");
+        editor.addPermission("android.permission.CAMERA");
+        editor.addPermission("android.permission.INTERNET");
+        editor.replaceStrings(replacements);
+        ProviderAuthReplacer.replaceProviderAuthorities(editor, OLD_PACKAGE, NEW_PACKAGE);
+        ProviderAuthReplacer.fixProviderConflicts(editor, NEW_PACKAGE);
+        return editor.toByteArray();
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * WebIDE - A powerful IDE for Android web development.
+ * Copyright (C) 2025  如日中天  <3382198490@qq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.web.webide.benchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * 基准测试用的输入：按指定大小和条目分布生成的模板 APK，以及仓库里的真实 Manifest 和调试签名。
+ *
+ * 内容由固定种子生成，每次运行得到的文件完全相同。
+ */
+final class SyntheticApk {
+
+    /** 条目分布 */
+    enum Layout {
+        /** 少量大文件 (类似 .so、大图片)，每个条目 1/8 的总大小，至少 256 KB */
+        FEW_LARGE,
+        /** 大量 16 KB 的小文件 (类似 web 资源) */
+        MANY_SMALL
+    }
+
+    private static final int SMALL_ENTRY_SIZE = 16 * 1024;
+    private static final int MIN_LARGE_ENTRY_SIZE = 256 * 1024;
+
+    private static final String TEMPLATE_APK = "app/src/main/assets/webapp_1.0.apk";
+    private static final String DEBUG_KEYSTORE = "app/src/main/assets/WebIDE.jks";
+
+    private SyntheticApk() {
+    }
+
+    /**
+     * 生成未压缩数据总量约为 sizeMb MB 的 APK：一半条目是 STORED 的随机数据 (不可压缩)，
+     * 一半是 DEFLATED 的文本 (可压缩)，另外带上模板中的 AndroidManifest.xml
+     */
+    static File create(File dir, int sizeMb, Layout layout) throws IOException {
+        long total = sizeMb * 1024L * 1024L;
+        int entrySize = layout == Layout.MANY_SMALL
+                ? SMALL_ENTRY_SIZE
+                : (int) Math.max(MIN_LARGE_ENTRY_SIZE, total / 8);
+        int count = (int) Math.max(1, total / entrySize);
+
+        File apk = new File(dir, "synthetic-" + sizeMb + "mb-" + layout.name().toLowerCase() + ".apk");
+        Random random = new Random(sizeMb * 31L + layout.ordinal());
+        byte[] data = new byte[entrySize];
+        try (ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(apk), 1 << 16))) {
+            zip.setLevel(6);
+
+            ZipEntry manifest = new ZipEntry("AndroidManifest.xml");
+            zip.putNextEntry(manifest);
+            zip.write(templateManifest());
+            zip.closeEntry();
+
+            for (int i = 0; i < count; i++) {
+                if (i % 2 == 0) {
+                    random.nextBytes(data);
+                    ZipEntry entry = new ZipEntry("res/raw/blob_" + i + ".bin");
+                    entry.setMethod(ZipEntry.STORED);
+                    entry.setSize(data.length);
+                    CRC32 crc = new CRC32();
+                    crc.update(data);
+                    entry.setCrc(crc.getValue());
+                    zip.putNextEntry(entry);
+                    zip.write(data);
+                } else {
+                    fillText(data, random);
+                    zip.putNextEntry(new ZipEntry("assets/js/script_" + i + ".js"));
+                    zip.write(data);
+                }
+                zip.closeEntry();
+            }
+        }
+        return apk;
+    }
+
+    // 由有限词表组成的伪 JS 文本，压缩率接近真实的网页资源
+    private static void fillText(byte[] data, Random random) {
+        String[] words = {"function ", "return ", "const ", "let ", "document", ".getElementById(", "'app'", ");\n",
+                "if (", ") {\n", "}\n", "console.log(", "window.", "addEventListener", "=> ", "null", "this.", "  "};
+        int pos = 0;
+        while (pos < data.length) {
+            byte[] word = words[random.nextInt(words.length)].getBytes(StandardCharsets.UTF_8);
+            int n = Math.min(word.length, data.length - pos);
+            System.arraycopy(word, 0, data, pos, n);
+            pos += n;
+        }
+    }
+
+    /** 构建模板中的二进制 AndroidManifest.xml */
+    static byte[] templateManifest() throws IOException {
+        try (ZipFile template = new ZipFile(repoFile(TEMPLATE_APK));
+             InputStream in = template.getInputStream(template.getEntry("AndroidManifest.xml"))) {
+            return in.readAllBytes();
+        }
+    }
+
+    /** App 内置的调试签名 (与 ApkBuilder 使用的相同) */
+    static com.android.apksig.ApkSigner.SignerConfig debugSignerConfig() throws IOException {
+        try (InputStream in = new FileInputStream(repoFile(DEBUG_KEYSTORE))) {
+            KeyStore keyStore = KeyStore.getInstance("JKS");
+            keyStore.load(in, "WebIDE".toCharArray());
+            PrivateKey key = (PrivateKey) keyStore.getKey("WebIDE", "WebIDE".toCharArray());
+            X509Certificate cert = (X509Certificate) keyStore.getCertificate("WebIDE");
+            return new com.android.apksig.ApkSigner.SignerConfig.Builder(
+                    "CERT", key, Collections.singletonList(cert)).build();
+        } catch (GeneralSecurityException e) {
+            throw new IOException("无法加载调试签名", e);
+        }
+    }
+
+    private static File repoFile(String path) {
+        String root = System.getProperty("webide.root", "..");
+        return new File(root, path);
+    }
+
+    static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) deleteRecursively(child);
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,42 @@
+/*
+ * WebIDE - A powerful IDE for Android web development.
+ * Copyright (C) 2025  如日中天  <3382198490@qq.com>
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package com.web.webide.core.utils;
+
+/**
+ * JVM 上的替身：基准测试时不输出日志，避免 I/O 干扰计时
+ */
+public final class LogCatcher {
+
+    private LogCatcher() {
+    }
+
+    public static void d(String tag, String message) {
+    }
+
+    public static void i(String tag, String message) {
+    }
+
+    public static void w(String tag, String message) {
+    }
+
+    public static void e(String tag, String message) {
+    }
+
+    public static void e(String tag, String message, Exception exception) {
+    }
+}
@@ -51,4 +51,4 @@ dependencyResolutionManagement {
 }
 
 rootProject.name = "WebIDE"
-include(":app",":signer",":webapp",":web-bridge")
+include(":app",":signer",":webapp",":web-bridge",":benchmark")
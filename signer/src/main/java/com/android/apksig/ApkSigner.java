@@ -10,15 +10,20 @@ import com.android.apksig.apk.ApkSigningBlockNotFoundException;
 import com.android.apksig.apk.ApkUtils;
 import com.android.apksig.apk.MinSdkVersionException;
 import com.android.apksig.internal.util.ByteBufferDataSource;
+import com.android.apksig.internal.util.TeeDataSink;
+import com.android.apksig.internal.zip.CentralDirectoryIndex;
 import com.android.apksig.internal.zip.CentralDirectoryRecord;
+import com.android.apksig.internal.zip.DeflatingDataSink;
 import com.android.apksig.internal.zip.EocdRecord;
 import com.android.apksig.internal.zip.LocalFileRecord;
+import com.android.apksig.internal.zip.ZipEntryRanges;
 import com.android.apksig.internal.zip.ZipUtils;
 import com.android.apksig.util.DataSink;
 import com.android.apksig.util.DataSinks;
 import com.android.apksig.util.DataSource;
 import com.android.apksig.util.DataSources;
 import com.android.apksig.util.ReadableDataSink;
+import com.android.apksig.util.RunnablesExecutor;
 import com.android.apksig.zip.ZipFormatException;
 
 import java.io.Closeable;
@@ -36,10 +41,11 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Inflater;
 
 
 public class ApkSigner {
@@ -91,6 +97,10 @@ public class ApkSigner {
 
     private final SigningCertificateLineage mSigningCertificateLineage;
 
+    private final RunnablesExecutor mExecutor;
+
+    private final JarEntryDigestCache mJarEntryDigestCache;
+
     private ApkSigner(
             List<SignerConfig> signerConfigs,
             SignerConfig sourceStampSignerConfig,
@@ -112,7 +122,9 @@ public class ApkSigner {
             DataSink outputApkDataSink,
             DataSource outputApkDataSource,
             File outputV4File,
-            SigningCertificateLineage signingCertificateLineage) {
+            SigningCertificateLineage signingCertificateLineage,
+            RunnablesExecutor executor,
+            JarEntryDigestCache jarEntryDigestCache) {
 
         mSignerConfigs = signerConfigs;
         mSourceStampSignerConfig = sourceStampSignerConfig;
@@ -140,6 +152,10 @@ public class ApkSigner {
         mOutputV4File = outputV4File;
 
         mSigningCertificateLineage = signingCertificateLineage;
+
+        mExecutor = executor;
+
+        mJarEntryDigestCache = jarEntryDigestCache;
     }
 
     private static long outputDataToOutputApk(
@@ -151,9 +167,15 @@ public class ApkSigner {
             int lastModifiedDateForNewEntries,
             DataSink outputApkOut)
             throws IOException {
-        ZipUtils.DeflateResult deflateResult = ZipUtils.deflate(ByteBuffer.wrap(uncompressedData));
-        byte[] compressedData = deflateResult.output;
-        long uncompressedDataCrc32 = deflateResult.inputCrc32;
+        // The Local File Header precedes the data and holds its compressed size, thus the data
+        // is compressed, along with its CRC-32, before the record is output.
+        ReadableDataSink compressedData = DataSinks.newInMemoryDataSink();
+        long uncompressedDataCrc32;
+        try (DeflatingDataSink deflater = new DeflatingDataSink(compressedData)) {
+            deflater.consume(uncompressedData, 0, uncompressedData.length);
+            deflater.finish();
+            uncompressedDataCrc32 = deflater.getInputCrc32();
+        }
         long numOfDataBytes =
                 LocalFileRecord.outputRecordWithDeflateCompressedData(
                         entryName,
@@ -169,23 +191,61 @@ public class ApkSigner {
                         lastModifiedTimeForNewEntries,
                         lastModifiedDateForNewEntries,
                         uncompressedDataCrc32,
-                        compressedData.length,
+                        compressedData.size(),
                         uncompressedData.length,
                         localFileHeaderOffset));
         return numOfDataBytes;
     }
 
-    private static void fulfillInspectInputJarEntryRequest(
+    /**
+     * Fulfills the provided entry inspection requests using the provided executor. Each worker
+     * claims contiguous ranges of entries (in Local File Header order), so that the input is read
+     * mostly sequentially, and reuses one {@link Inflater} for all entries it uncompresses.
+     *
+     * <p>If inspecting an entry fails, the failure of the first such entry in the list is thrown.
+     */
+    private static void fulfillInspectJarEntryRequests(
             DataSource lfhSection,
-            LocalFileRecord localFileRecord,
-            ApkSignerEngine.InspectJarEntryRequest inspectEntryRequest)
+            List<JarEntryInspection> inspections,
+            RunnablesExecutor executor)
             throws IOException, ApkFormatException {
-        try {
-            localFileRecord.outputUncompressedData(lfhSection, inspectEntryRequest.getDataSink());
-        } catch (ZipFormatException e) {
-            throw new ApkFormatException("Malformed ZIP entry: " + localFileRecord.getName(), e);
+        if (inspections.isEmpty()) {
+            return;
+        }
+        // Ranges are sized by the input entries' Local File Header and data.
+        List<int[]> ranges = ZipEntryRanges.split(
+                inspections.size(), i -> inspections.get(i).mLocalFileRecord.getSize());
+        AtomicInteger nextRange = new AtomicInteger();
+        AtomicBoolean failed = new AtomicBoolean();
+        executor.execute(() -> () -> {
+            Inflater inflater = new Inflater(true);
+            try {
+                int rangeIndex;
+                while ((rangeIndex = nextRange.getAndIncrement()) < ranges.size()) {
+                    int[] range = ranges.get(rangeIndex);
+                    for (int i = range[0]; i < range[1]; i++) {
+                        if (failed.get()) {
+                            // Signing fails anyway, don't waste time on the remaining entries.
+                            return;
+                        }
+                        JarEntryInspection inspection = inspections.get(i);
+                        inspection.fulfill(lfhSection, inflater);
+                        if (inspection.mFailure != null) {
+                            failed.set(true);
+                        }
+                    }
+                }
+            } finally {
+                inflater.end();
+            }
+        });
+        if (failed.get()) {
+            for (JarEntryInspection inspection : inspections) {
+                if (inspection.mFailure != null) {
+                    inspection.rethrowFailure();
+                }
+            }
         }
-        inspectEntryRequest.done();
     }
 
     private static OutputSizeAndDataOffset outputInputJarEntryLfhRecordPreservingDataAlignment(
@@ -354,12 +414,11 @@ public class ApkSigner {
         return cd;
     }
 
-    private static List<CentralDirectoryRecord> parseZipCentralDirectory(
+    private static CentralDirectoryIndex parseZipCentralDirectory(
             ByteBuffer cd, ApkUtils.ZipSections apkSections) throws ApkFormatException {
         long cdOffset = apkSections.getZipCentralDirectoryOffset();
         int expectedCdRecordCount = apkSections.getZipCentralDirectoryRecordCount();
         List<CentralDirectoryRecord> cdRecords = new ArrayList<>(expectedCdRecordCount);
-        Set<String> entryNames = new HashSet<>(expectedCdRecordCount);
         for (int i = 0; i < expectedCdRecordCount; i++) {
             CentralDirectoryRecord cdRecord;
             int offsetInsideCd = cd.position();
@@ -373,13 +432,14 @@ public class ApkSigner {
                                 + (cdOffset + offsetInsideCd),
                         e);
             }
-            String entryName = cdRecord.getName();
-            if (!entryNames.add(entryName)) {
-                throw new ApkFormatException(
-                        "Multiple ZIP entries with the same name: " + entryName);
-            }
             cdRecords.add(cdRecord);
         }
+        CentralDirectoryIndex cdIndex = new CentralDirectoryIndex(cdRecords);
+        if (!cdIndex.getDuplicateNames().isEmpty()) {
+            throw new ApkFormatException(
+                    "Multiple ZIP entries with the same name: "
+                            + cdIndex.getDuplicateNames().iterator().next());
+        }
         if (cd.hasRemaining()) {
             throw new ApkFormatException(
                     "Unused space at the end of ZIP Central Directory: "
@@ -388,17 +448,7 @@ public class ApkSigner {
                             + (cdOffset + cd.position()));
         }
 
-        return cdRecords;
-    }
-
-    private static CentralDirectoryRecord findCdRecord(
-            List<CentralDirectoryRecord> cdRecords, String name) {
-        for (CentralDirectoryRecord cdRecord : cdRecords) {
-            if (name.equals(cdRecord.getName())) {
-                return cdRecord;
-            }
-        }
-        return null;
+        return cdIndex;
     }
 
     /**
@@ -406,10 +456,10 @@ public class ApkSigner {
      * is not present in the APK.
      */
     static ByteBuffer getAndroidManifestFromApk(
-            List<CentralDirectoryRecord> cdRecords, DataSource lhfSection)
+            CentralDirectoryIndex cdIndex, DataSource lhfSection)
             throws IOException, ApkFormatException, ZipFormatException {
         CentralDirectoryRecord androidManifestCdRecord =
-                findCdRecord(cdRecords, ANDROID_MANIFEST_ZIP_ENTRY_NAME);
+                cdIndex.findRecord(ANDROID_MANIFEST_ZIP_ENTRY_NAME);
         if (androidManifestCdRecord == null) {
             throw new ApkFormatException("Missing " + ANDROID_MANIFEST_ZIP_ENTRY_NAME);
         }
@@ -424,10 +474,10 @@ public class ApkSigner {
      * {@code null}.
      */
     private static List<Hints.PatternWithRange> extractPinPatterns(
-            List<CentralDirectoryRecord> cdRecords, DataSource lhfSection)
+            CentralDirectoryIndex cdIndex, DataSource lhfSection)
             throws IOException, ApkFormatException {
         CentralDirectoryRecord pinListCdRecord =
-                findCdRecord(cdRecords, Hints.PIN_HINT_ASSET_ZIP_ENTRY_NAME);
+                cdIndex.findRecord(Hints.PIN_HINT_ASSET_ZIP_ENTRY_NAME);
         List<Hints.PatternWithRange> pinPatterns = null;
         if (pinListCdRecord != null) {
             pinPatterns = new ArrayList<>();
@@ -449,11 +499,11 @@ public class ApkSigner {
      * on the {@code android:minSdkVersion} attributes of the APK's {@code AndroidManifest.xml}.
      */
     private static int getMinSdkVersionFromApk(
-            List<CentralDirectoryRecord> cdRecords, DataSource lhfSection)
+            CentralDirectoryIndex cdIndex, DataSource lhfSection)
             throws IOException, MinSdkVersionException {
         ByteBuffer androidManifest;
         try {
-            androidManifest = getAndroidManifestFromApk(cdRecords, lhfSection);
+            androidManifest = getAndroidManifestFromApk(cdIndex, lhfSection);
         } catch (ZipFormatException | ApkFormatException e) {
             throw new MinSdkVersionException(
                     "Failed to determine APK's minimum supported Android platform version", e);
@@ -485,7 +535,7 @@ public class ApkSigner {
             } else if (mInputApkFile != null) {
                 RandomAccessFile inputFile = new RandomAccessFile(mInputApkFile, "r");
                 in = inputFile;
-                inputApk = DataSources.asDataSource(inputFile);
+                inputApk = DataSources.asMappedDataSource(inputFile);
             } else {
                 throw new IllegalStateException("Input APK not specified");
             }
@@ -551,11 +601,10 @@ public class ApkSigner {
 
         // Step 2. Parse the input APK's ZIP Central Directory
         ByteBuffer inputCd = getZipCentralDirectory(inputApk, inputZipSections);
-        List<CentralDirectoryRecord> inputCdRecords =
-                parseZipCentralDirectory(inputCd, inputZipSections);
+        CentralDirectoryIndex inputCdIndex = parseZipCentralDirectory(inputCd, inputZipSections);
 
         List<Hints.PatternWithRange> pinPatterns =
-                extractPinPatterns(inputCdRecords, inputApkLfhSection);
+                extractPinPatterns(inputCdIndex, inputApkLfhSection);
         List<Hints.ByteRange> pinByteRanges = pinPatterns == null ? null : new ArrayList<>();
 
         // Step 3. Obtain a signer engine instance
@@ -571,7 +620,7 @@ public class ApkSigner {
                 minSdkVersion = mMinSdkVersion;
             } else {
                 // Need to extract minSdkVersion from the APK's AndroidManifest.xml
-                minSdkVersion = getMinSdkVersionFromApk(inputCdRecords, inputApkLfhSection);
+                minSdkVersion = getMinSdkVersionFromApk(inputCdIndex, inputApkLfhSection);
             }
             List<DefaultApkSignerEngine.SignerConfig> engineSignerConfigs =
                     new ArrayList<>(mSignerConfigs.size());
@@ -604,6 +653,7 @@ public class ApkSigner {
                                 .build());
             }
             signerEngine = signerEngineBuilder.build();
+            signerEngine.setExecutor(mExecutor);
         }
 
         // Step 4. Provide the signer engine with the input APK's APK Signing Block (if any)
@@ -616,17 +666,17 @@ public class ApkSigner {
         // File Header records are stored in the file. This is to achieve better data locality in
         // case Central Directory entries are in the wrong order.
         List<CentralDirectoryRecord> inputCdRecordsSortedByLfhOffset =
-                new ArrayList<>(inputCdRecords);
-        Collections.sort(
-                inputCdRecordsSortedByLfhOffset,
-                CentralDirectoryRecord.BY_LOCAL_FILE_HEADER_OFFSET_COMPARATOR);
+                inputCdIndex.getRecordsSortedByLocalFileHeaderOffset();
         int lastModifiedDateForNewEntries = -1;
         int lastModifiedTimeForNewEntries = -1;
         long inputOffset = 0;
         long outputOffset = 0;
         byte[] sourceStampCertificateDigest = null;
         Map<String, CentralDirectoryRecord> outputCdRecordsByName =
-                new HashMap<>(inputCdRecords.size());
+                new HashMap<>(inputCdIndex.size());
+        List<JarEntryInspection> jarEntryInspections = new ArrayList<>(inputCdIndex.size());
+        List<CachedJarEntryDigest> jarEntryDigestsToCache =
+                (mJarEntryDigestCache != null) ? new ArrayList<>() : null;
         for (final CentralDirectoryRecord inputCdRecord : inputCdRecordsSortedByLfhOffset) {
             String entryName = inputCdRecord.getName();
             if (Hints.PIN_BYTE_RANGE_ZIP_ENTRY_NAME.equals(entryName)) {
@@ -678,12 +728,9 @@ public class ApkSigner {
             }
             inputOffset += inputLocalFileRecord.getSize();
 
-            ApkSignerEngine.InspectJarEntryRequest inspectEntryRequest =
+            ApkSignerEngine.InspectJarEntryRequest inputInspectEntryRequest =
                     entryInstructions.getInspectJarEntryRequest();
-            if (inspectEntryRequest != null) {
-                fulfillInspectInputJarEntryRequest(
-                        inputApkLfhSection, inputLocalFileRecord, inspectEntryRequest);
-            }
+            ApkSignerEngine.InspectJarEntryRequest outputInspectEntryRequest = null;
 
             if (shouldOutput) {
                 // Find the max value of last modified, to be used for new entries added by the
@@ -698,10 +745,28 @@ public class ApkSigner {
                     lastModifiedTimeForNewEntries = lastModifiedTime;
                 }
 
-                inspectEntryRequest = signerEngine.outputJarEntry(entryName);
-                if (inspectEntryRequest != null) {
-                    fulfillInspectInputJarEntryRequest(
-                            inputApkLfhSection, inputLocalFileRecord, inspectEntryRequest);
+                outputInspectEntryRequest = signerEngine.outputJarEntry(entryName);
+                if ((mJarEntryDigestCache != null)
+                        && (inputInspectEntryRequest == null)
+                        && (outputInspectEntryRequest
+                                instanceof ApkSignerEngine.InspectJarEntryDigestRequest)) {
+                    ApkSignerEngine.InspectJarEntryDigestRequest digestRequest =
+                            (ApkSignerEngine.InspectJarEntryDigestRequest)
+                                    outputInspectEntryRequest;
+                    byte[] digest =
+                            mJarEntryDigestCache.get(
+                                    entryName,
+                                    inputCdRecord.getCrc32(),
+                                    inputCdRecord.getUncompressedSize(),
+                                    digestRequest.getJcaDigestAlgorithm());
+                    if (digest != null) {
+                        // Entry unchanged since the cache was saved. No need to inspect it.
+                        digestRequest.setDigest(digest);
+                        outputInspectEntryRequest = null;
+                    } else {
+                        jarEntryDigestsToCache.add(
+                                new CachedJarEntryDigest(inputCdRecord, digestRequest));
+                    }
                 }
 
                 // Output entry's Local File Header + data
@@ -747,6 +812,17 @@ public class ApkSigner {
                 }
                 outputCdRecordsByName.put(entryName, outputCdRecord);
             }
+
+            // The engine only needs the requested data before outputJarEntries(), so the entry is
+            // inspected later, together with all other entries, by the executor.
+            JarEntryInspection inspection =
+                    JarEntryInspection.of(
+                            inputLocalFileRecord,
+                            inputInspectEntryRequest,
+                            outputInspectEntryRequest);
+            if (inspection != null) {
+                jarEntryInspections.add(inspection);
+            }
         }
         long inputLfhSectionSize = inputApkLfhSection.size();
         if (inputOffset < inputLfhSectionSize) {
@@ -759,10 +835,22 @@ public class ApkSigner {
             inputOffset = inputLfhSectionSize;
         }
 
+        fulfillInspectJarEntryRequests(inputApkLfhSection, jarEntryInspections, mExecutor);
+        if (jarEntryDigestsToCache != null) {
+            for (CachedJarEntryDigest entry : jarEntryDigestsToCache) {
+                mJarEntryDigestCache.put(
+                        entry.cdRecord.getName(),
+                        entry.cdRecord.getCrc32(),
+                        entry.cdRecord.getUncompressedSize(),
+                        entry.request.getJcaDigestAlgorithm(),
+                        entry.request.getDigest());
+            }
+        }
+
         // Step 6. Sort output APK's Central Directory records in the order in which they should
         // appear in the output
-        List<CentralDirectoryRecord> outputCdRecords = new ArrayList<>(inputCdRecords.size() + 10);
-        for (CentralDirectoryRecord inputCdRecord : inputCdRecords) {
+        List<CentralDirectoryRecord> outputCdRecords = new ArrayList<>(inputCdIndex.size() + 10);
+        for (CentralDirectoryRecord inputCdRecord : inputCdIndex.getRecords()) {
             String entryName = inputCdRecord.getName();
             CentralDirectoryRecord outputCdRecord = outputCdRecordsByName.get(entryName);
             if (outputCdRecord != null) {
@@ -908,6 +996,92 @@ public class ApkSigner {
         }
     }
 
+    /**
+     * Deferred inspection of an input entry's uncompressed data by the signer engine. The data is
+     * uncompressed once and fed to all requests for the entry, e.g., to both the request made when
+     * the entry was input and the request made when it was output.
+     */
+    private static class JarEntryInspection {
+        private final LocalFileRecord mLocalFileRecord;
+        private final ApkSignerEngine.InspectJarEntryRequest[] mRequests;
+        private Exception mFailure;
+
+        private JarEntryInspection(
+                LocalFileRecord localFileRecord,
+                ApkSignerEngine.InspectJarEntryRequest... requests) {
+            mLocalFileRecord = localFileRecord;
+            mRequests = requests;
+        }
+
+        /**
+         * Returns the inspection of the entry by the provided requests, any of which may be
+         * {@code null}, or {@code null} if there is nothing to inspect.
+         */
+        private static JarEntryInspection of(
+                LocalFileRecord localFileRecord,
+                ApkSignerEngine.InspectJarEntryRequest inputRequest,
+                ApkSignerEngine.InspectJarEntryRequest outputRequest) {
+            if ((inputRequest == null) || (inputRequest == outputRequest)) {
+                return (outputRequest != null)
+                        ? new JarEntryInspection(localFileRecord, outputRequest) : null;
+            } else if (outputRequest == null) {
+                return new JarEntryInspection(localFileRecord, inputRequest);
+            }
+            return new JarEntryInspection(localFileRecord, inputRequest, outputRequest);
+        }
+
+        private void fulfill(DataSource lfhSection, Inflater inflater) {
+            DataSink sink;
+            if (mRequests.length == 1) {
+                sink = mRequests[0].getDataSink();
+            } else {
+                DataSink[] sinks = new DataSink[mRequests.length];
+                for (int i = 0; i < sinks.length; i++) {
+                    sinks[i] = mRequests[i].getDataSink();
+                }
+                sink = new TeeDataSink(sinks);
+            }
+            try {
+                mLocalFileRecord.outputUncompressedData(lfhSection, sink, inflater);
+            } catch (ZipFormatException e) {
+                mFailure =
+                        new ApkFormatException(
+                                "Malformed ZIP entry: " + mLocalFileRecord.getName(), e);
+                return;
+            } catch (IOException | RuntimeException e) {
+                mFailure = e;
+                return;
+            }
+            for (ApkSignerEngine.InspectJarEntryRequest request : mRequests) {
+                request.done();
+            }
+        }
+
+        private void rethrowFailure() throws IOException, ApkFormatException {
+            if (mFailure instanceof IOException) {
+                throw (IOException) mFailure;
+            } else if (mFailure instanceof ApkFormatException) {
+                throw (ApkFormatException) mFailure;
+            }
+            throw (RuntimeException) mFailure;
+        }
+    }
+
+    /**
+     * Entry whose digest is to be added to the {@link JarEntryDigestCache} once computed.
+     */
+    private static class CachedJarEntryDigest {
+        private final CentralDirectoryRecord cdRecord;
+        private final ApkSignerEngine.InspectJarEntryDigestRequest request;
+
+        private CachedJarEntryDigest(
+                CentralDirectoryRecord cdRecord,
+                ApkSignerEngine.InspectJarEntryDigestRequest request) {
+            this.cdRecord = cdRecord;
+            this.request = request;
+        }
+    }
+
     private static class OutputSizeAndDataOffset {
         public long outputBytes;
         public long dataOffsetBytes;
@@ -1031,6 +1205,9 @@ public class ApkSigner {
 
         private SigningCertificateLineage mSigningCertificateLineage;
 
+        private RunnablesExecutor mExecutor = RunnablesExecutor.MULTI_THREADED;
+        private JarEntryDigestCache mJarEntryDigestCache;
+
         // APK Signature Scheme v3 only supports a single signing certificate, so to move to v3
         // signing by default, but not require prior clients to update to explicitly disable v3
         // signing for multiple signers, we modify the mV3SigningEnabled depending on the provided
@@ -1415,6 +1592,35 @@ public class ApkSigner {
             return this;
         }
 
+        /**
+         * Sets the executor used to sign the APK. The digests of the APK's JAR entries needed for
+         * JAR signing are computed in parallel on it and, unless this builder was initialized with
+         * an {@link ApkSignerEngine}, so are the APK Signature Scheme v2, v3 and verity digests.
+         *
+         * <p>By default, {@link RunnablesExecutor#MULTI_THREADED} is used. Use
+         * {@link RunnablesExecutor#SINGLE_THREADED} to sign on the calling thread only.
+         */
+        public Builder setExecutor(RunnablesExecutor executor) {
+            if (executor == null) {
+                throw new NullPointerException("executor == null");
+            }
+            mExecutor = executor;
+            return this;
+        }
+
+        /**
+         * Sets the cache of JAR entry digests used for JAR signing (aka v1 signing), or
+         * {@code null} to digest all entries (default).
+         *
+         * <p>Entries whose digests are in the cache are not decompressed and digested, and the
+         * digests of the other entries are added to the cache. The cache is not saved by the
+         * signer: invoke {@link JarEntryDigestCache#save()} once the APK has been signed.
+         */
+        public Builder setJarEntryDigestCache(JarEntryDigestCache jarEntryDigestCache) {
+            mJarEntryDigestCache = jarEntryDigestCache;
+            return this;
+        }
+
         /**
          * Returns a new {@code ApkSigner} instance initialized according to the configuration of
          * this builder.
@@ -1469,7 +1675,9 @@ public class ApkSigner {
                     mOutputApkDataSink,
                     mOutputApkDataSource,
                     mOutputV4File,
-                    mSigningCertificateLineage);
+                    mSigningCertificateLineage,
+                    mExecutor,
+                    mJarEntryDigestCache);
         }
     }
 }
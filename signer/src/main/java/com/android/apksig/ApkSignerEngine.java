@@ -266,6 +266,35 @@ public interface ApkSignerEngine extends Closeable {
         String getEntryName();
     }
 
+    /**
+     * Request to inspect the specified JAR entry which only needs the digest of the entry's
+     * uncompressed data.
+     *
+     * <p>Instead of providing the entry's data to the data sink, the digest may be provided via
+     * {@link #setDigest(byte[])}, e.g., if it was computed when a previous version of the APK was
+     * signed.
+     */
+    interface InspectJarEntryDigestRequest extends InspectJarEntryRequest {
+
+        /**
+         * Returns the JCA name of the digest algorithm, e.g., {@code SHA-256}.
+         */
+        String getJcaDigestAlgorithm();
+
+        /**
+         * Completes this request with the provided digest of the entry's uncompressed data. Must
+         * not be invoked once the data sink has been obtained.
+         */
+        void setDigest(byte[] digest);
+
+        /**
+         * Returns the digest of the entry's uncompressed data.
+         *
+         * @throws IllegalStateException if this request is not yet done
+         */
+        byte[] getDigest();
+    }
+
     /**
      * Request to add JAR signature (aka v1 signature) to the output APK.
      *
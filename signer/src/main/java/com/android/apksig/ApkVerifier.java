@@ -18,10 +18,13 @@ import com.android.apksig.internal.apk.ContentDigestAlgorithm;
 import com.android.apksig.internal.apk.SignatureAlgorithm;
 import com.android.apksig.internal.apk.stamp.V2SourceStampVerifier;
 import com.android.apksig.internal.apk.v1.V1SchemeVerifier;
+import com.android.apksig.internal.apk.v2.V2SchemeSigner;
 import com.android.apksig.internal.apk.v2.V2SchemeVerifier;
+import com.android.apksig.internal.apk.v3.V3SchemeSigner;
 import com.android.apksig.internal.apk.v3.V3SchemeVerifier;
 import com.android.apksig.internal.apk.v4.V4SchemeVerifier;
 import com.android.apksig.internal.util.AndroidSdkVersion;
+import com.android.apksig.internal.zip.CentralDirectoryIndex;
 import com.android.apksig.internal.zip.CentralDirectoryRecord;
 import com.android.apksig.internal.zip.LocalFileRecord;
 import com.android.apksig.util.DataSource;
@@ -45,6 +48,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 public class ApkVerifier {
@@ -69,18 +73,119 @@ public class ApkVerifier {
     private final File mV4SignatureFile;
     private final Integer mMinSdkVersion;
     private final int mMaxSdkVersion;
+    private final RunnablesExecutor mExecutor;
+    private final long mMemoryBudget;
 
     private ApkVerifier(
             File apkFile,
             DataSource apkDataSource,
             File v4SignatureFile,
             Integer minSdkVersion,
-            int maxSdkVersion) {
+            int maxSdkVersion,
+            RunnablesExecutor executor,
+            long memoryBudget) {
         mApkFile = apkFile;
         mApkDataSource = apkDataSource;
         mV4SignatureFile = v4SignatureFile;
         mMinSdkVersion = minSdkVersion;
         mMaxSdkVersion = maxSdkVersion;
+        mExecutor = executor;
+        mMemoryBudget = memoryBudget;
+    }
+
+    /**
+     * Returns {@code true} if the APK Signing Block of the APK contains the block of the provided
+     * APK Signature Scheme, that is, if the scheme's verifier would not throw
+     * {@link ApkSigningBlockUtils.SignatureNotFoundException}.
+     */
+    private static boolean hasApkSignatureSchemeBlock(
+            DataSource apk, ApkUtils.ZipSections zipSections, int schemeVersion)
+            throws IOException {
+        int blockId = schemeVersion == ApkSigningBlockUtils.VERSION_APK_SIGNATURE_SCHEME_V3
+                ? V3SchemeSigner.APK_SIGNATURE_SCHEME_V3_BLOCK_ID
+                : V2SchemeSigner.APK_SIGNATURE_SCHEME_V2_BLOCK_ID;
+        try {
+            ApkSigningBlockUtils.findSignature(apk, zipSections, blockId,
+                    new ApkSigningBlockUtils.Result(schemeVersion));
+            return true;
+        } catch (ApkSigningBlockUtils.SignatureNotFoundException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Runs the provided verifications on this verifier's executor. With
+     * {@link RunnablesExecutor#SINGLE_THREADED}, or with a memory budget, nothing is run here;
+     * each verification then runs when its result is first requested, exactly as if verifying
+     * sequentially. The verifications after the first one which fails are then never run.
+     */
+    private void runConcurrently(List<PendingVerification<?>> verifications) {
+        if (verifications.size() < 2
+                || mExecutor == RunnablesExecutor.SINGLE_THREADED
+                || mMemoryBudget != Long.MAX_VALUE) {
+            return;
+        }
+        AtomicInteger next = new AtomicInteger();
+        mExecutor.execute(() -> () -> {
+            int index;
+            while ((index = next.getAndIncrement()) < verifications.size()) {
+                verifications.get(index).run();
+            }
+        });
+    }
+
+    private interface Verification<T> {
+        T verify() throws IOException, ApkFormatException, NoSuchAlgorithmException,
+                ApkSigningBlockUtils.SignatureNotFoundException;
+    }
+
+    /**
+     * Verification of one signature scheme whose result is collected later, so that it can run
+     * concurrently with the other schemes. Failures are captured and rethrown by {@link #get()}.
+     * Also used for parsing the ZIP Central Directory at most once, when first needed.
+     */
+    private static class PendingVerification<T> {
+        private final Verification<T> mVerification;
+        private boolean mDone;
+        private T mResult;
+        private Throwable mFailure;
+
+        private PendingVerification(Verification<T> verification) {
+            mVerification = verification;
+        }
+
+        private synchronized void run() {
+            if (mDone) {
+                return;
+            }
+            try {
+                mResult = mVerification.verify();
+            } catch (Throwable t) {
+                mFailure = t;
+            }
+            mDone = true;
+        }
+
+        private synchronized T get()
+                throws IOException, ApkFormatException, NoSuchAlgorithmException {
+            run();
+            if (mFailure == null) {
+                return mResult;
+            }
+            if (mFailure instanceof IOException) {
+                throw (IOException) mFailure;
+            } else if (mFailure instanceof ApkFormatException) {
+                throw (ApkFormatException) mFailure;
+            } else if (mFailure instanceof NoSuchAlgorithmException) {
+                throw (NoSuchAlgorithmException) mFailure;
+            } else if (mFailure instanceof RuntimeException) {
+                throw (RuntimeException) mFailure;
+            } else if (mFailure instanceof Error) {
+                throw (Error) mFailure;
+            }
+            // The presence of the signature block was checked before the verification started.
+            throw new IllegalStateException("Signature block disappeared", mFailure);
+        }
     }
 
     private static Map<Integer, String> loadSupportedApkSigSchemeNames() {
@@ -120,18 +225,12 @@ public class ApkVerifier {
     }
 
     private static Map<ContentDigestAlgorithm, byte[]> getApkContentDigestFromV1SigningScheme(
-            List<CentralDirectoryRecord> cdRecords,
+            CentralDirectoryIndex cdIndex,
             DataSource apk,
             ApkUtils.ZipSections zipSections)
             throws IOException, ApkFormatException {
-        CentralDirectoryRecord manifestCdRecord = null;
+        CentralDirectoryRecord manifestCdRecord = cdIndex.findRecord(MANIFEST_ENTRY_NAME);
         Map<ContentDigestAlgorithm, byte[]> v1ContentDigest = new HashMap<>();
-        for (CentralDirectoryRecord cdRecord : cdRecords) {
-            if (MANIFEST_ENTRY_NAME.equals(cdRecord.getName())) {
-                manifestCdRecord = cdRecord;
-                break;
-            }
-        }
         if (manifestCdRecord == null) {
             // No JAR signing manifest file found. For SourceStamp verification, returning an empty
             // digest is enough since this would affect the final digest signed by the stamp, and
@@ -165,13 +264,11 @@ public class ApkVerifier {
     }
 
     private static ByteBuffer getAndroidManifestFromApk(
-            DataSource apk, ApkUtils.ZipSections zipSections)
+            CentralDirectoryIndex cdIndex, DataSource apk, ApkUtils.ZipSections zipSections)
             throws IOException, ApkFormatException {
-        List<CentralDirectoryRecord> cdRecords =
-                V1SchemeVerifier.parseZipCentralDirectory(apk, zipSections);
         try {
             return ApkSigner.getAndroidManifestFromApk(
-                    cdRecords,
+                    cdIndex,
                     apk.slice(0, zipSections.getZipCentralDirectoryOffset()));
         } catch (ZipFormatException e) {
             throw new ApkFormatException("Failed to read AndroidManifest.xml", e);
@@ -312,7 +409,7 @@ public class ApkVerifier {
             } else if (mApkFile != null) {
                 RandomAccessFile f = new RandomAccessFile(mApkFile, "r");
                 in = f;
-                apk = DataSources.asDataSource(f, 0, f.length());
+                apk = DataSources.asMappedDataSource(f);
             } else {
                 throw new IllegalStateException("APK not provided");
             }
@@ -356,6 +453,10 @@ public class ApkVerifier {
         } catch (ZipFormatException e) {
             throw new ApkFormatException("Malformed APK: not a ZIP archive", e);
         }
+        PendingVerification<CentralDirectoryIndex> cdIndex =
+                new PendingVerification<>(() ->
+                        V1SchemeVerifier.parseZipCentralDirectory(
+                                apk, zipSections, mMemoryBudget));
 
         ByteBuffer androidManifest = null;
 
@@ -366,7 +467,7 @@ public class ApkVerifier {
         } else {
             // Need to obtain minSdkVersion from the APK's AndroidManifest.xml
             if (androidManifest == null) {
-                androidManifest = getAndroidManifestFromApk(apk, zipSections);
+                androidManifest = getAndroidManifestFromApk(cdIndex.get(), apk, zipSections);
             }
             minSdkVersion =
                     ApkUtils.getMinSdkVersionFromBinaryAndroidManifest(androidManifest.slice());
@@ -404,27 +505,94 @@ public class ApkVerifier {
         // Android N and newer attempts to verify APKs using the APK Signing Block, which can
         // include v2 and/or v3 signatures.  If none is found, it falls back to JAR signature
         // verification. If the signature is found but does not verify, the APK is rejected.
+        // Which schemes are verified, and the scheme IDs each verifier is told about, depend only
+        // on which signature blocks are present. Determine that up front so that the v3, v2, v4
+        // and v1 verifications can run concurrently on the executor. The results are then merged
+        // in the same order, and with the same early returns, as when verifying sequentially.
+        boolean v3Present = (maxSdkVersion >= AndroidSdkVersion.P)
+                && hasApkSignatureSchemeBlock(apk, zipSections,
+                ApkSigningBlockUtils.VERSION_APK_SIGNATURE_SCHEME_V3);
+        boolean v2Checked = (maxSdkVersion >= AndroidSdkVersion.N)
+                && (minSdkVersion < AndroidSdkVersion.P || !v3Present);
+        boolean v2Present = v2Checked && hasApkSignatureSchemeBlock(apk, zipSections,
+                ApkSigningBlockUtils.VERSION_APK_SIGNATURE_SCHEME_V2);
+        boolean v4Checked = (maxSdkVersion >= AndroidSdkVersion.N) && (mV4SignatureFile != null);
+
+        Set<Integer> v2FoundApkSigSchemeIds = new HashSet<>(1);
+        if (v3Present) {
+            v2FoundApkSigSchemeIds.add(ApkSigningBlockUtils.VERSION_APK_SIGNATURE_SCHEME_V3);
+        }
+        Set<Integer> v1FoundApkSigSchemeIds = new HashSet<>(v2FoundApkSigSchemeIds);
+        if (v2Present) {
+            v1FoundApkSigSchemeIds.add(ApkSigningBlockUtils.VERSION_APK_SIGNATURE_SCHEME_V2);
+        }
+        if (v4Checked) {
+            v1FoundApkSigSchemeIds.add(ApkSigningBlockUtils.VERSION_APK_SIGNATURE_SCHEME_V4);
+        }
+        boolean v1Checked =
+                (minSdkVersion < AndroidSdkVersion.N) || v1FoundApkSigSchemeIds.isEmpty();
+
+        final int verifyMinSdkVersion = minSdkVersion;
+        final Map<Integer, String> verifySupportedSchemeNames = supportedSchemeNames;
+        List<PendingVerification<?>> pending = new ArrayList<>(4);
+        PendingVerification<ApkSigningBlockUtils.Result> v3Verification = null;
+        if (v3Present) {
+            v3Verification = new PendingVerification<>(() ->
+                    V3SchemeVerifier.verify(
+                            mExecutor,
+                            apk,
+                            zipSections,
+                            Math.max(verifyMinSdkVersion, AndroidSdkVersion.P),
+                            maxSdkVersion));
+            pending.add(v3Verification);
+        }
+        PendingVerification<ApkSigningBlockUtils.Result> v2Verification = null;
+        if (v2Present) {
+            v2Verification = new PendingVerification<>(() ->
+                    V2SchemeVerifier.verify(
+                            mExecutor,
+                            apk,
+                            zipSections,
+                            verifySupportedSchemeNames,
+                            v2FoundApkSigSchemeIds,
+                            Math.max(verifyMinSdkVersion, AndroidSdkVersion.N),
+                            maxSdkVersion));
+            pending.add(v2Verification);
+        }
+        PendingVerification<ApkSigningBlockUtils.Result> v4Verification = null;
+        if (v4Checked) {
+            v4Verification = new PendingVerification<>(() ->
+                    V4SchemeVerifier.verify(
+                            mExecutor, apk, mV4SignatureFile, mMemoryBudget));
+            pending.add(v4Verification);
+        }
+        PendingVerification<V1SchemeVerifier.Result> v1Verification = null;
+        if (v1Checked) {
+            v1Verification = new PendingVerification<>(() ->
+                    V1SchemeVerifier.verify(
+                            mExecutor,
+                            apk,
+                            zipSections,
+                            cdIndex.get(),
+                            verifySupportedSchemeNames,
+                            v1FoundApkSigSchemeIds,
+                            verifyMinSdkVersion,
+                            maxSdkVersion,
+                            mMemoryBudget));
+            pending.add(v1Verification);
+        }
+        runConcurrently(pending);
+
         Set<Integer> foundApkSigSchemeIds = new HashSet<>(2);
         if (maxSdkVersion >= AndroidSdkVersion.N) {
-            RunnablesExecutor executor = RunnablesExecutor.SINGLE_THREADED;
             // Android P and newer attempts to verify APKs using APK Signature Scheme v3
-            if (maxSdkVersion >= AndroidSdkVersion.P) {
-                try {
-                    ApkSigningBlockUtils.Result v3Result =
-                            V3SchemeVerifier.verify(
-                                    executor,
-                                    apk,
-                                    zipSections,
-                                    Math.max(minSdkVersion, AndroidSdkVersion.P),
-                                    maxSdkVersion);
-                    foundApkSigSchemeIds.add(ApkSigningBlockUtils.VERSION_APK_SIGNATURE_SCHEME_V3);
-                    result.mergeFrom(v3Result);
-                    signatureSchemeApkContentDigests.put(
-                            ApkSigningBlockUtils.VERSION_APK_SIGNATURE_SCHEME_V3,
-                            getApkContentDigestsFromSigningSchemeResult(v3Result));
-                } catch (ApkSigningBlockUtils.SignatureNotFoundException ignored) {
-                    // v3 signature not required
-                }
+            if (v3Verification != null) {
+                ApkSigningBlockUtils.Result v3Result = v3Verification.get();
+                foundApkSigSchemeIds.add(ApkSigningBlockUtils.VERSION_APK_SIGNATURE_SCHEME_V3);
+                result.mergeFrom(v3Result);
+                signatureSchemeApkContentDigests.put(
+                        ApkSigningBlockUtils.VERSION_APK_SIGNATURE_SCHEME_V3,
+                        getApkContentDigestsFromSigningSchemeResult(v3Result));
                 if (result.containsErrors()) {
                     return result;
                 }
@@ -434,34 +602,21 @@ public class ApkVerifier {
             // ignore APK Signature Scheme v3 signatures and always attempt to verify either JAR or
             // APK Signature Scheme v2 signatures.  Android P onwards verifies v2 signatures only if
             // no APK Signature Scheme v3 (or newer scheme) signatures were found.
-            if (minSdkVersion < AndroidSdkVersion.P || foundApkSigSchemeIds.isEmpty()) {
-                try {
-                    ApkSigningBlockUtils.Result v2Result =
-                            V2SchemeVerifier.verify(
-                                    executor,
-                                    apk,
-                                    zipSections,
-                                    supportedSchemeNames,
-                                    foundApkSigSchemeIds,
-                                    Math.max(minSdkVersion, AndroidSdkVersion.N),
-                                    maxSdkVersion);
-                    foundApkSigSchemeIds.add(ApkSigningBlockUtils.VERSION_APK_SIGNATURE_SCHEME_V2);
-                    result.mergeFrom(v2Result);
-                    signatureSchemeApkContentDigests.put(
-                            ApkSigningBlockUtils.VERSION_APK_SIGNATURE_SCHEME_V2,
-                            getApkContentDigestsFromSigningSchemeResult(v2Result));
-                } catch (ApkSigningBlockUtils.SignatureNotFoundException ignored) {
-                    // v2 signature not required
-                }
+            if (v2Verification != null) {
+                ApkSigningBlockUtils.Result v2Result = v2Verification.get();
+                foundApkSigSchemeIds.add(ApkSigningBlockUtils.VERSION_APK_SIGNATURE_SCHEME_V2);
+                result.mergeFrom(v2Result);
+                signatureSchemeApkContentDigests.put(
+                        ApkSigningBlockUtils.VERSION_APK_SIGNATURE_SCHEME_V2,
+                        getApkContentDigestsFromSigningSchemeResult(v2Result));
                 if (result.containsErrors()) {
                     return result;
                 }
             }
 
             // If v4 file is specified, use additional verification on it
-            if (mV4SignatureFile != null) {
-                final ApkSigningBlockUtils.Result v4Result =
-                        V4SchemeVerifier.verify(apk, mV4SignatureFile);
+            if (v4Verification != null) {
+                final ApkSigningBlockUtils.Result v4Result = v4Verification.get();
                 foundApkSigSchemeIds.add(
                         ApkSigningBlockUtils.VERSION_APK_SIGNATURE_SCHEME_V4);
                 result.mergeFrom(v4Result);
@@ -475,7 +630,7 @@ public class ApkVerifier {
         // are signed using APK Signature Scheme v2 or newer.
         if (maxSdkVersion >= AndroidSdkVersion.O) {
             if (androidManifest == null) {
-                androidManifest = getAndroidManifestFromApk(apk, zipSections);
+                androidManifest = getAndroidManifestFromApk(cdIndex.get(), apk, zipSections);
             }
             int targetSandboxVersion =
                     getTargetSandboxVersionFromBinaryAndroidManifest(androidManifest.slice());
@@ -488,26 +643,17 @@ public class ApkVerifier {
             }
         }
 
-        List<CentralDirectoryRecord> cdRecords =
-                V1SchemeVerifier.parseZipCentralDirectory(apk, zipSections);
-
         // Attempt to verify the APK using JAR signing if necessary. Platforms prior to Android N
         // ignore APK Signature Scheme v2 signatures and always attempt to verify JAR signatures.
         // Android N onwards verifies JAR signatures only if no APK Signature Scheme v2 (or newer
         // scheme) signatures were found.
-        if ((minSdkVersion < AndroidSdkVersion.N) || (foundApkSigSchemeIds.isEmpty())) {
-            V1SchemeVerifier.Result v1Result =
-                    V1SchemeVerifier.verify(
-                            apk,
-                            zipSections,
-                            supportedSchemeNames,
-                            foundApkSigSchemeIds,
-                            minSdkVersion,
-                            maxSdkVersion);
+        if (v1Verification != null) {
+            V1SchemeVerifier.Result v1Result = v1Verification.get();
             result.mergeFrom(v1Result);
             signatureSchemeApkContentDigests.put(
                     ApkSigningBlockUtils.VERSION_JAR_SIGNATURE_SCHEME,
-                    getApkContentDigestFromV1SigningScheme(cdRecords, apk, zipSections));
+                    getApkContentDigestFromV1SigningScheme(
+                            cdIndex.get(), apk, zipSections));
         }
         if (result.containsErrors()) {
             return result;
@@ -515,14 +661,8 @@ public class ApkVerifier {
 
         // Verify the SourceStamp, if found in the APK.
         try {
-            CentralDirectoryRecord sourceStampCdRecord = null;
-            for (CentralDirectoryRecord cdRecord : cdRecords) {
-                if (SOURCE_STAMP_CERTIFICATE_HASH_ZIP_ENTRY_NAME.equals(
-                        cdRecord.getName())) {
-                    sourceStampCdRecord = cdRecord;
-                    break;
-                }
-            }
+            CentralDirectoryRecord sourceStampCdRecord =
+                    cdIndex.get().findRecord(SOURCE_STAMP_CERTIFICATE_HASH_ZIP_ENTRY_NAME);
             // If SourceStamp file is found inside the APK, there must be a SourceStamp
             // block in the APK signing block as well.
             if (sourceStampCdRecord != null) {
@@ -709,7 +849,7 @@ public class ApkVerifier {
         // If the targetSdkVersion has a minimum required signature scheme version then verify
         // that the APK was signed with at least that version.
         if (androidManifest == null) {
-            androidManifest = getAndroidManifestFromApk(apk, zipSections);
+            androidManifest = getAndroidManifestFromApk(cdIndex.get(), apk, zipSections);
         }
         int targetSdkVersion = getTargetSdkVersionFromBinaryAndroidManifest(
                 androidManifest.slice());
@@ -2490,6 +2630,8 @@ public class ApkVerifier {
 
         private Integer mMinSdkVersion;
         private int mMaxSdkVersion = Integer.MAX_VALUE;
+        private RunnablesExecutor mExecutor = RunnablesExecutor.MULTI_THREADED;
+        private long mMemoryBudget = Long.MAX_VALUE;
 
         /**
          * Constructs a new {@code Builder} for verifying the provided APK file.
@@ -2552,6 +2694,48 @@ public class ApkVerifier {
             return this;
         }
 
+        /**
+         * Sets the executor used to verify the APK. The 1 MB chunk digests of APK Signature Scheme
+         * v2 and v3 are computed in parallel on it, and the v1, v2, v3 and v4 signatures of the APK
+         * are verified concurrently.
+         *
+         * <p>By default, {@link RunnablesExecutor#MULTI_THREADED} is used. Use
+         * {@link RunnablesExecutor#SINGLE_THREADED} to verify on the calling thread only.
+         */
+        public Builder setExecutor(RunnablesExecutor executor) {
+            if (executor == null) {
+                throw new NullPointerException("executor == null");
+            }
+            mExecutor = executor;
+            return this;
+        }
+
+        /**
+         * Sets the approximate number of bytes of heap the verifier may use for reading the APK,
+         * for verifying very large APKs with a small heap. By default, the memory used is not
+         * bounded.
+         *
+         * <p>With a budget, the ZIP Central Directory is read in windows of at most this size,
+         * the sections of the JAR manifest are parsed lazily, JAR entries are verified in
+         * batches, and the v4 verity tree is built in a temporary file. The signature schemes
+         * are verified one at a time, and verification stops at the first scheme or batch of
+         * JAR entries which fails, thus fewer errors may be reported than without a budget.
+         *
+         * <p>The memory needed still grows with the number of entries of the APK, and with the
+         * number of threads of the executor used for the digests of APK Signature Scheme v2 and
+         * v3. Use {@link RunnablesExecutor#SINGLE_THREADED} for the smallest footprint.
+         *
+         * @param memoryBudget number of bytes, or {@link Long#MAX_VALUE} for no budget
+         */
+        public Builder setMemoryBudget(long memoryBudget) {
+            if (memoryBudget <= 0) {
+                throw new IllegalArgumentException(
+                        "memoryBudget must be positive: " + memoryBudget);
+            }
+            mMemoryBudget = memoryBudget;
+            return this;
+        }
+
         /**
          * Returns an {@link ApkVerifier} initialized according to the configuration of this
          * builder.
@@ -2562,7 +2746,9 @@ public class ApkVerifier {
                     mApkDataSource,
                     mV4SignatureFile,
                     mMinSdkVersion,
-                    mMaxSdkVersion);
+                    mMaxSdkVersion,
+                    mExecutor,
+                    mMemoryBudget);
         }
     }
 }
@@ -50,9 +50,11 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 public class DefaultApkSignerEngine implements ApkSignerEngine {
@@ -833,51 +835,60 @@ public class DefaultApkSignerEngine implements ApkSignerEngine {
         int padSizeBeforeApkSigningBlock = paddingPair.getSecond();
         DataSource eocd = ApkSigningBlockUtils.copyWithModifiedCDOffset(beforeCentralDir, zipEocd);
 
-        List<Pair<byte[], Integer>> signingSchemeBlocks = new ArrayList<>();
-        ApkSigningBlockUtils.SigningSchemeBlockAndDigests v2SigningSchemeBlockAndDigests = null;
-        ApkSigningBlockUtils.SigningSchemeBlockAndDigests v3SigningSchemeBlockAndDigests = null;
-
-        // create APK Signature Scheme V2 Signature if requested
+        List<ApkSigningBlockUtils.SignerConfig> v2SignerConfigs = null;
+        List<ApkSigningBlockUtils.SignerConfig> v3SignerConfigs = null;
+        Set<ContentDigestAlgorithm> contentDigestAlgorithms = new HashSet<>();
         if (mV2SigningEnabled) {
             invalidateV2Signature();
-            List<ApkSigningBlockUtils.SignerConfig> v2SignerConfigs =
-                    createV2SignerConfigs(apkSigningBlockPaddingSupported);
-            v2SigningSchemeBlockAndDigests =
-                    V2SchemeSigner.generateApkSignatureSchemeV2Block(
-                            mExecutor,
-                            beforeCentralDir,
-                            zipCentralDirectory,
-                            eocd,
-                            v2SignerConfigs,
-                            mV3SigningEnabled);
-            signingSchemeBlocks.add(v2SigningSchemeBlockAndDigests.signingSchemeBlock);
+            v2SignerConfigs = createV2SignerConfigs(apkSigningBlockPaddingSupported);
+            contentDigestAlgorithms.addAll(
+                    ApkSigningBlockUtils.getContentDigestAlgorithms(v2SignerConfigs));
         }
         if (mV3SigningEnabled) {
             invalidateV3Signature();
-            List<ApkSigningBlockUtils.SignerConfig> v3SignerConfigs =
-                    createV3SignerConfigs(apkSigningBlockPaddingSupported);
-            v3SigningSchemeBlockAndDigests =
-                    V3SchemeSigner.generateApkSignatureSchemeV3Block(
-                            mExecutor,
-                            beforeCentralDir,
-                            zipCentralDirectory,
-                            eocd,
-                            v3SignerConfigs);
-            signingSchemeBlocks.add(v3SigningSchemeBlockAndDigests.signingSchemeBlock);
+            v3SignerConfigs = createV3SignerConfigs(apkSigningBlockPaddingSupported);
+            contentDigestAlgorithms.addAll(
+                    ApkSigningBlockUtils.getContentDigestAlgorithms(v3SignerConfigs));
+        }
+
+        // Digest the APK once for all schemes: v2 and v3 signers mostly use the same algorithms.
+        Map<ContentDigestAlgorithm, byte[]> contentDigests =
+                contentDigestAlgorithms.isEmpty()
+                        ? Collections.emptyMap()
+                        : ApkSigningBlockUtils.computeApkContentDigests(
+                                mExecutor,
+                                contentDigestAlgorithms,
+                                beforeCentralDir,
+                                zipCentralDirectory,
+                                eocd);
+
+        // Each block only needs the digests, so the blocks are signed concurrently.
+        List<PendingSigningSchemeBlock> pendingBlocks = new ArrayList<>(3);
+        Map<Integer, Map<ContentDigestAlgorithm, byte[]>> signatureSchemeDigestInfos =
+                new HashMap<>();
+        // create APK Signature Scheme V2 Signature if requested
+        if (mV2SigningEnabled) {
+            List<ApkSigningBlockUtils.SignerConfig> signerConfigs = v2SignerConfigs;
+            Map<ContentDigestAlgorithm, byte[]> v2ContentDigests =
+                    ApkSigningBlockUtils.selectContentDigests(signerConfigs, contentDigests);
+            boolean v3SigningEnabled = mV3SigningEnabled;
+            pendingBlocks.add(new PendingSigningSchemeBlock(
+                    () -> V2SchemeSigner.generateApkSignatureSchemeV2Block(
+                            signerConfigs, v2ContentDigests, v3SigningEnabled)));
+            signatureSchemeDigestInfos.put(VERSION_APK_SIGNATURE_SCHEME_V2, v2ContentDigests);
+        }
+        if (mV3SigningEnabled) {
+            List<ApkSigningBlockUtils.SignerConfig> signerConfigs = v3SignerConfigs;
+            Map<ContentDigestAlgorithm, byte[]> v3ContentDigests =
+                    ApkSigningBlockUtils.selectContentDigests(signerConfigs, contentDigests);
+            pendingBlocks.add(new PendingSigningSchemeBlock(
+                    () -> V3SchemeSigner.generateApkSignatureSchemeV3Block(
+                            signerConfigs, v3ContentDigests)));
+            signatureSchemeDigestInfos.put(VERSION_APK_SIGNATURE_SCHEME_V3, v3ContentDigests);
         }
         if (isEligibleForSourceStamp()) {
             ApkSigningBlockUtils.SignerConfig sourceStampSignerConfig =
                     createSourceStampSignerConfig();
-            Map<Integer, Map<ContentDigestAlgorithm, byte[]>> signatureSchemeDigestInfos =
-                    new HashMap<>();
-            if (mV3SigningEnabled) {
-                signatureSchemeDigestInfos.put(
-                        VERSION_APK_SIGNATURE_SCHEME_V3, v3SigningSchemeBlockAndDigests.digestInfo);
-            }
-            if (mV2SigningEnabled) {
-                signatureSchemeDigestInfos.put(
-                        VERSION_APK_SIGNATURE_SCHEME_V2, v2SigningSchemeBlockAndDigests.digestInfo);
-            }
             if (mV1SigningEnabled) {
                 Map<ContentDigestAlgorithm, byte[]> v1SigningSchemeDigests = new HashMap<>();
                 try {
@@ -904,9 +915,23 @@ public class DefaultApkSignerEngine implements ApkSignerEngine {
                 signatureSchemeDigestInfos.put(
                         VERSION_JAR_SIGNATURE_SCHEME, v1SigningSchemeDigests);
             }
-            signingSchemeBlocks.add(
-                    V2SourceStampSigner.generateSourceStampBlock(
-                            sourceStampSignerConfig, signatureSchemeDigestInfos));
+            pendingBlocks.add(new PendingSigningSchemeBlock(
+                    () -> V2SourceStampSigner.generateSourceStampBlock(
+                            sourceStampSignerConfig, signatureSchemeDigestInfos)));
+        }
+
+        if (pendingBlocks.size() > 1 && mExecutor != RunnablesExecutor.SINGLE_THREADED) {
+            AtomicInteger next = new AtomicInteger();
+            mExecutor.execute(() -> () -> {
+                int index;
+                while ((index = next.getAndIncrement()) < pendingBlocks.size()) {
+                    pendingBlocks.get(index).run();
+                }
+            });
+        }
+        List<Pair<byte[], Integer>> signingSchemeBlocks = new ArrayList<>(pendingBlocks.size());
+        for (PendingSigningSchemeBlock pendingBlock : pendingBlocks) {
+            signingSchemeBlocks.add(pendingBlock.get());
         }
 
         // create APK Signing Block with v2 and/or v3 and/or SourceStamp blocks
@@ -935,7 +960,8 @@ public class DefaultApkSignerEngine implements ApkSignerEngine {
         }
         try {
             ApkSigningBlockUtils.SignerConfig v4SignerConfig = createV4SignerConfig();
-            V4SchemeSigner.generateV4Signature(dataSource, v4SignerConfig, outputFile);
+            V4SchemeSigner.generateV4Signature(
+                    mExecutor, dataSource, v4SignerConfig, outputFile);
         } catch (InvalidKeyException | IOException | NoSuchAlgorithmException e) {
             if (ignoreFailures) {
                 return;
@@ -1143,6 +1169,58 @@ public class DefaultApkSignerEngine implements ApkSignerEngine {
         return InputJarEntryInstructions.OutputPolicy.SKIP;
     }
 
+    private interface SigningSchemeBlockGenerator {
+        Pair<byte[], Integer> generate()
+                throws InvalidKeyException, NoSuchAlgorithmException, SignatureException;
+    }
+
+    /**
+     * Signing scheme block whose generation may run concurrently with the other blocks' one.
+     * Failures are captured and rethrown by {@link #get()}.
+     */
+    private static class PendingSigningSchemeBlock {
+        private final SigningSchemeBlockGenerator mGenerator;
+        private boolean mDone;
+        private Pair<byte[], Integer> mResult;
+        private Throwable mFailure;
+
+        private PendingSigningSchemeBlock(SigningSchemeBlockGenerator generator) {
+            mGenerator = generator;
+        }
+
+        private synchronized void run() {
+            if (mDone) {
+                return;
+            }
+            try {
+                mResult = mGenerator.generate();
+            } catch (Throwable t) {
+                mFailure = t;
+            }
+            mDone = true;
+        }
+
+        private synchronized Pair<byte[], Integer> get()
+                throws InvalidKeyException, NoSuchAlgorithmException, SignatureException {
+            run();
+            if (mFailure == null) {
+                return mResult;
+            }
+            if (mFailure instanceof InvalidKeyException) {
+                throw (InvalidKeyException) mFailure;
+            } else if (mFailure instanceof NoSuchAlgorithmException) {
+                throw (NoSuchAlgorithmException) mFailure;
+            } else if (mFailure instanceof SignatureException) {
+                throw (SignatureException) mFailure;
+            } else if (mFailure instanceof RuntimeException) {
+                throw (RuntimeException) mFailure;
+            } else if (mFailure instanceof Error) {
+                throw (Error) mFailure;
+            }
+            throw new IllegalStateException(mFailure);
+        }
+    }
+
     private static class OutputJarSignatureRequestImpl implements OutputJarSignatureRequest {
         private final List<JarEntry> mAdditionalJarEntries;
         private volatile boolean mDone;
@@ -1270,7 +1348,7 @@ public class DefaultApkSignerEngine implements ApkSignerEngine {
     /**
      * JAR entry inspection request which obtains the digest of the entry's uncompressed data.
      */
-    private static class GetJarEntryDataDigestRequest implements InspectJarEntryRequest {
+    private static class GetJarEntryDataDigestRequest implements InspectJarEntryDigestRequest {
         private final String mEntryName;
         private final String mJcaDigestAlgorithm;
         private final Object mLock = new Object();
@@ -1290,6 +1368,11 @@ public class DefaultApkSignerEngine implements ApkSignerEngine {
             return mEntryName;
         }
 
+        @Override
+        public String getJcaDigestAlgorithm() {
+            return mJcaDigestAlgorithm;
+        }
+
         @Override
         public DataSink getDataSink() {
             synchronized (mLock) {
@@ -1301,6 +1384,19 @@ public class DefaultApkSignerEngine implements ApkSignerEngine {
             }
         }
 
+        @Override
+        public void setDigest(byte[] digest) {
+            synchronized (mLock) {
+                checkNotDone();
+                if (mDataSink != null) {
+                    throw new IllegalStateException("Data sink already obtained");
+                }
+                mDone = true;
+                mDigest = digest.clone();
+                mMessageDigest = null;
+            }
+        }
+
         private MessageDigest getMessageDigest() {
             synchronized (mLock) {
                 if (mMessageDigest == null) {
@@ -1342,7 +1438,8 @@ public class DefaultApkSignerEngine implements ApkSignerEngine {
             }
         }
 
-        private byte[] getDigest() {
+        @Override
+        public byte[] getDigest() {
             synchronized (mLock) {
                 if (!mDone) {
                     throw new IllegalStateException("Not yet done");
@@ -0,0 +1,159 @@
+package com.android.apksig;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Cache of the digests of JAR entries' uncompressed data, which lets {@link ApkSigner} skip
+ * digesting the entries which have not changed since the cache was last saved, when JAR signing
+ * (aka v1 signing) the APK again.
+ *
+ * <p>Entries are identified by their name, the CRC-32 and the size of their uncompressed data, as
+ * recorded in the APK's ZIP Central Directory. The entry's data is not compared, thus a changed
+ * entry whose name, CRC-32 and size are all unchanged would be signed with the digest of its old
+ * data and the resulting JAR signature would not verify. The cache is thus opt-in.
+ *
+ * <p>Use {@link ApkSigner.Builder#setJarEntryDigestCache(JarEntryDigestCache)} to use the cache
+ * when signing and invoke {@link #save()} once the APK has been signed.
+ */
+public class JarEntryDigestCache {
+
+    private static final int MAGIC = 0x4a444331; // "JDC1"
+
+    private final File mFile;
+
+    /** Digests loaded from the file, keyed by entry name. */
+    private final Map<String, CachedDigest> mLoaded;
+
+    /** Digests looked up or added since the cache was opened, which are the ones saved. */
+    private final Map<String, CachedDigest> mUsed = new HashMap<>();
+
+    private JarEntryDigestCache(File file, Map<String, CachedDigest> loaded) {
+        mFile = file;
+        mLoaded = loaded;
+    }
+
+    /**
+     * Returns the file in which the cache for the provided output APK is kept: the APK's path
+     * with the {@code .v1digests} suffix.
+     */
+    public static File getDefaultFile(File outputApk) {
+        return new File(outputApk.getPath() + ".v1digests");
+    }
+
+    /**
+     * Opens the cache kept in the provided file. If the file does not exist or cannot be read, the
+     * cache is empty.
+     */
+    public static JarEntryDigestCache open(File file) {
+        Map<String, CachedDigest> loaded = new HashMap<>();
+        if (file.isFile()) {
+            try (DataInputStream in =
+                    new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                if (in.readInt() == MAGIC) {
+                    int count = in.readInt();
+                    for (int i = 0; i < count; i++) {
+                        String name = in.readUTF();
+                        long crc32 = in.readInt() & 0xffffffffL;
+                        long uncompressedSize = in.readLong();
+                        String jcaDigestAlgorithm = in.readUTF();
+                        byte[] digest = new byte[in.readUnsignedShort()];
+                        in.readFully(digest);
+                        loaded.put(
+                                name,
+                                new CachedDigest(
+                                        crc32, uncompressedSize, jcaDigestAlgorithm, digest));
+                    }
+                }
+            } catch (IOException e) {
+                // Truncated or otherwise unreadable cache. Start afresh.
+                loaded.clear();
+            }
+        }
+        return new JarEntryDigestCache(file, loaded);
+    }
+
+    /**
+     * Returns the cached digest of the entry's uncompressed data or {@code null} if there is no
+     * digest for the entry with the provided CRC-32, size and digest algorithm.
+     */
+    synchronized byte[] get(
+            String entryName, long crc32, long uncompressedSize, String jcaDigestAlgorithm) {
+        CachedDigest cached = mUsed.get(entryName);
+        if (cached == null) {
+            cached = mLoaded.get(entryName);
+        }
+        if ((cached == null)
+                || (cached.crc32 != crc32)
+                || (cached.uncompressedSize != uncompressedSize)
+                || (!cached.jcaDigestAlgorithm.equals(jcaDigestAlgorithm))) {
+            return null;
+        }
+        mUsed.put(entryName, cached);
+        return cached.digest.clone();
+    }
+
+    /**
+     * Adds the digest of the entry's uncompressed data to this cache.
+     */
+    synchronized void put(
+            String entryName,
+            long crc32,
+            long uncompressedSize,
+            String jcaDigestAlgorithm,
+            byte[] digest) {
+        mUsed.put(
+                entryName,
+                new CachedDigest(crc32, uncompressedSize, jcaDigestAlgorithm, digest.clone()));
+    }
+
+    /**
+     * Writes the digests looked up or added since this cache was opened to its file, replacing
+     * the file's previous contents. Digests of entries which are no longer in the APK are thus
+     * dropped.
+     */
+    public synchronized void save() throws IOException {
+        File tmpFile = new File(mFile.getPath() + ".tmp");
+        try (DataOutputStream out =
+                new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(mUsed.size());
+            for (Map.Entry<String, CachedDigest> entry : mUsed.entrySet()) {
+                CachedDigest cached = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeInt((int) cached.crc32);
+                out.writeLong(cached.uncompressedSize);
+                out.writeUTF(cached.jcaDigestAlgorithm);
+                out.writeShort(cached.digest.length);
+                out.write(cached.digest);
+            }
+        }
+        if ((!tmpFile.renameTo(mFile)) && ((!mFile.delete()) || (!tmpFile.renameTo(mFile)))) {
+            tmpFile.delete();
+            throw new IOException("Failed to replace " + mFile);
+        }
+    }
+
+    private static class CachedDigest {
+        private final long crc32;
+        private final long uncompressedSize;
+        private final String jcaDigestAlgorithm;
+        private final byte[] digest;
+
+        private CachedDigest(
+                long crc32, long uncompressedSize, String jcaDigestAlgorithm, byte[] digest) {
+            this.crc32 = crc32;
+            this.uncompressedSize = uncompressedSize;
+            this.jcaDigestAlgorithm = jcaDigestAlgorithm;
+            this.digest = digest;
+        }
+    }
+}
@@ -44,6 +44,8 @@ import java.math.BigInteger;
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.DigestException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
@@ -435,7 +437,7 @@ public class ApkSigningBlockUtils {
                 contentDigests);
 
         if (digestAlgorithms.contains(VERITY_CHUNKED_SHA256)) {
-            computeApkVerityDigest(beforeCentralDir, centralDir, eocd, contentDigests);
+            computeApkVerityDigest(executor, beforeCentralDir, centralDir, eocd, contentDigests);
         }
         return contentDigests;
     }
@@ -577,13 +579,14 @@ public class ApkSigningBlockUtils {
     }
 
     @SuppressWarnings("ByteBufferBackingArray")
-    private static void computeApkVerityDigest(DataSource beforeCentralDir, DataSource centralDir,
+    private static void computeApkVerityDigest(RunnablesExecutor executor,
+                                               DataSource beforeCentralDir, DataSource centralDir,
                                                DataSource eocd, Map<ContentDigestAlgorithm, byte[]> outputContentDigests)
             throws IOException, NoSuchAlgorithmException {
         ByteBuffer encoded = createVerityDigestBuffer(true);
         // Use 0s as salt for now.  This also needs to be consistent in the fsverify header for
         // kernel to use.
-        try (VerityTreeBuilder builder = new VerityTreeBuilder(new byte[8])) {
+        try (VerityTreeBuilder builder = new VerityTreeBuilder(new byte[8], executor)) {
             byte[] rootHash = builder.generateVerityTreeRootHash(beforeCentralDir, centralDir,
                     eocd);
             encoded.put(rootHash);
@@ -621,6 +624,37 @@ public class ApkSigningBlockUtils {
         }
     }
 
+    /**
+     * Computes the verity tree of the data source into the provided file, which is truncated or
+     * extended to the size of the tree, and returns its root hash. The returned
+     * {@link VerityTreeAndDigest#tree} is {@code null}.
+     *
+     * <p>The tree is built in the file mapped into memory, so at most {@code bufferBudget} bytes
+     * of the data source are held on the heap at a time, whatever its size. The chunks are
+     * digested on the provided executor.
+     */
+    @SuppressWarnings("ByteBufferBackingArray")
+    public static VerityTreeAndDigest computeChunkVerityTreeAndDigest(
+            RunnablesExecutor executor,
+            DataSource dataSource,
+            FileChannel treeFile,
+            long bufferBudget)
+            throws IOException, NoSuchAlgorithmException {
+        ByteBuffer encoded = createVerityDigestBuffer(false);
+        // Use 0s as salt for now.  This also needs to be consistent in the fsverify header for
+        // kernel to use.
+        try (VerityTreeBuilder builder = new VerityTreeBuilder(null, executor, bufferBudget)) {
+            int treeSize = builder.getVerityTreeSize(dataSource.size());
+            treeFile.truncate(treeSize);
+            MappedByteBuffer tree = treeFile.map(FileChannel.MapMode.READ_WRITE, 0, treeSize);
+            builder.generateVerityTree(dataSource, tree);
+            tree.force();
+            byte[] rootHash = builder.getRootHashFromTree(tree);
+            encoded.put(rootHash);
+            return new VerityTreeAndDigest(VERITY_CHUNKED_SHA256, encoded.array(), null);
+        }
+    }
+
     private static long getChunkCount(long inputSize, long chunkSize) {
         return (inputSize + chunkSize - 1) / chunkSize;
     }
@@ -927,32 +961,83 @@ public class ApkSigningBlockUtils {
                     "No signer configs provided. At least one is required");
         }
 
-        // Figure out which digest(s) to use for APK contents.
-        Set<ContentDigestAlgorithm> contentDigestAlgorithms = new HashSet<>(1);
-        for (SignerConfig signerConfig : signerConfigs) {
-            for (SignatureAlgorithm signatureAlgorithm : signerConfig.signatureAlgorithms) {
-                contentDigestAlgorithms.add(signatureAlgorithm.getContentDigestAlgorithm());
-            }
-        }
-
         // Compute digests of APK contents.
         Map<ContentDigestAlgorithm, byte[]> contentDigests; // digest algorithm ID -> digest
+        contentDigests =
+                computeApkContentDigests(
+                        executor,
+                        getContentDigestAlgorithms(signerConfigs),
+                        beforeCentralDir,
+                        centralDir,
+                        eocd);
+
+        // Sign the digests and wrap the signatures and signer info into an APK Signing Block.
+        return Pair.of(signerConfigs, contentDigests);
+    }
+
+    /**
+     * Computes the digests of the given APK components according to the given algorithms, in one
+     * pass over the components. This lets several signature schemes whose signers use the same
+     * algorithms share the digests.
+     *
+     * @throws IOException              if an I/O error occurs
+     * @throws NoSuchAlgorithmException if a required cryptographic algorithm implementation is
+     *                                  missing
+     * @throws SignatureException       if an error occurs when computing digests
+     */
+    public static Map<ContentDigestAlgorithm, byte[]> computeApkContentDigests(
+            RunnablesExecutor executor,
+            Set<ContentDigestAlgorithm> contentDigestAlgorithms,
+            DataSource beforeCentralDir,
+            DataSource centralDir,
+            DataSource eocd)
+            throws IOException, NoSuchAlgorithmException, SignatureException {
         try {
-            contentDigests =
-                    computeContentDigests(
-                            executor,
-                            contentDigestAlgorithms,
-                            beforeCentralDir,
-                            centralDir,
-                            eocd);
+            return computeContentDigests(
+                    executor,
+                    contentDigestAlgorithms,
+                    beforeCentralDir,
+                    centralDir,
+                    eocd);
         } catch (IOException e) {
             throw new IOException("Failed to read APK being signed", e);
         } catch (DigestException e) {
             throw new SignatureException("Failed to compute digests of APK", e);
         }
+    }
 
-        // Sign the digests and wrap the signatures and signer info into an APK Signing Block.
-        return Pair.of(signerConfigs, contentDigests);
+    /**
+     * Returns the algorithms with which the contents of the APK must be digested for the given
+     * SignerConfigs.
+     */
+    public static Set<ContentDigestAlgorithm> getContentDigestAlgorithms(
+            List<SignerConfig> signerConfigs) {
+        Set<ContentDigestAlgorithm> contentDigestAlgorithms = new HashSet<>(1);
+        for (SignerConfig signerConfig : signerConfigs) {
+            for (SignatureAlgorithm signatureAlgorithm : signerConfig.signatureAlgorithms) {
+                contentDigestAlgorithms.add(signatureAlgorithm.getContentDigestAlgorithm());
+            }
+        }
+        return contentDigestAlgorithms;
+    }
+
+    /**
+     * Returns the digests needed by the given SignerConfigs out of the given digests of APK
+     * contents, which may have been computed for other signers as well.
+     *
+     * @throws IllegalArgumentException if a needed digest is missing
+     */
+    public static Map<ContentDigestAlgorithm, byte[]> selectContentDigests(
+            List<SignerConfig> signerConfigs, Map<ContentDigestAlgorithm, byte[]> contentDigests) {
+        Map<ContentDigestAlgorithm, byte[]> result = new HashMap<>();
+        for (ContentDigestAlgorithm algorithm : getContentDigestAlgorithms(signerConfigs)) {
+            byte[] digest = contentDigests.get(algorithm);
+            if (digest == null) {
+                throw new IllegalArgumentException("Missing " + algorithm + " digest of APK");
+            }
+            result.put(algorithm, digest);
+        }
+        return result;
     }
 
     /**
@@ -31,10 +31,13 @@ import com.android.apksig.internal.util.AndroidSdkVersion;
 import com.android.apksig.internal.util.ByteBufferUtils;
 import com.android.apksig.internal.util.InclusiveIntRange;
 import com.android.apksig.internal.util.Pair;
+import com.android.apksig.internal.zip.CentralDirectoryIndex;
 import com.android.apksig.internal.zip.CentralDirectoryRecord;
 import com.android.apksig.internal.zip.LocalFileRecord;
+import com.android.apksig.internal.zip.ZipEntryRanges;
 import com.android.apksig.util.DataSinks;
 import com.android.apksig.util.DataSource;
+import com.android.apksig.util.RunnablesExecutor;
 import com.android.apksig.zip.ZipFormatException;
 import com.mcal.apksigner.utils.Base64;
 
@@ -60,7 +63,9 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.jar.Attributes;
+import java.util.zip.Inflater;
 
 
 public abstract class V1SchemeVerifier {
@@ -72,6 +77,17 @@ public abstract class V1SchemeVerifier {
             "SHA-256",
             "SHA-1",
     };
+    /**
+     * Rough number of bytes held per JAR entry whose verification outcome is pending, used to
+     * size the batches of entries verified with a memory budget.
+     */
+    private static final int JAR_ENTRY_CHECK_SIZE_ESTIMATE_BYTES = 1024;
+    /** Size of the fixed part of a ZIP Central Directory record. */
+    private static final int CD_RECORD_HEADER_SIZE_BYTES = 46;
+    /**
+     * Offset of the name, extra field and comment lengths in a ZIP Central Directory record.
+     */
+    private static final int CD_RECORD_NAME_SIZE_OFFSET = 28;
     private static final Map<String, String> UPPER_CASE_JCA_DIGEST_ALG_TO_CANONICAL;
     private static final Map<String, Integer>
             MIN_SDK_VESION_FROM_WHICH_DIGEST_SUPPORTED_IN_MANIFEST;
@@ -124,31 +140,125 @@ public abstract class V1SchemeVerifier {
             Set<Integer> foundApkSigSchemeIds,
             int minSdkVersion,
             int maxSdkVersion) throws IOException, ApkFormatException, NoSuchAlgorithmException {
+        return verify(
+                RunnablesExecutor.SINGLE_THREADED,
+                apk,
+                apkSections,
+                supportedApkSigSchemeNames,
+                foundApkSigSchemeIds,
+                minSdkVersion,
+                maxSdkVersion);
+    }
+
+    /**
+     * Verifies the provided APK's JAR signatures like
+     * {@link #verify(DataSource, ApkUtils.ZipSections, Map, Set, int, int)}, verifying the digests
+     * of the APK's JAR entries in parallel on the provided {@code executor}. The issues reported
+     * in the result, and their order, do not depend on the executor.
+     */
+    public static Result verify(
+            RunnablesExecutor executor,
+            DataSource apk,
+            ApkUtils.ZipSections apkSections,
+            Map<Integer, String> supportedApkSigSchemeNames,
+            Set<Integer> foundApkSigSchemeIds,
+            int minSdkVersion,
+            int maxSdkVersion) throws IOException, ApkFormatException, NoSuchAlgorithmException {
         if (minSdkVersion > maxSdkVersion) {
             throw new IllegalArgumentException(
                     "minSdkVersion (" + minSdkVersion + ") > maxSdkVersion (" + maxSdkVersion
                             + ")");
         }
+        return verify(
+                executor,
+                apk,
+                apkSections,
+                parseZipCentralDirectory(apk, apkSections),
+                supportedApkSigSchemeNames,
+                foundApkSigSchemeIds,
+                minSdkVersion,
+                maxSdkVersion);
+    }
+
+    /**
+     * Verifies the provided APK's JAR signatures like
+     * {@link #verify(RunnablesExecutor, DataSource, ApkUtils.ZipSections, Map, Set, int, int)},
+     * using the provided index of the APK's ZIP Central Directory, as returned by
+     * {@link #parseZipCentralDirectory(DataSource, ApkUtils.ZipSections)}, instead of parsing the
+     * Central Directory again.
+     */
+    public static Result verify(
+            RunnablesExecutor executor,
+            DataSource apk,
+            ApkUtils.ZipSections apkSections,
+            CentralDirectoryIndex cdIndex,
+            Map<Integer, String> supportedApkSigSchemeNames,
+            Set<Integer> foundApkSigSchemeIds,
+            int minSdkVersion,
+            int maxSdkVersion) throws IOException, ApkFormatException, NoSuchAlgorithmException {
+        return verify(
+                executor,
+                apk,
+                apkSections,
+                cdIndex,
+                supportedApkSigSchemeNames,
+                foundApkSigSchemeIds,
+                minSdkVersion,
+                maxSdkVersion,
+                Long.MAX_VALUE);
+    }
+
+    /**
+     * Verifies the provided APK's JAR signatures like
+     * {@link #verify(RunnablesExecutor, DataSource, ApkUtils.ZipSections, CentralDirectoryIndex,
+     * Map, Set, int, int)}, keeping the memory needed for the JAR manifest and the APK's JAR
+     * entries within roughly {@code memoryBudget} bytes, or unbounded if
+     * {@code memoryBudget} is {@link Long#MAX_VALUE}.
+     *
+     * <p>With a budget, the sections of the JAR manifest are parsed lazily, and the JAR entries
+     * are verified in batches. Verification stops after the first batch which reports an error,
+     * thus the result may contain fewer errors than without a budget.
+     */
+    public static Result verify(
+            RunnablesExecutor executor,
+            DataSource apk,
+            ApkUtils.ZipSections apkSections,
+            CentralDirectoryIndex cdIndex,
+            Map<Integer, String> supportedApkSigSchemeNames,
+            Set<Integer> foundApkSigSchemeIds,
+            int minSdkVersion,
+            int maxSdkVersion,
+            long memoryBudget)
+            throws IOException, ApkFormatException, NoSuchAlgorithmException {
+        if (minSdkVersion > maxSdkVersion) {
+            throw new IllegalArgumentException(
+                    "minSdkVersion (" + minSdkVersion + ") > maxSdkVersion (" + maxSdkVersion
+                            + ")");
+        }
+        if (memoryBudget <= 0) {
+            throw new IllegalArgumentException("memoryBudget must be positive: " + memoryBudget);
+        }
 
         Result result = new Result();
 
-        // Parse the ZIP Central Directory and check that there are no entries with duplicate names.
-        List<CentralDirectoryRecord> cdRecords = parseZipCentralDirectory(apk, apkSections);
-        Set<String> cdEntryNames = checkForDuplicateEntries(cdRecords, result);
+        // Check that there are no entries with duplicate names.
+        Set<String> cdEntryNames = checkForDuplicateEntries(cdIndex, result);
         if (result.containsErrors()) {
             return result;
         }
 
         // Verify JAR signature(s).
         Signers.verify(
+                executor,
                 apk,
                 apkSections.getZipCentralDirectoryOffset(),
-                cdRecords,
+                cdIndex,
                 cdEntryNames,
                 supportedApkSigSchemeNames,
                 foundApkSigSchemeIds,
                 minSdkVersion,
                 maxSdkVersion,
+                memoryBudget,
                 result);
 
         return result;
@@ -159,22 +269,12 @@ public abstract class V1SchemeVerifier {
      * as errors.
      */
     private static Set<String> checkForDuplicateEntries(
-            List<CentralDirectoryRecord> cdRecords, Result result) {
-        Set<String> cdEntryNames = new HashSet<>(cdRecords.size());
-        Set<String> duplicateCdEntryNames = null;
-        for (CentralDirectoryRecord cdRecord : cdRecords) {
-            String entryName = cdRecord.getName();
-            if (!cdEntryNames.add(entryName)) {
-                // This is an error. Report this once per duplicate name.
-                if (duplicateCdEntryNames == null) {
-                    duplicateCdEntryNames = new HashSet<>();
-                }
-                if (duplicateCdEntryNames.add(entryName)) {
-                    result.addError(Issue.JAR_SIG_DUPLICATE_ZIP_ENTRY, entryName);
-                }
-            }
+            CentralDirectoryIndex cdIndex, Result result) {
+        // This is an error. Report this once per duplicate name.
+        for (String duplicateCdEntryName : cdIndex.getDuplicateNames()) {
+            result.addError(Issue.JAR_SIG_DUPLICATE_ZIP_ENTRY, duplicateCdEntryName);
         }
-        return cdEntryNames;
+        return cdIndex.getNames();
     }
 
     /**
@@ -189,13 +289,29 @@ public abstract class V1SchemeVerifier {
      */
     public static Pair<ManifestParser.Section, Map<String, ManifestParser.Section>> parseManifest(
             byte[] manifestBytes, Set<String> cdEntryNames, Result result) {
+        return parseManifest(manifestBytes, cdEntryNames, result, false);
+    }
+
+    /**
+     * Parses raw representation of MANIFEST.MF file like
+     * {@link #parseManifest(byte[], Set, Result)}. If {@code lazySections} is {@code true}, the
+     * attributes of the individual sections are only parsed when requested, see
+     * {@link ManifestParser#readSectionLazily()}.
+     */
+    private static Pair<ManifestParser.Section, Map<String, ManifestParser.Section>>
+            parseManifest(
+                    byte[] manifestBytes,
+                    Set<String> cdEntryNames,
+                    Result result,
+                    boolean lazySections) {
         ManifestParser manifest = new ManifestParser(manifestBytes);
         ManifestParser.Section manifestMainSection = manifest.readSection();
-        List<ManifestParser.Section> manifestIndividualSections = manifest.readAllSections();
         Map<String, ManifestParser.Section> entryNameToManifestSection =
-                new HashMap<>(manifestIndividualSections.size());
+                new HashMap<>(cdEntryNames.size() * 2);
         int manifestSectionNumber = 0;
-        for (ManifestParser.Section manifestSection : manifestIndividualSections) {
+        ManifestParser.Section manifestSection;
+        while ((manifestSection =
+                lazySections ? manifest.readSectionLazily() : manifest.readSection()) != null) {
             manifestSectionNumber++;
             String entryName = manifestSection.getName();
             if (entryName == null) {
@@ -220,6 +336,8 @@ public abstract class V1SchemeVerifier {
             String digestAttrSuffix,
             int minSdkVersion,
             int maxSdkVersion) {
+        // Several attributes may be looked up, thus parse the attributes of a lazy section once.
+        section = section.withAttributes();
         List<NamedDigest> result = new ArrayList<>(1);
         if (minSdkVersion < AndroidSdkVersion.JELLY_BEAN_MR2) {
             // Prior to JB MR2, Android platform's logic for picking a digest algorithm to verify is
@@ -309,7 +427,11 @@ public abstract class V1SchemeVerifier {
         return null;
     }
 
-    public static List<CentralDirectoryRecord> parseZipCentralDirectory(
+    /**
+     * Parses the APK's ZIP Central Directory, ignoring directory entries, and returns an index of
+     * its records.
+     */
+    public static CentralDirectoryIndex parseZipCentralDirectory(
             DataSource apk,
             ApkUtils.ZipSections apkSections)
             throws IOException, ApkFormatException {
@@ -346,7 +468,95 @@ public abstract class V1SchemeVerifier {
         // There may be more data in Central Directory, but we don't warn or throw because Android
         // ignores unused CD data.
 
-        return cdRecords;
+        return new CentralDirectoryIndex(cdRecords);
+    }
+
+    /**
+     * Parses the APK's ZIP Central Directory like
+     * {@link #parseZipCentralDirectory(DataSource, ApkUtils.ZipSections)}, reading it in windows
+     * of at most {@code bufferSize} bytes instead of at once. Windows are only enlarged as needed
+     * to hold a single record. Each returned record holds a copy of its own bytes, so that the
+     * memory needed stays proportional to the records rather than to the Central Directory.
+     */
+    public static CentralDirectoryIndex parseZipCentralDirectory(
+            DataSource apk,
+            ApkUtils.ZipSections apkSections,
+            long bufferSize)
+            throws IOException, ApkFormatException {
+        long cdSizeBytes = apkSections.getZipCentralDirectorySizeBytes();
+        if (bufferSize >= cdSizeBytes) {
+            return parseZipCentralDirectory(apk, apkSections);
+        }
+        long cdOffset = apkSections.getZipCentralDirectoryOffset();
+        ByteBuffer window =
+                ByteBuffer.allocate((int) Math.max(bufferSize, CD_RECORD_HEADER_SIZE_BYTES));
+        window.order(ByteOrder.LITTLE_ENDIAN);
+        window.limit(0);
+        long windowOffsetInCd = 0;
+
+        int expectedCdRecordCount = apkSections.getZipCentralDirectoryRecordCount();
+        List<CentralDirectoryRecord> cdRecords = new ArrayList<>(expectedCdRecordCount);
+        for (int i = 0; i < expectedCdRecordCount; i++) {
+            int recordSize = getCdRecordSizeBytes(window);
+            while (((recordSize == -1) || (recordSize > window.remaining()))
+                    && (windowOffsetInCd + window.limit() < cdSizeBytes)) {
+                // Read the next window, starting with this record. The record's size is only
+                // known once its header has been read, thus the window may have to be enlarged
+                // and read again.
+                windowOffsetInCd += window.position();
+                if (recordSize > window.capacity()) {
+                    window = ByteBuffer.allocate(recordSize);
+                    window.order(ByteOrder.LITTLE_ENDIAN);
+                }
+                window.clear();
+                window.limit((int) Math.min(window.capacity(), cdSizeBytes - windowOffsetInCd));
+                apk.copyTo(cdOffset + windowOffsetInCd, window.remaining(), window);
+                window.flip();
+                recordSize = getCdRecordSizeBytes(window);
+            }
+            CentralDirectoryRecord cdRecord;
+            long offsetInsideCd = windowOffsetInCd + window.position();
+            try {
+                cdRecord = CentralDirectoryRecord.getRecord(window);
+            } catch (ZipFormatException e) {
+                throw new ApkFormatException(
+                        "Malformed ZIP Central Directory record #" + (i + 1)
+                                + " at file offset " + (cdOffset + offsetInsideCd),
+                        e);
+            }
+            String entryName = cdRecord.getName();
+            if (entryName.endsWith("/")) {
+                // Ignore directory entries
+                continue;
+            }
+            // The record refers to the window, which is about to be overwritten.
+            ByteBuffer recordCopy = ByteBuffer.allocate(cdRecord.getSize());
+            recordCopy.order(ByteOrder.LITTLE_ENDIAN);
+            cdRecord.copyTo(recordCopy);
+            recordCopy.flip();
+            try {
+                cdRecords.add(CentralDirectoryRecord.getRecord(recordCopy));
+            } catch (ZipFormatException e) {
+                throw new IllegalStateException("Failed to copy ZIP Central Directory record", e);
+            }
+        }
+
+        return new CentralDirectoryIndex(cdRecords);
+    }
+
+    /**
+     * Returns the size of the Central Directory record starting at the position of the provided
+     * buffer, or {@code -1} if the buffer does not contain the record's header.
+     */
+    private static int getCdRecordSizeBytes(ByteBuffer buf) {
+        if (buf.remaining() < CD_RECORD_HEADER_SIZE_BYTES) {
+            return -1;
+        }
+        int position = buf.position();
+        return CD_RECORD_HEADER_SIZE_BYTES
+                + (buf.getShort(position + CD_RECORD_NAME_SIZE_OFFSET) & 0xffff)
+                + (buf.getShort(position + CD_RECORD_NAME_SIZE_OFFSET + 2) & 0xffff)
+                + (buf.getShort(position + CD_RECORD_NAME_SIZE_OFFSET + 4) & 0xffff);
     }
 
     /**
@@ -365,23 +575,41 @@ public abstract class V1SchemeVerifier {
     }
 
     private static Set<Signer> verifyJarEntriesAgainstManifestAndSigners(
+            RunnablesExecutor executor,
             DataSource apk,
             long cdOffsetInApk,
-            Collection<CentralDirectoryRecord> cdRecords,
+            CentralDirectoryIndex cdIndex,
             Map<String, ManifestParser.Section> entryNameToManifestSection,
             List<Signer> signers,
             int minSdkVersion,
             int maxSdkVersion,
+            long memoryBudget,
             Result result) throws ApkFormatException, IOException, NoSuchAlgorithmException {
         // Iterate over APK contents as sequentially as possible to improve performance.
         List<CentralDirectoryRecord> cdRecordsSortedByLocalFileHeaderOffset =
-                new ArrayList<>(cdRecords);
-        Collections.sort(
-                cdRecordsSortedByLocalFileHeaderOffset,
-                CentralDirectoryRecord.BY_LOCAL_FILE_HEADER_OFFSET_COMPARATOR);
+                cdIndex.getRecordsSortedByLocalFileHeaderOffset();
+        // With a memory budget, the entries are verified and reported in batches, stopping after
+        // the first batch with errors. Otherwise, all entries form a single batch.
+        int batchSize = cdRecordsSortedByLocalFileHeaderOffset.size();
+        if (memoryBudget != Long.MAX_VALUE) {
+            batchSize = (int) Math.max(
+                    ZipEntryRanges.MIN_RANGE_ENTRIES,
+                    Math.min(batchSize, memoryBudget / JAR_ENTRY_CHECK_SIZE_ESTIMATE_BYTES));
+        }
         List<Signer> firstSignedEntrySigners = null;
         String firstSignedEntryName = null;
+        // Errors (IssueWithParams) and entries whose digests are to be verified
+        // (JarEntryDigestCheck), in the order in which they are reported.
+        List<Object> outcomes = new ArrayList<>(batchSize);
+        List<JarEntryDigestCheck> digestChecks = new ArrayList<>(batchSize);
         for (CentralDirectoryRecord cdRecord : cdRecordsSortedByLocalFileHeaderOffset) {
+            if (outcomes.size() >= batchSize) {
+                reportJarEntryOutcomes(
+                        executor, apk, cdOffsetInApk, outcomes, digestChecks, result);
+                if (result.containsErrors()) {
+                    return Collections.emptySet();
+                }
+            }
             String entryName = cdRecord.getName();
             if (!isJarEntryDigestNeededInManifest(entryName)) {
                 continue;
@@ -389,7 +617,8 @@ public abstract class V1SchemeVerifier {
 
             ManifestParser.Section manifestSection = entryNameToManifestSection.get(entryName);
             if (manifestSection == null) {
-                result.addError(Issue.JAR_SIG_NO_ZIP_ENTRY_DIGEST_IN_MANIFEST, entryName);
+                outcomes.add(new IssueWithParams(
+                        Issue.JAR_SIG_NO_ZIP_ENTRY_DIGEST_IN_MANIFEST, new Object[]{entryName}));
                 continue;
             }
 
@@ -400,19 +629,21 @@ public abstract class V1SchemeVerifier {
                 }
             }
             if (entrySigners.isEmpty()) {
-                result.addError(Issue.JAR_SIG_ZIP_ENTRY_NOT_SIGNED, entryName);
+                outcomes.add(new IssueWithParams(
+                        Issue.JAR_SIG_ZIP_ENTRY_NOT_SIGNED, new Object[]{entryName}));
                 continue;
             }
             if (firstSignedEntrySigners == null) {
                 firstSignedEntrySigners = entrySigners;
                 firstSignedEntryName = entryName;
             } else if (!entrySigners.equals(firstSignedEntrySigners)) {
-                result.addError(
+                outcomes.add(new IssueWithParams(
                         Issue.JAR_SIG_ZIP_ENTRY_SIGNERS_MISMATCH,
-                        firstSignedEntryName,
-                        getSignerNames(firstSignedEntrySigners),
-                        entryName,
-                        getSignerNames(entrySigners));
+                        new Object[]{
+                                firstSignedEntryName,
+                                getSignerNames(firstSignedEntrySigners),
+                                entryName,
+                                getSignerNames(entrySigners)}));
                 continue;
             }
 
@@ -421,13 +652,144 @@ public abstract class V1SchemeVerifier {
                             getDigestsToVerify(
                                     manifestSection, "-Digest", minSdkVersion, maxSdkVersion));
             if (expectedDigests.isEmpty()) {
-                result.addError(Issue.JAR_SIG_NO_ZIP_ENTRY_DIGEST_IN_MANIFEST, entryName);
+                outcomes.add(new IssueWithParams(
+                        Issue.JAR_SIG_NO_ZIP_ENTRY_DIGEST_IN_MANIFEST, new Object[]{entryName}));
                 continue;
             }
 
+            JarEntryDigestCheck digestCheck = new JarEntryDigestCheck(cdRecord, expectedDigests);
+            outcomes.add(digestCheck);
+            digestChecks.add(digestCheck);
+        }
+
+        reportJarEntryOutcomes(executor, apk, cdOffsetInApk, outcomes, digestChecks, result);
+
+        if (firstSignedEntrySigners == null) {
+            result.addError(Issue.JAR_SIG_NO_SIGNED_ZIP_ENTRIES);
+            return Collections.emptySet();
+        } else {
+            return new HashSet<>(firstSignedEntrySigners);
+        }
+    }
+
+    /**
+     * Verifies the digests of the provided JAR entries, then reports the provided outcomes into
+     * the {@code result} and clears both lists.
+     */
+    private static void reportJarEntryOutcomes(
+            RunnablesExecutor executor,
+            DataSource apk,
+            long cdOffsetInApk,
+            List<Object> outcomes,
+            List<JarEntryDigestCheck> digestChecks,
+            Result result) throws ApkFormatException, IOException, NoSuchAlgorithmException {
+        verifyJarEntryDigests(executor, apk, cdOffsetInApk, digestChecks);
+
+        // Report in the same order as when verifying the entries one by one.
+        for (Object outcome : outcomes) {
+            if (outcome instanceof IssueWithParams) {
+                result.mErrors.add((IssueWithParams) outcome);
+                continue;
+            }
+            JarEntryDigestCheck digestCheck = (JarEntryDigestCheck) outcome;
+            digestCheck.rethrowFailure();
+            result.mErrors.addAll(digestCheck.errors);
+        }
+        outcomes.clear();
+        digestChecks.clear();
+    }
+
+    /**
+     * Verifies the digests of the provided JAR entries, storing errors and failures in each
+     * {@link JarEntryDigestCheck}.
+     *
+     * <p>The entries, sorted by Local File Header offset, are split into contiguous ranges of
+     * roughly equal compressed size. The executor's workers take ranges one at a time, so that
+     * each worker reads the APK mostly sequentially. Every worker reuses one {@link Inflater} and
+     * one {@link MessageDigest} per algorithm for all entries it verifies.
+     */
+    private static void verifyJarEntryDigests(
+            RunnablesExecutor executor,
+            DataSource apk,
+            long cdOffsetInApk,
+            List<JarEntryDigestCheck> digestChecks) throws NoSuchAlgorithmException {
+        if (digestChecks.isEmpty()) {
+            return;
+        }
+        // Ranges are sized by the compressed size of the entries.
+        List<int[]> ranges = ZipEntryRanges.split(
+                digestChecks.size(), i -> digestChecks.get(i).cdRecord.getCompressedSize());
+        AtomicInteger nextRange = new AtomicInteger();
+        NoSuchAlgorithmException[] noSuchAlgorithm = new NoSuchAlgorithmException[1];
+        executor.execute(() -> () -> {
+            Map<String, MessageDigest> mds = new HashMap<>(2);
+            Inflater inflater = new Inflater(true);
+            try {
+                int rangeIndex;
+                while ((rangeIndex = nextRange.getAndIncrement()) < ranges.size()) {
+                    int[] range = ranges.get(rangeIndex);
+                    for (int i = range[0]; i < range[1]; i++) {
+                        JarEntryDigestCheck digestCheck = digestChecks.get(i);
+                        digestCheck.verify(apk, cdOffsetInApk, mds, inflater);
+                        if (digestCheck.failure != null) {
+                            // Entries after the first failure are not reported.
+                            break;
+                        }
+                    }
+                }
+            } catch (NoSuchAlgorithmException e) {
+                synchronized (noSuchAlgorithm) {
+                    noSuchAlgorithm[0] = e;
+                }
+            } finally {
+                inflater.end();
+            }
+        });
+        synchronized (noSuchAlgorithm) {
+            if (noSuchAlgorithm[0] != null) {
+                throw noSuchAlgorithm[0];
+            }
+        }
+    }
+
+    /**
+     * Verification of the digests of one JAR entry against the JAR manifest.
+     */
+    private static class JarEntryDigestCheck {
+        private final CentralDirectoryRecord cdRecord;
+        private final List<NamedDigest> expectedDigests;
+        private final List<IssueWithParams> errors = new ArrayList<>(0);
+        private Exception failure;
+
+        private JarEntryDigestCheck(
+                CentralDirectoryRecord cdRecord, List<NamedDigest> expectedDigests) {
+            this.cdRecord = cdRecord;
+            this.expectedDigests = expectedDigests;
+        }
+
+        private void verify(
+                DataSource apk,
+                long cdOffsetInApk,
+                Map<String, MessageDigest> mdPool,
+                Inflater inflater) throws NoSuchAlgorithmException {
+            String entryName = cdRecord.getName();
             MessageDigest[] mds = new MessageDigest[expectedDigests.size()];
             for (int i = 0; i < expectedDigests.size(); i++) {
-                mds[i] = getMessageDigest(expectedDigests.get(i).jcaDigestAlgorithm);
+                String algorithm = expectedDigests.get(i).jcaDigestAlgorithm;
+                if (isDigestAlgorithmListedBefore(expectedDigests, i)) {
+                    // The same algorithm is expected with two different values (pre-JB MR2 and
+                    // JB MR2+ digests). Each needs its own instance.
+                    mds[i] = getMessageDigest(algorithm);
+                    continue;
+                }
+                MessageDigest md = mdPool.get(algorithm);
+                if (md == null) {
+                    md = getMessageDigest(algorithm);
+                    mdPool.put(algorithm, md);
+                } else {
+                    md.reset();
+                }
+                mds[i] = md;
             }
 
             try {
@@ -435,33 +797,49 @@ public abstract class V1SchemeVerifier {
                         apk,
                         cdRecord,
                         cdOffsetInApk,
-                        DataSinks.asDataSink(mds));
+                        DataSinks.asDataSink(mds),
+                        inflater);
             } catch (ZipFormatException e) {
-                throw new ApkFormatException("Malformed ZIP entry: " + entryName, e);
+                failure = new ApkFormatException("Malformed ZIP entry: " + entryName, e);
+                return;
             } catch (IOException e) {
-                throw new IOException("Failed to read entry: " + entryName, e);
+                failure = new IOException("Failed to read entry: " + entryName, e);
+                return;
             }
 
             for (int i = 0; i < expectedDigests.size(); i++) {
                 NamedDigest expectedDigest = expectedDigests.get(i);
                 byte[] actualDigest = mds[i].digest();
                 if (!Arrays.equals(expectedDigest.digest, actualDigest)) {
-                    result.addError(
+                    errors.add(new IssueWithParams(
                             Issue.JAR_SIG_ZIP_ENTRY_DIGEST_DID_NOT_VERIFY,
-                            entryName,
-                            expectedDigest.jcaDigestAlgorithm,
-                            V1SchemeSigner.MANIFEST_ENTRY_NAME,
-                            Base64.encode(actualDigest),
-                            Base64.encode(expectedDigest.digest));
+                            new Object[]{
+                                    entryName,
+                                    expectedDigest.jcaDigestAlgorithm,
+                                    V1SchemeSigner.MANIFEST_ENTRY_NAME,
+                                    Base64.encode(actualDigest),
+                                    Base64.encode(expectedDigest.digest)}));
                 }
             }
         }
 
-        if (firstSignedEntrySigners == null) {
-            result.addError(Issue.JAR_SIG_NO_SIGNED_ZIP_ENTRIES);
-            return Collections.emptySet();
-        } else {
-            return new HashSet<>(firstSignedEntrySigners);
+        private static boolean isDigestAlgorithmListedBefore(
+                List<NamedDigest> digests, int index) {
+            String algorithm = digests.get(index).jcaDigestAlgorithm;
+            for (int i = 0; i < index; i++) {
+                if (digests.get(i).jcaDigestAlgorithm.equals(algorithm)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void rethrowFailure() throws ApkFormatException, IOException {
+            if (failure instanceof ApkFormatException) {
+                throw (ApkFormatException) failure;
+            } else if (failure instanceof IOException) {
+                throw (IOException) failure;
+            }
         }
     }
 
@@ -503,27 +881,26 @@ public abstract class V1SchemeVerifier {
          * the {@link Result#verified} is {@code true}.
          */
         private static void verify(
+                RunnablesExecutor executor,
                 DataSource apk,
                 long cdStartOffset,
-                List<CentralDirectoryRecord> cdRecords,
+                CentralDirectoryIndex cdIndex,
                 Set<String> cdEntryNames,
                 Map<Integer, String> supportedApkSigSchemeNames,
                 Set<Integer> foundApkSigSchemeIds,
                 int minSdkVersion,
                 int maxSdkVersion,
+                long memoryBudget,
                 Result result) throws ApkFormatException, IOException, NoSuchAlgorithmException {
 
             // Find JAR manifest and signature block files.
-            CentralDirectoryRecord manifestEntry = null;
+            CentralDirectoryRecord manifestEntry = cdIndex.findRecord(MANIFEST_ENTRY_NAME);
             Map<String, CentralDirectoryRecord> sigFileEntries = new HashMap<>(1);
             List<CentralDirectoryRecord> sigBlockEntries = new ArrayList<>(1);
-            for (CentralDirectoryRecord cdRecord : cdRecords) {
+            for (CentralDirectoryRecord cdRecord : cdIndex.getRecords()) {
                 String entryName = cdRecord.getName();
-                if (!entryName.startsWith("META-INF/")) {
-                    continue;
-                }
-                if ((manifestEntry == null) && (MANIFEST_ENTRY_NAME.equals(entryName))) {
-                    manifestEntry = cdRecord;
+                if ((!entryName.startsWith("META-INF/"))
+                        || (MANIFEST_ENTRY_NAME.equals(entryName))) {
                     continue;
                 }
                 if (entryName.endsWith(".SF")) {
@@ -552,7 +929,8 @@ public abstract class V1SchemeVerifier {
             }
 
             Pair<ManifestParser.Section, Map<String, ManifestParser.Section>> manifestSections =
-                    parseManifest(manifestBytes, cdEntryNames, result);
+                    parseManifest(
+                            manifestBytes, cdEntryNames, result, memoryBudget != Long.MAX_VALUE);
 
             if (result.containsErrors()) {
                 return;
@@ -654,13 +1032,15 @@ public abstract class V1SchemeVerifier {
             // we've identified so far.
             Set<Signer> apkSigners =
                     verifyJarEntriesAgainstManifestAndSigners(
+                            executor,
                             apk,
                             cdStartOffset,
-                            cdRecords,
+                            cdIndex,
                             entryNameToManifestSection,
                             signers,
                             minSdkVersion,
                             maxSdkVersion,
+                            memoryBudget,
                             result);
             if (result.containsErrors()) {
                 return;
@@ -680,7 +1060,7 @@ public abstract class V1SchemeVerifier {
                 signatureEntryNames.add(signer.getSignatureBlockEntryName());
                 signatureEntryNames.add(signer.getSignatureFileEntryName());
             }
-            for (CentralDirectoryRecord cdRecord : cdRecords) {
+            for (CentralDirectoryRecord cdRecord : cdIndex.getRecords()) {
                 String entryName = cdRecord.getName();
                 if ((entryName.startsWith("META-INF/"))
                         && (!entryName.endsWith("/"))
@@ -1142,11 +1522,12 @@ public abstract class V1SchemeVerifier {
 
             // Inspect per-entry sections of .SF file. Technically, if the digest of JAR manifest
             // verifies, per-entry sections should be ignored. However, most Android platform
-            // implementations require that such sections exist.
-            List<ManifestParser.Section> sfSections = sf.readAllSections();
-            Set<String> sfEntryNames = new HashSet<>(sfSections.size());
+            // implementations require that such sections exist. Their attributes are only needed
+            // if the digest of the JAR manifest did not verify, thus they are parsed lazily.
+            Set<String> sfEntryNames = new HashSet<>(entryNameToManifestSection.size() * 2);
             int sfSectionNumber = 0;
-            for (ManifestParser.Section sfSection : sfSections) {
+            ManifestParser.Section sfSection;
+            while ((sfSection = sf.readSectionLazily()) != null) {
                 sfSectionNumber++;
                 String entryName = sfSection.getName();
                 if (entryName == null) {
@@ -140,7 +140,13 @@ public abstract class V2SchemeSigner {
                 digestInfo.getSecond());
     }
 
-    private static Pair<byte[], Integer> generateApkSignatureSchemeV2Block(
+    /**
+     * Generates the APK Signature Scheme v2 block from digests of APK contents computed
+     * beforehand, e.g. with {@link ApkSigningBlockUtils#computeApkContentDigests} for all
+     * signature schemes at once. {@code contentDigests} must hold exactly the digests needed by
+     * the signers, see {@link ApkSigningBlockUtils#selectContentDigests}.
+     */
+    public static Pair<byte[], Integer> generateApkSignatureSchemeV2Block(
             List<SignerConfig> signerConfigs,
             Map<ContentDigestAlgorithm, byte[]> contentDigests,
             boolean v3SigningEnabled)
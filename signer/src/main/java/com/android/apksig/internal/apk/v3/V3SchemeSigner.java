@@ -123,7 +123,13 @@ public abstract class V3SchemeSigner {
                 digestInfo.getSecond());
     }
 
-    private static Pair<byte[], Integer> generateApkSignatureSchemeV3Block(
+    /**
+     * Generates the APK Signature Scheme v3 block from digests of APK contents computed
+     * beforehand, e.g. with {@link ApkSigningBlockUtils#computeApkContentDigests} for all
+     * signature schemes at once. {@code contentDigests} must hold exactly the digests needed by
+     * the signers, see {@link ApkSigningBlockUtils#selectContentDigests}.
+     */
+    public static Pair<byte[], Integer> generateApkSignatureSchemeV3Block(
             List<SignerConfig> signerConfigs, Map<ContentDigestAlgorithm, byte[]> contentDigests)
             throws NoSuchAlgorithmException, InvalidKeyException, SignatureException {
         // FORMAT:
@@ -17,14 +17,19 @@ import com.android.apksig.internal.apk.v2.V2SchemeVerifier;
 import com.android.apksig.internal.apk.v3.V3SchemeSigner;
 import com.android.apksig.internal.apk.v3.V3SchemeVerifier;
 import com.android.apksig.internal.util.Pair;
+import com.android.apksig.util.DataSinks;
 import com.android.apksig.util.DataSource;
+import com.android.apksig.util.DataSources;
+import com.android.apksig.util.RunnablesExecutor;
 import com.android.apksig.zip.ZipFormatException;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
@@ -38,6 +43,12 @@ import java.util.Set;
 
 
 public abstract class V4SchemeSigner {
+    /**
+     * Maximum number of bytes of the APK held in memory at a time while building the hash tree
+     * written to a v4 signature file.
+     */
+    private static final long VERITY_BUFFER_BUDGET = 16 * 1024 * 1024;
+
     /**
      * Hidden constructor to prevent instantiation.
      */
@@ -66,17 +77,49 @@ public abstract class V4SchemeSigner {
     /**
      * Compute hash tree and generate v4 signature for a given APK. Write the serialized data to
      * output file.
+     *
+     * <p>The hash tree is built in a temporary file rather than on the heap, and is copied from
+     * there into the output file, so that memory use does not grow with the size of the APK.
      */
     public static void generateV4Signature(
             DataSource apkContent, SignerConfig signerConfig, File outputFile)
             throws IOException, InvalidKeyException, NoSuchAlgorithmException {
-        Pair<V4Signature, byte[]> pair = generateV4Signature(apkContent, signerConfig);
-        try (final OutputStream output = new FileOutputStream(outputFile)) {
-            pair.getFirst().writeTo(output);
-            V4Signature.writeBytes(output, pair.getSecond());
-        } catch (IOException e) {
-            outputFile.delete();
-            throw e;
+        generateV4Signature(RunnablesExecutor.MULTI_THREADED, apkContent, signerConfig, outputFile);
+    }
+
+    /**
+     * Compute hash tree and generate v4 signature for a given APK like
+     * {@link #generateV4Signature(DataSource, SignerConfig, File)}, digesting the chunks of the
+     * hash tree on the provided executor.
+     */
+    public static void generateV4Signature(
+            RunnablesExecutor executor,
+            DataSource apkContent,
+            SignerConfig signerConfig,
+            File outputFile)
+            throws IOException, InvalidKeyException, NoSuchAlgorithmException {
+        File treeFile = File.createTempFile("apksig", ".verity", outputFile.getParentFile());
+        try (RandomAccessFile tree = new RandomAccessFile(treeFile, "rw")) {
+            FileChannel treeChannel = tree.getChannel();
+            // Obtaining first supported digest from v2/v3 blocks (SHA256 or SHA512).
+            final byte[] apkDigest = getApkDigest(apkContent);
+            V4Signature signature = generateV4Signature(apkContent, signerConfig, apkDigest,
+                    ApkSigningBlockUtils.computeChunkVerityTreeAndDigest(
+                            executor, apkContent, treeChannel, VERITY_BUFFER_BUDGET));
+            try (final OutputStream output = new FileOutputStream(outputFile)) {
+                signature.writeTo(output);
+                long treeSize = treeChannel.size();
+                V4Signature.writeIntLE(output, (int) treeSize);
+                DataSources.asDataSource(treeChannel, 0, treeSize)
+                        .feed(0, treeSize, DataSinks.asDataSink(output));
+            } catch (IOException e) {
+                outputFile.delete();
+                throw e;
+            }
+        } finally {
+            if (!treeFile.delete()) {
+                treeFile.deleteOnExit();
+            }
         }
     }
 
@@ -87,13 +130,6 @@ public abstract class V4SchemeSigner {
             DataSource apkContent,
             SignerConfig signerConfig)
             throws IOException, InvalidKeyException, NoSuchAlgorithmException {
-        // Salt has to stay empty for fs-verity compatibility.
-        final byte[] salt = null;
-        // Not used by apksigner.
-        final byte[] additionalData = null;
-
-        final long fileSize = apkContent.size();
-
         // Obtaining first supported digest from v2/v3 blocks (SHA256 or SHA512).
         final byte[] apkDigest = getApkDigest(apkContent);
 
@@ -101,10 +137,27 @@ public abstract class V4SchemeSigner {
         ApkSigningBlockUtils.VerityTreeAndDigest verityContentDigestInfo =
                 ApkSigningBlockUtils.computeChunkVerityTreeAndDigest(apkContent);
 
+        return Pair.of(
+                generateV4Signature(apkContent, signerConfig, apkDigest, verityContentDigestInfo),
+                verityContentDigestInfo.tree);
+    }
+
+    private static V4Signature generateV4Signature(
+            DataSource apkContent,
+            SignerConfig signerConfig,
+            byte[] apkDigest,
+            ApkSigningBlockUtils.VerityTreeAndDigest verityContentDigestInfo)
+            throws InvalidKeyException, NoSuchAlgorithmException {
+        // Salt has to stay empty for fs-verity compatibility.
+        final byte[] salt = null;
+        // Not used by apksigner.
+        final byte[] additionalData = null;
+
+        final long fileSize = apkContent.size();
+
         final ContentDigestAlgorithm verityContentDigestAlgorithm =
                 verityContentDigestInfo.contentDigestAlgorithm;
         final byte[] rootHash = verityContentDigestInfo.rootHash;
-        final byte[] tree = verityContentDigestInfo.tree;
 
         final Pair<Integer, Byte> hashingAlgorithmBlockSizePair = convertToV4HashingInfo(
                 verityContentDigestAlgorithm);
@@ -113,15 +166,12 @@ public abstract class V4SchemeSigner {
                 salt, rootHash);
 
         // Generating SigningInfo and combining everything into V4Signature.
-        final V4Signature signature;
         try {
-            signature = generateSignature(signerConfig, hashingInfo, apkDigest, additionalData,
+            return generateSignature(signerConfig, hashingInfo, apkDigest, additionalData,
                     fileSize);
         } catch (InvalidKeyException | SignatureException | CertificateEncodingException e) {
             throw new InvalidKeyException("Signer failed", e);
         }
-
-        return Pair.of(signature, tree);
     }
 
     private static V4Signature generateSignature(
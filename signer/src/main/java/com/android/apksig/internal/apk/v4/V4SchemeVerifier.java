@@ -13,11 +13,17 @@ import com.android.apksig.internal.apk.SignatureAlgorithm;
 import com.android.apksig.internal.util.GuaranteedEncodedFormX509Certificate;
 import com.android.apksig.internal.util.X509CertificateUtils;
 import com.android.apksig.util.DataSource;
+import com.android.apksig.util.RunnablesExecutor;
 
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.KeyFactory;
@@ -33,6 +39,9 @@ import java.util.Arrays;
 
 
 public abstract class V4SchemeVerifier {
+    /** Maximum size of the chunks in which the verity trees are compared. */
+    private static final int TREE_COMPARISON_CHUNK_SIZE_BYTES = 1024 * 1024;
+
     /**
      * Hidden constructor to prevent instantiation.
      */
@@ -50,13 +59,46 @@ public abstract class V4SchemeVerifier {
      */
     public static ApkSigningBlockUtils.Result verify(DataSource apk, File v4SignatureFile)
             throws IOException, NoSuchAlgorithmException {
-        final V4Signature signature;
-        final byte[] tree;
+        return verify(RunnablesExecutor.MULTI_THREADED, apk, v4SignatureFile, Long.MAX_VALUE);
+    }
+
+    /**
+     * Verifies the APK against the provided V4Signature file like
+     * {@link #verify(DataSource, File)}, holding roughly at most {@code memoryBudget} bytes of
+     * the APK and of the verity trees on the heap, or unbounded if {@code memoryBudget} is
+     * {@link Long#MAX_VALUE}.
+     *
+     * <p>With a budget, the verity tree of the APK is built in a temporary file, digesting its
+     * chunks on the provided executor, and compared with the tree stored in the V4Signature file
+     * chunk by chunk.
+     */
+    public static ApkSigningBlockUtils.Result verify(
+            RunnablesExecutor executor, DataSource apk, File v4SignatureFile, long memoryBudget)
+            throws IOException, NoSuchAlgorithmException {
+        if (memoryBudget <= 0) {
+            throw new IllegalArgumentException("memoryBudget must be positive: " + memoryBudget);
+        }
         try (InputStream input = new FileInputStream(v4SignatureFile)) {
-            signature = V4Signature.readFrom(input);
-            tree = V4Signature.readBytes(input);
+            V4Signature signature = V4Signature.readFrom(input);
+            if (memoryBudget == Long.MAX_VALUE) {
+                return verify(
+                        executor, apk, signature, V4Signature.readBytes(input), null, memoryBudget);
+            }
+            return verify(executor, apk, signature, null, input, memoryBudget);
         }
+    }
 
+    /**
+     * Verifies the APK against the provided signature and verity tree, which is either provided
+     * as {@code tree} or read from {@code treeInput}.
+     */
+    private static ApkSigningBlockUtils.Result verify(
+            RunnablesExecutor executor,
+            DataSource apk,
+            V4Signature signature,
+            byte[] tree,
+            InputStream treeInput,
+            long memoryBudget) throws IOException, NoSuchAlgorithmException {
         final ApkSigningBlockUtils.Result result = new ApkSigningBlockUtils.Result(
                 ApkSigningBlockUtils.VERSION_APK_SIGNATURE_SCHEME_V4);
 
@@ -87,7 +129,12 @@ public abstract class V4SchemeVerifier {
         }
 
         // Second, check if the root hash and the tree are correct.
-        verifyRootHashAndTree(apk, signerInfo, hashingInfo.rawRootHash, tree);
+        if (treeInput != null) {
+            verifyRootHashAndTree(
+                    executor, apk, signerInfo, hashingInfo.rawRootHash, treeInput, memoryBudget);
+        } else {
+            verifyRootHashAndTree(apk, signerInfo, hashingInfo.rawRootHash, tree);
+        }
         if (!result.containsErrors()) {
             result.verified = true;
         }
@@ -230,4 +277,96 @@ public abstract class V4SchemeVerifier {
 
         signerInfo.verifiedContentDigests.put(algorithm, actualDigest);
     }
+
+    /**
+     * Verifies the root hash and the verity tree like
+     * {@link #verifyRootHashAndTree(DataSource, ApkSigningBlockUtils.Result.SignerInfo, byte[],
+     * byte[])}, building the actual tree in a temporary file and reading the expected tree, if
+     * any, from the provided stream.
+     */
+    private static void verifyRootHashAndTree(
+            RunnablesExecutor executor,
+            DataSource apkContent,
+            ApkSigningBlockUtils.Result.SignerInfo signerInfo,
+            byte[] expectedDigest,
+            InputStream expectedTree,
+            long memoryBudget) throws IOException, NoSuchAlgorithmException {
+        File treeFile = File.createTempFile("apksig", ".verity");
+        try (RandomAccessFile tree = new RandomAccessFile(treeFile, "rw")) {
+            FileChannel actualTree = tree.getChannel();
+            ApkSigningBlockUtils.VerityTreeAndDigest actualContentDigestInfo =
+                    ApkSigningBlockUtils.computeChunkVerityTreeAndDigest(
+                            executor,
+                            apkContent,
+                            actualTree,
+                            memoryBudget);
+
+            ContentDigestAlgorithm algorithm = actualContentDigestInfo.contentDigestAlgorithm;
+            final byte[] actualDigest = actualContentDigestInfo.rootHash;
+
+            if (!Arrays.equals(expectedDigest, actualDigest)) {
+                signerInfo.addError(
+                        ApkVerifier.Issue.V4_SIG_APK_ROOT_DID_NOT_VERIFY,
+                        algorithm,
+                        toHex(expectedDigest),
+                        toHex(actualDigest));
+                return;
+            }
+            if (!isTreeMatching(expectedTree, actualTree, memoryBudget)) {
+                signerInfo.addError(
+                        ApkVerifier.Issue.V4_SIG_APK_TREE_DID_NOT_VERIFY,
+                        algorithm,
+                        toHex(expectedDigest),
+                        toHex(actualDigest));
+                return;
+            }
+
+            signerInfo.verifiedContentDigests.put(algorithm, actualDigest);
+        } finally {
+            if (!treeFile.delete()) {
+                treeFile.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * Returns {@code true} if the verity tree read from {@code expectedTree} matches the tree in
+     * {@code actualTree}, or if the V4Signature file contains no tree. The trees are compared in
+     * chunks of at most {@code memoryBudget / 2} bytes.
+     */
+    private static boolean isTreeMatching(
+            InputStream expectedTree, FileChannel actualTree, long memoryBudget)
+            throws IOException {
+        // Like V4Signature.readBytes, a missing or truncated tree is not checked.
+        try {
+            int expectedTreeSize = V4Signature.readIntLE(expectedTree);
+            if (expectedTreeSize != actualTree.size()) {
+                return false;
+            }
+            int chunkSize = (int) Math.max(1, Math.min(
+                    Math.min(memoryBudget / 2, TREE_COMPARISON_CHUNK_SIZE_BYTES),
+                    expectedTreeSize));
+            DataInputStream expectedTreeInput = new DataInputStream(expectedTree);
+            byte[] expectedChunk = new byte[chunkSize];
+            ByteBuffer actualChunk = ByteBuffer.allocate(chunkSize);
+            for (long offset = 0; offset < expectedTreeSize; offset += chunkSize) {
+                int size = (int) Math.min(chunkSize, expectedTreeSize - offset);
+                expectedTreeInput.readFully(expectedChunk, 0, size);
+                actualChunk.clear();
+                actualChunk.limit(size);
+                while (actualChunk.hasRemaining()) {
+                    if (actualTree.read(actualChunk, offset + actualChunk.position()) < 0) {
+                        throw new IOException("Verity tree file too short");
+                    }
+                }
+                actualChunk.flip();
+                if (!actualChunk.equals(ByteBuffer.wrap(expectedChunk, 0, size))) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (EOFException ignored) {
+            return true;
+        }
+    }
 }
@@ -11,6 +11,9 @@ import com.android.apksig.internal.asn1.ber.ByteBufferBerDataValueReader;
 import com.android.apksig.internal.util.ByteBufferUtils;
 import com.android.apksig.internal.util.ClassCompat;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.math.BigInteger;
@@ -18,9 +21,31 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 public final class Asn1BerParser {
+    /**
+     * Fields of CHOICE container classes, validated. Filled in on first use of each class, so that
+     * the fields do not have to be discovered via reflection and validated on every parse.
+     */
+    private static final Map<Class<?>, List<AnnotatedField>> CHOICE_FIELDS =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Fields of SEQUENCE and UNENCODED_CONTAINER container classes, validated and sorted by index.
+     * Filled in on first use of each class.
+     */
+    private static final Map<Class<?>, List<AnnotatedField>> SEQUENCE_FIELDS =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Public no-arg constructors of container classes, adapted to {@code ()Object}. Filled in on
+     * first use of each class.
+     */
+    private static final Map<Class<?>, MethodHandle> CONSTRUCTORS = new ConcurrentHashMap<>();
+
     private Asn1BerParser() {
     }
 
@@ -126,6 +151,30 @@ public final class Asn1BerParser {
 
     private static <T> T parseChoice(BerDataValue dataValue, Class<T> containerClass)
             throws Asn1DecodingException {
+        List<AnnotatedField> fields = CHOICE_FIELDS.get(containerClass);
+        if (fields == null) {
+            fields = getChoiceFields(containerClass);
+            CHOICE_FIELDS.put(containerClass, fields);
+        }
+
+        // Instantiate the container object / result
+        T obj = newInstance(containerClass);
+        // Set the matching field's value from the data value
+        for (AnnotatedField field : fields) {
+            try {
+                field.setValueFrom(dataValue, obj);
+                return obj;
+            } catch (Asn1UnexpectedTagException expected) {
+                // not a match
+            }
+        }
+
+        throw new Asn1DecodingException(
+                "No options of CHOICE " + containerClass.getName() + " matched");
+    }
+
+    private static List<AnnotatedField> getChoiceFields(Class<?> containerClass)
+            throws Asn1DecodingException {
         List<AnnotatedField> fields = getAnnotatedFields(containerClass);
         if (fields.isEmpty()) {
             throw new Asn1DecodingException(
@@ -151,26 +200,7 @@ public final class Asn1BerParser {
                 }
             }
         }
-
-        // Instantiate the container object / result
-        T obj;
-        try {
-            obj = containerClass.getConstructor().newInstance();
-        } catch (IllegalArgumentException | ReflectiveOperationException e) {
-            throw new Asn1DecodingException("Failed to instantiate " + containerClass.getName(), e);
-        }
-        // Set the matching field's value from the data value
-        for (AnnotatedField field : fields) {
-            try {
-                field.setValueFrom(dataValue, obj);
-                return obj;
-            } catch (Asn1UnexpectedTagException expected) {
-                // not a match
-            }
-        }
-
-        throw new Asn1DecodingException(
-                "No options of CHOICE " + containerClass.getName() + " matched");
+        return Collections.unmodifiableList(fields);
     }
 
     private static <T> T parseSequence(BerDataValue container, Class<T> containerClass)
@@ -180,31 +210,14 @@ public final class Asn1BerParser {
 
     private static <T> T parseSequence(BerDataValue container, Class<T> containerClass,
                                        boolean isUnencodedContainer) throws Asn1DecodingException {
-        List<AnnotatedField> fields = getAnnotatedFields(containerClass);
-        Collections.sort(
-                fields, (f1, f2) -> f1.getAnnotation().index() - f2.getAnnotation().index());
-        // Check that there are no fields with the same index
-        if (fields.size() > 1) {
-            AnnotatedField lastField = null;
-            for (AnnotatedField field : fields) {
-                if ((lastField != null)
-                        && (lastField.getAnnotation().index() == field.getAnnotation().index())) {
-                    throw new Asn1DecodingException(
-                            "Fields have the same index: " + containerClass.getName()
-                                    + "." + lastField.getField().getName()
-                                    + " and ." + field.getField().getName());
-                }
-                lastField = field;
-            }
+        List<AnnotatedField> fields = SEQUENCE_FIELDS.get(containerClass);
+        if (fields == null) {
+            fields = getSequenceFields(containerClass);
+            SEQUENCE_FIELDS.put(containerClass, fields);
         }
 
         // Instantiate the container object / result
-        T t;
-        try {
-            t = containerClass.getConstructor().newInstance();
-        } catch (IllegalArgumentException | ReflectiveOperationException e) {
-            throw new Asn1DecodingException("Failed to instantiate " + containerClass.getName(), e);
-        }
+        T t = newInstance(containerClass);
 
         // Parse fields one by one. A complication is that there may be optional fields.
         int nextUnreadFieldIndex = 0;
@@ -260,6 +273,47 @@ public final class Asn1BerParser {
         return t;
     }
 
+    private static List<AnnotatedField> getSequenceFields(Class<?> containerClass)
+            throws Asn1DecodingException {
+        List<AnnotatedField> fields = getAnnotatedFields(containerClass);
+        Collections.sort(
+                fields, (f1, f2) -> f1.getAnnotation().index() - f2.getAnnotation().index());
+        // Check that there are no fields with the same index
+        if (fields.size() > 1) {
+            AnnotatedField lastField = null;
+            for (AnnotatedField field : fields) {
+                if ((lastField != null)
+                        && (lastField.getAnnotation().index() == field.getAnnotation().index())) {
+                    throw new Asn1DecodingException(
+                            "Fields have the same index: " + containerClass.getName()
+                                    + "." + lastField.getField().getName()
+                                    + " and ." + field.getField().getName());
+                }
+                lastField = field;
+            }
+        }
+        return Collections.unmodifiableList(fields);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T newInstance(Class<T> containerClass) throws Asn1DecodingException {
+        MethodHandle constructor = CONSTRUCTORS.get(containerClass);
+        try {
+            if (constructor == null) {
+                constructor =
+                        MethodHandles.publicLookup()
+                                .unreflectConstructor(containerClass.getConstructor())
+                                .asType(MethodType.methodType(Object.class));
+                CONSTRUCTORS.put(containerClass, constructor);
+            }
+            return (T) (Object) constructor.invokeExact();
+        } catch (Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new Asn1DecodingException("Failed to instantiate " + containerClass.getName(), e);
+        }
+    }
+
     // NOTE: This method returns List rather than Set because ASN.1 SET_OF does require uniqueness
     // of elements -- it's an unordered collection.
     @SuppressWarnings("unchecked")
@@ -434,6 +488,7 @@ public final class Asn1BerParser {
 
     private static final class AnnotatedField {
         private final Field mField;
+        private final MethodHandle mSetter;
         private final Asn1Field mAnnotation;
         private final Asn1Type mDataType;
         private final Asn1TagClass mTagClass;
@@ -441,9 +496,23 @@ public final class Asn1BerParser {
         private final int mBerTagNumber;
         private final Asn1Tagging mTagging;
         private final boolean mOptional;
+        private volatile Class<?> mElementType;
 
         public AnnotatedField(Field field, Asn1Field annotation) throws Asn1DecodingException {
             mField = field;
+            MethodHandle setter;
+            try {
+                setter =
+                        MethodHandles.publicLookup()
+                                .unreflectSetter(field)
+                                .asType(
+                                        MethodType.methodType(
+                                                void.class, Object.class, Object.class));
+            } catch (IllegalAccessException e) {
+                // Not settable, e.g., final. setValue fails the same way as Field.set does.
+                setter = null;
+            }
+            mSetter = setter;
             mAnnotation = annotation;
             mDataType = annotation.type();
 
@@ -498,6 +567,30 @@ public final class Asn1BerParser {
             return mBerTagNumber;
         }
 
+        public Class<?> getElementType() throws Asn1DecodingException, ClassNotFoundException {
+            Class<?> elementType = mElementType;
+            if (elementType == null) {
+                elementType = Asn1BerParser.getElementType(mField);
+                mElementType = elementType;
+            }
+            return elementType;
+        }
+
+        public void setValue(Object obj, Object value) throws IllegalAccessException {
+            if (mSetter == null) {
+                mField.set(obj, value);
+                return;
+            }
+            try {
+                mSetter.invokeExact(obj, value);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                // Field setters do not throw checked exceptions
+                throw new RuntimeException(e);
+            }
+        }
+
         public void setValueFrom(BerDataValue dataValue, Object obj) throws Asn1DecodingException {
             int readTagClass = dataValue.getTagClass();
             if (mBerTagNumber != -1) {
@@ -528,7 +621,7 @@ public final class Asn1BerParser {
                 }
             }
 
-            BerToJavaConverter.setFieldValue(obj, mField, mDataType, dataValue);
+            BerToJavaConverter.setFieldValue(obj, this, mDataType, dataValue);
         }
     }
 
@@ -547,26 +640,27 @@ public final class Asn1BerParser {
         }
 
         public static void setFieldValue(
-                Object obj, Field field, Asn1Type type, BerDataValue dataValue)
+                Object obj, AnnotatedField field, Asn1Type type, BerDataValue dataValue)
                 throws Asn1DecodingException {
+            Class<?> fieldType = field.getField().getType();
             try {
                 switch (type) {
                     case SET_OF:
                     case SEQUENCE_OF:
-                        if (Asn1OpaqueObject.class.equals(field.getType())) {
-                            field.set(obj, convert(type, dataValue, field.getType()));
+                        if (Asn1OpaqueObject.class.equals(fieldType)) {
+                            field.setValue(obj, convert(type, dataValue, fieldType));
                         } else {
-                            field.set(obj, parseSetOf(dataValue, getElementType(field)));
+                            field.setValue(obj, parseSetOf(dataValue, field.getElementType()));
                         }
                         return;
                     default:
-                        field.set(obj, convert(type, dataValue, field.getType()));
+                        field.setValue(obj, convert(type, dataValue, fieldType));
                         break;
                 }
             } catch (ReflectiveOperationException e) {
                 throw new Asn1DecodingException(
                         "Failed to set value of " + obj.getClass().getName()
-                                + "." + field.getName(),
+                                + "." + field.getField().getName(),
                         e);
             }
         }
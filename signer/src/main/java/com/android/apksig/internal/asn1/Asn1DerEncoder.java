@@ -7,6 +7,9 @@ import com.android.apksig.internal.asn1.ber.BerEncoding;
 import com.android.apksig.internal.util.ClassCompat;
 
 import java.io.ByteArrayOutputStream;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.math.BigInteger;
@@ -16,6 +19,8 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 public final class Asn1DerEncoder {
@@ -25,6 +30,20 @@ public final class Asn1DerEncoder {
     public static final Asn1OpaqueObject ASN1_DER_NULL =
             new Asn1OpaqueObject(new byte[]{BerEncoding.TAG_NUMBER_NULL, 0});
 
+    /**
+     * Fields of CHOICE container classes, validated. Filled in on first use of each class, so that
+     * the fields do not have to be discovered via reflection and validated on every encode.
+     */
+    private static final Map<Class<?>, List<AnnotatedField>> CHOICE_FIELDS =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Fields of SEQUENCE and UNENCODED_CONTAINER container classes, validated and sorted by index.
+     * Filled in on first use of each class.
+     */
+    private static final Map<Class<?>, List<AnnotatedField>> SEQUENCE_FIELDS =
+            new ConcurrentHashMap<>();
+
     private Asn1DerEncoder() {
     }
 
@@ -63,16 +82,21 @@ public final class Asn1DerEncoder {
 
     private static byte[] toChoice(Object container) throws Asn1EncodingException {
         Class<?> containerClass = container.getClass();
-        List<AnnotatedField> fields = getAnnotatedFields(container);
-        if (fields.isEmpty()) {
-            throw new Asn1EncodingException(
-                    "No fields annotated with " + Asn1Field.class.getName()
-                            + " in CHOICE class " + containerClass.getName());
+        List<AnnotatedField> fields = CHOICE_FIELDS.get(containerClass);
+        if (fields == null) {
+            fields = getAnnotatedFields(containerClass);
+            if (fields.isEmpty()) {
+                throw new Asn1EncodingException(
+                        "No fields annotated with " + Asn1Field.class.getName()
+                                + " in CHOICE class " + containerClass.getName());
+            }
+            fields = Collections.unmodifiableList(fields);
+            CHOICE_FIELDS.put(containerClass, fields);
         }
 
         AnnotatedField resultField = null;
         for (AnnotatedField field : fields) {
-            Object fieldValue = getMemberFieldValue(container, field.getField());
+            Object fieldValue = field.getValue(container);
             if (fieldValue != null) {
                 if (resultField != null) {
                     throw new Asn1EncodingException(
@@ -89,7 +113,7 @@ public final class Asn1DerEncoder {
                     "No non-null fields in CHOICE class " + containerClass.getName());
         }
 
-        return resultField.toDer();
+        return resultField.toDer(container);
     }
 
     private static byte[] toSequence(Object container) throws Asn1EncodingException {
@@ -99,21 +123,10 @@ public final class Asn1DerEncoder {
     private static byte[] toSequence(Object container, boolean omitTag)
             throws Asn1EncodingException {
         Class<?> containerClass = container.getClass();
-        List<AnnotatedField> fields = getAnnotatedFields(container);
-        Collections.sort(
-                fields, (f1, f2) -> f1.getAnnotation().index() - f2.getAnnotation().index());
-        if (fields.size() > 1) {
-            AnnotatedField lastField = null;
-            for (AnnotatedField field : fields) {
-                if ((lastField != null)
-                        && (lastField.getAnnotation().index() == field.getAnnotation().index())) {
-                    throw new Asn1EncodingException(
-                            "Fields have the same index: " + containerClass.getName()
-                                    + "." + lastField.getField().getName()
-                                    + " and ." + field.getField().getName());
-                }
-                lastField = field;
-            }
+        List<AnnotatedField> fields = SEQUENCE_FIELDS.get(containerClass);
+        if (fields == null) {
+            fields = getSequenceFields(containerClass);
+            SEQUENCE_FIELDS.put(containerClass, fields);
         }
 
         List<byte[]> serializedFields = new ArrayList<>(fields.size());
@@ -121,7 +134,7 @@ public final class Asn1DerEncoder {
         for (AnnotatedField field : fields) {
             byte[] serializedField;
             try {
-                serializedField = field.toDer();
+                serializedField = field.toDer(container);
             } catch (Asn1EncodingException e) {
                 throw new Asn1EncodingException(
                         "Failed to encode " + containerClass.getName()
@@ -149,6 +162,27 @@ public final class Asn1DerEncoder {
         }
     }
 
+    private static List<AnnotatedField> getSequenceFields(Class<?> containerClass)
+            throws Asn1EncodingException {
+        List<AnnotatedField> fields = getAnnotatedFields(containerClass);
+        Collections.sort(
+                fields, (f1, f2) -> f1.getAnnotation().index() - f2.getAnnotation().index());
+        if (fields.size() > 1) {
+            AnnotatedField lastField = null;
+            for (AnnotatedField field : fields) {
+                if ((lastField != null)
+                        && (lastField.getAnnotation().index() == field.getAnnotation().index())) {
+                    throw new Asn1EncodingException(
+                            "Fields have the same index: " + containerClass.getName()
+                                    + "." + lastField.getField().getName()
+                                    + " and ." + field.getField().getName());
+                }
+                lastField = field;
+            }
+        }
+        return Collections.unmodifiableList(fields);
+    }
+
     private static byte[] toSetOf(Collection<?> values, Asn1Type elementType) throws Asn1EncodingException {
         return toSequenceOrSetOf(values, elementType, true);
     }
@@ -177,9 +211,8 @@ public final class Asn1DerEncoder {
                 serializedValues.toArray(new byte[0][]));
     }
 
-    private static List<AnnotatedField> getAnnotatedFields(Object container)
+    private static List<AnnotatedField> getAnnotatedFields(Class<?> containerClass)
             throws Asn1EncodingException {
-        Class<?> containerClass = container.getClass();
         Field[] declaredFields = containerClass.getDeclaredFields();
         List<AnnotatedField> result = new ArrayList<>(declaredFields.length);
         for (Field field : declaredFields) {
@@ -195,7 +228,7 @@ public final class Asn1DerEncoder {
 
             AnnotatedField annotatedField;
             try {
-                annotatedField = new AnnotatedField(container, field, annotation);
+                annotatedField = new AnnotatedField(field, annotation);
             } catch (Asn1EncodingException e) {
                 throw new Asn1EncodingException(
                         "Invalid ASN.1 annotation on "
@@ -300,16 +333,6 @@ public final class Asn1DerEncoder {
                 encodedValue.toByteArray());
     }
 
-    private static Object getMemberFieldValue(Object obj, Field field)
-            throws Asn1EncodingException {
-        try {
-            return field.get(obj);
-        } catch (ReflectiveOperationException e) {
-            throw new Asn1EncodingException(
-                    "Failed to read " + obj.getClass().getName() + "." + field.getName(), e);
-        }
-    }
-
     private static byte[] createTag(
             int tagClass, boolean constructed, int tagNumber, byte[]... contents) {
         if (tagNumber >= 0x1f) {
@@ -395,7 +418,7 @@ public final class Asn1DerEncoder {
 
     private static final class AnnotatedField {
         private final Field mField;
-        private final Object mObject;
+        private final MethodHandle mGetter;
         private final Asn1Field mAnnotation;
         private final Asn1Type mDataType;
         private final Asn1Type mElementDataType;
@@ -405,10 +428,20 @@ public final class Asn1DerEncoder {
         private final Asn1Tagging mTagging;
         private final boolean mOptional;
 
-        public AnnotatedField(Object obj, Field field, Asn1Field annotation)
+        public AnnotatedField(Field field, Asn1Field annotation)
                 throws Asn1EncodingException {
-            mObject = obj;
             mField = field;
+            MethodHandle getter;
+            try {
+                getter =
+                        MethodHandles.publicLookup()
+                                .unreflectGetter(field)
+                                .asType(MethodType.methodType(Object.class, Object.class));
+            } catch (IllegalAccessException e) {
+                // Not readable. getValue fails the same way as Field.get does.
+                getter = null;
+            }
+            mGetter = getter;
             mAnnotation = annotation;
             mDataType = annotation.type();
             mElementDataType = annotation.elementType();
@@ -452,8 +485,25 @@ public final class Asn1DerEncoder {
             return mAnnotation;
         }
 
-        public byte[] toDer() throws Asn1EncodingException {
-            Object fieldValue = getMemberFieldValue(mObject, mField);
+        public Object getValue(Object obj) throws Asn1EncodingException {
+            try {
+                if (mGetter == null) {
+                    return mField.get(obj);
+                }
+                return (Object) mGetter.invokeExact(obj);
+            } catch (ReflectiveOperationException e) {
+                throw new Asn1EncodingException(
+                        "Failed to read " + obj.getClass().getName() + "." + mField.getName(), e);
+            } catch (RuntimeException | Error e) {
+                throw e;
+            } catch (Throwable e) {
+                // Field getters do not throw checked exceptions
+                throw new RuntimeException(e);
+            }
+        }
+
+        public byte[] toDer(Object obj) throws Asn1EncodingException {
+            Object fieldValue = getValue(obj);
             if (fieldValue == null) {
                 if (mOptional) {
                     return null;
@@ -73,6 +73,20 @@ public class ManifestParser {
      * Returns the next section from this file or {@code null} if end of file has been reached.
      */
     public Section readSection() {
+        return readSection(false);
+    }
+
+    /**
+     * Returns the next section from this file or {@code null} if end of file has been reached.
+     * Only the name of the returned section is kept: its attributes are parsed again from this
+     * parser's input whenever they are requested. This keeps the memory needed for many sections
+     * low, at the expense of parsing the attributes of those sections which are inspected again.
+     */
+    public Section readSectionLazily() {
+        return readSection(true);
+    }
+
+    private Section readSection(boolean lazy) {
         // Locate the first non-empty line
         int sectionStartOffset;
         String attr;
@@ -93,15 +107,35 @@ public class ManifestParser {
                 // End of section
                 break;
             }
-            attrs.add(parseAttr(attr));
+            if (!lazy) {
+                attrs.add(parseAttr(attr));
+            }
         }
 
         int sectionEndOffset = mOffset;
         int sectionSizeBytes = sectionEndOffset - sectionStartOffset;
 
+        if (lazy) {
+            return new Section(
+                    mManifest, sectionStartOffset, sectionSizeBytes, getSectionName(attrs));
+        }
         return new Section(sectionStartOffset, sectionSizeBytes, attrs);
     }
 
+    /**
+     * Returns the name of the section with the provided attributes or {@code null} if the section
+     * is not named.
+     */
+    private static String getSectionName(List<Attribute> attrs) {
+        if (!attrs.isEmpty()) {
+            Attribute firstAttr = attrs.get(0);
+            if ("Name".equalsIgnoreCase(firstAttr.getName())) {
+                return firstAttr.getValue();
+            }
+        }
+        return null;
+    }
+
     /**
      * Returns the next attribute or empty {@code String} if end of section has been reached or
      * {@code null} if end of input has been reached.
@@ -269,6 +303,9 @@ public class ManifestParser {
         private final String mName;
         private final List<Attribute> mAttributes;
 
+        /** Input of lazily parsed sections, whose {@link #mAttributes} is {@code null}. */
+        private final byte[] mInput;
+
         /**
          * Constructs a new {@code Section}.
          *
@@ -279,15 +316,21 @@ public class ManifestParser {
         public Section(int startOffset, int sizeBytes, List<Attribute> attrs) {
             mStartOffset = startOffset;
             mSizeBytes = sizeBytes;
-            String sectionName = null;
-            if (!attrs.isEmpty()) {
-                Attribute firstAttr = attrs.get(0);
-                if ("Name".equalsIgnoreCase(firstAttr.getName())) {
-                    sectionName = firstAttr.getValue();
-                }
-            }
-            mName = sectionName;
+            mName = getSectionName(attrs);
             mAttributes = Collections.unmodifiableList(new ArrayList<>(attrs));
+            mInput = null;
+        }
+
+        /**
+         * Constructs a new {@code Section} whose attributes are parsed from the provided input
+         * whenever they are requested.
+         */
+        private Section(byte[] input, int startOffset, int sizeBytes, String name) {
+            mStartOffset = startOffset;
+            mSizeBytes = sizeBytes;
+            mName = name;
+            mAttributes = null;
+            mInput = input;
         }
 
         public String getName() {
@@ -308,10 +351,26 @@ public class ManifestParser {
             return mSizeBytes;
         }
 
+        /**
+         * Returns this section with its attributes parsed, for looking up several attributes: this
+         * section itself unless it was read with {@link ManifestParser#readSectionLazily()}.
+         */
+        public Section withAttributes() {
+            if (mAttributes == null) {
+                return new Section(mStartOffset, mSizeBytes, getAttributes());
+            }
+            return this;
+        }
+
         /**
          * Returns this section's attributes, in the order in which they appear in the input.
          */
         public List<Attribute> getAttributes() {
+            if (mAttributes == null) {
+                return new ManifestParser(mInput, mStartOffset, mSizeBytes)
+                        .readSection()
+                        .getAttributes();
+            }
             return mAttributes;
         }
 
@@ -330,7 +389,7 @@ public class ManifestParser {
          * @param name name of the attribute. Attribute names are case-insensitive.
          */
         public String getAttributeValue(String name) {
-            for (Attribute attr : mAttributes) {
+            for (Attribute attr : getAttributes()) {
                 if (attr.getName().equalsIgnoreCase(name)) {
                     return attr.getValue();
                 }
@@ -5,18 +5,39 @@ package com.android.apksig.internal.util;
 
 import com.android.apksig.util.DataSink;
 import com.android.apksig.util.DataSource;
+import com.android.apksig.util.RunnablesExecutors;
 
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
-
-
+import java.util.concurrent.ArrayBlockingQueue;
+
+
+/**
+ * {@link DataSource} backed by a {@link FileChannel}.
+ *
+ * <p>Data is read using positional {@link FileChannel#read(ByteBuffer, long) FileChannel.read}
+ * calls, which neither depend on nor change the channel's position. Thus, no lock is held while
+ * reading, and multiple threads can read different chunks of the same file concurrently.
+ * {@link #feed(long, long, DataSink) feed} reads into direct buffers taken from a small pool shared
+ * by all instances.
+ */
 public class FileChannelDataSource implements DataSource {
 
     private static final int MAX_READ_CHUNK_SIZE = 1024 * 1024;
 
+    /**
+     * Idle direct buffers of {@link #MAX_READ_CHUNK_SIZE} bytes used by {@code feed}. A buffer is
+     * taken out of the pool while in use, so that a sink which itself reads from a
+     * {@code FileChannelDataSource} gets a buffer of its own. The pool holds at most as many
+     * buffers as the default executor runs in parallel; buffers returned to a full pool are left
+     * to the garbage collector. Thus, long-lived worker threads do not each pin a buffer.
+     */
+    private static final ArrayBlockingQueue<ByteBuffer> READ_BUFFER_POOL =
+            new ArrayBlockingQueue<>(RunnablesExecutors.defaultParallelism());
+
     private final FileChannel mChannel;
     private final long mOffset;
     private final long mSize;
@@ -108,27 +129,24 @@ public class FileChannelDataSource implements DataSource {
 
         long chunkOffsetInFile = mOffset + offset;
         long remaining = size;
-        ByteBuffer buf = ByteBuffer.allocateDirect((int) Math.min(remaining, MAX_READ_CHUNK_SIZE));
-
-        while (remaining > 0) {
-            int chunkSize = (int) Math.min(remaining, buf.capacity());
-            int chunkRemaining = chunkSize;
-            buf.limit(chunkSize);
-            synchronized (mChannel) {
-                mChannel.position(chunkOffsetInFile);
-                while (chunkRemaining > 0) {
-                    int read = mChannel.read(buf);
-                    if (read < 0) {
-                        throw new IOException("Unexpected EOF encountered");
-                    }
-                    chunkRemaining -= read;
-                }
+        ByteBuffer buf = READ_BUFFER_POOL.poll();
+        if (buf == null) {
+            buf = ByteBuffer.allocateDirect(MAX_READ_CHUNK_SIZE);
+        }
+        try {
+            while (remaining > 0) {
+                int chunkSize = (int) Math.min(remaining, buf.capacity());
+                buf.clear();
+                buf.limit(chunkSize);
+                readFully(chunkOffsetInFile, buf);
+                buf.flip();
+                sink.consume(buf);
+                chunkOffsetInFile += chunkSize;
+                remaining -= chunkSize;
             }
-            buf.flip();
-            sink.consume(buf);
+        } finally {
             buf.clear();
-            chunkOffsetInFile += chunkSize;
-            remaining -= chunkSize;
+            READ_BUFFER_POOL.offer(buf);
         }
     }
 
@@ -144,21 +162,12 @@ public class FileChannelDataSource implements DataSource {
         }
 
         long offsetInFile = mOffset + offset;
-        int remaining = size;
         int prevLimit = dest.limit();
         try {
-            // FileChannel.read(ByteBuffer) reads up to dest.remaining(). Thus, we need to adjust
-            // the buffer's limit to avoid reading more than size bytes.
+            // FileChannel.read(ByteBuffer, long) reads up to dest.remaining(). Thus, we need to
+            // adjust the buffer's limit to avoid reading more than size bytes.
             dest.limit(dest.position() + size);
-            while (remaining > 0) {
-                int chunkSize;
-                synchronized (mChannel) {
-                    mChannel.position(offsetInFile);
-                    chunkSize = mChannel.read(dest);
-                }
-                offsetInFile += chunkSize;
-                remaining -= chunkSize;
-            }
+            readFully(offsetInFile, dest);
         } finally {
             dest.limit(prevLimit);
         }
@@ -174,4 +183,17 @@ public class FileChannelDataSource implements DataSource {
         result.flip();
         return result;
     }
+
+    /**
+     * Reads from the file, starting at the provided offset, until the buffer is full.
+     */
+    private void readFully(long offsetInFile, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            int read = mChannel.read(buf, offsetInFile);
+            if (read < 0) {
+                throw new IOException("Unexpected EOF encountered");
+            }
+            offsetInFile += read;
+        }
+    }
 }
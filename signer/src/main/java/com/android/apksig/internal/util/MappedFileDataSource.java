@@ -0,0 +1,167 @@
+package com.android.apksig.internal.util;
+
+import com.android.apksig.util.DataSink;
+import com.android.apksig.util.DataSource;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * {@link DataSource} backed by a region of a file which is mapped into memory.
+ *
+ * <p>The region is mapped as a sequence of read-only windows of up to {@link #MAX_WINDOW_SIZE}
+ * bytes. {@link #feed(long, long, DataSink) feed} hands slices of the windows to the sink, without
+ * copying the data, and no locks are taken, which makes instances of this class suitable for
+ * reading different chunks of the file concurrently.
+ *
+ * <p>Changes to the contents of the file will be visible in this data source, but the size of the
+ * data source is fixed when it is constructed.
+ */
+public class MappedFileDataSource implements DataSource {
+
+    private static final int MAX_WINDOW_SIZE = 256 * 1024 * 1024;
+
+    private final ByteBuffer[] mWindows;
+    private final long mOffset;
+    private final long mSize;
+
+    private MappedFileDataSource(ByteBuffer[] windows, long offset, long size) {
+        mWindows = windows;
+        mOffset = offset;
+        mSize = size;
+    }
+
+    /**
+     * Maps the specified region of the provided file into memory.
+     *
+     * @throws IndexOutOfBoundsException if {@code offset} or {@code size} is negative.
+     * @throws IOException if the region cannot be mapped, e.g., because the process has run out of
+     *         address space
+     */
+    public static MappedFileDataSource map(FileChannel channel, long offset, long size)
+            throws IOException {
+        if (offset < 0) {
+            throw new IndexOutOfBoundsException("offset: " + offset);
+        }
+        if (size < 0) {
+            throw new IndexOutOfBoundsException("size: " + size);
+        }
+        int windowCount = (int) ((size + MAX_WINDOW_SIZE - 1) / MAX_WINDOW_SIZE);
+        ByteBuffer[] windows = new ByteBuffer[windowCount];
+        for (int i = 0; i < windowCount; i++) {
+            long windowOffset = (long) i * MAX_WINDOW_SIZE;
+            windows[i] =
+                    channel.map(
+                            FileChannel.MapMode.READ_ONLY,
+                            offset + windowOffset,
+                            Math.min(size - windowOffset, MAX_WINDOW_SIZE));
+        }
+        return new MappedFileDataSource(windows, 0, size);
+    }
+
+    @Override
+    public long size() {
+        return mSize;
+    }
+
+    @Override
+    public MappedFileDataSource slice(long offset, long size) {
+        checkChunkValid(offset, size);
+        if ((offset == 0) && (size == mSize)) {
+            return this;
+        }
+        return new MappedFileDataSource(mWindows, mOffset + offset, size);
+    }
+
+    @Override
+    public void feed(long offset, long size, DataSink sink) throws IOException {
+        checkChunkValid(offset, size);
+        if (size == 0) {
+            return;
+        }
+        long chunkOffset = mOffset + offset;
+        long remaining = size;
+        while (remaining > 0) {
+            int windowIndex = (int) (chunkOffset / MAX_WINDOW_SIZE);
+            int offsetInWindow = (int) (chunkOffset % MAX_WINDOW_SIZE);
+            ByteBuffer window = mWindows[windowIndex];
+            int chunkSize = (int) Math.min(remaining, window.capacity() - offsetInWindow);
+            sink.consume(slice(window, offsetInWindow, chunkSize));
+            chunkOffset += chunkSize;
+            remaining -= chunkSize;
+        }
+    }
+
+    @Override
+    public void copyTo(long offset, int size, ByteBuffer dest) throws IOException {
+        checkChunkValid(offset, size);
+        if (size == 0) {
+            return;
+        }
+        if (size > dest.remaining()) {
+            throw new BufferOverflowException();
+        }
+        long chunkOffset = mOffset + offset;
+        int remaining = size;
+        while (remaining > 0) {
+            int windowIndex = (int) (chunkOffset / MAX_WINDOW_SIZE);
+            int offsetInWindow = (int) (chunkOffset % MAX_WINDOW_SIZE);
+            ByteBuffer window = mWindows[windowIndex];
+            int chunkSize = Math.min(remaining, window.capacity() - offsetInWindow);
+            dest.put(slice(window, offsetInWindow, chunkSize));
+            chunkOffset += chunkSize;
+            remaining -= chunkSize;
+        }
+    }
+
+    /**
+     * Returns a copy of the chunk, because callers are free to modify the returned buffer whereas
+     * the windows are read-only.
+     */
+    @Override
+    public ByteBuffer getByteBuffer(long offset, int size) throws IOException {
+        if (size < 0) {
+            throw new IndexOutOfBoundsException("size: " + size);
+        }
+        ByteBuffer result = ByteBuffer.allocate(size);
+        copyTo(offset, size, result);
+        result.flip();
+        return result;
+    }
+
+    /**
+     * Returns a slice of the window. The window itself is not modified, so that slices can be
+     * created concurrently without locking.
+     */
+    private static ByteBuffer slice(ByteBuffer window, int offset, int size) {
+        ByteBuffer slice = window.duplicate();
+        slice.limit(offset + size);
+        slice.position(offset);
+        return slice.slice();
+    }
+
+    private void checkChunkValid(long offset, long size) {
+        if (offset < 0) {
+            throw new IndexOutOfBoundsException("offset: " + offset);
+        }
+        if (size < 0) {
+            throw new IndexOutOfBoundsException("size: " + size);
+        }
+        if (offset > mSize) {
+            throw new IndexOutOfBoundsException(
+                    "offset (" + offset + ") > source size (" + mSize + ")");
+        }
+        long endOffset = offset + size;
+        if (endOffset < offset) {
+            throw new IndexOutOfBoundsException(
+                    "offset (" + offset + ") + size (" + size + ") overflow");
+        }
+        if (endOffset > mSize) {
+            throw new IndexOutOfBoundsException(
+                    "offset (" + offset + ") + size (" + size
+                            + ") > source size (" + mSize + ")");
+        }
+    }
+}
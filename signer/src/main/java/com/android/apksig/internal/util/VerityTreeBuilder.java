@@ -3,12 +3,10 @@
 
 package com.android.apksig.internal.util;
 
-import static java.util.concurrent.TimeUnit.MILLISECONDS;
-
 import com.android.apksig.internal.zip.ZipUtils;
-import com.android.apksig.util.DataSink;
 import com.android.apksig.util.DataSource;
 import com.android.apksig.util.DataSources;
+import com.android.apksig.util.RunnablesExecutor;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
@@ -16,10 +14,9 @@ import java.nio.ByteOrder;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Phaser;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.Arrays;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 public class VerityTreeBuilder implements AutoCloseable {
@@ -28,23 +25,10 @@ public class VerityTreeBuilder implements AutoCloseable {
      * Maximum size (in bytes) of each node of the tree.
      */
     private final static int CHUNK_SIZE = 4096;
-    /**
-     * Maximum parallelism while calculating digests.
-     */
-    private final static int DIGEST_PARALLELISM = Math.min(32,
-            Runtime.getRuntime().availableProcessors());
-    /**
-     * Queue size.
-     */
-    private final static int MAX_OUTSTANDING_CHUNKS = 4;
     /**
      * Typical prefetch size.
      */
     private final static int MAX_PREFETCH_CHUNKS = 1024;
-    /**
-     * Minimum chunks to be processed by a single worker task.
-     */
-    private final static int MIN_CHUNKS_PER_WORKER = 8;
 
     /**
      * Digest algorithm (JCA Digest algorithm name) used in the tree.
@@ -58,15 +42,37 @@ public class VerityTreeBuilder implements AutoCloseable {
 
     private final MessageDigest mMd;
 
-    private final ExecutorService mExecutor =
-            new ThreadPoolExecutor(DIGEST_PARALLELISM, DIGEST_PARALLELISM,
-                    0L, MILLISECONDS,
-                    new ArrayBlockingQueue<>(MAX_OUTSTANDING_CHUNKS),
-                    new ThreadPoolExecutor.CallerRunsPolicy());
+    private final RunnablesExecutor mExecutor;
 
+    /**
+     * Maximum number of bytes of input held in memory by all workers together.
+     */
+    private final long mBufferBudget;
+
+    /**
+     * Creates a builder which digests on the process-wide shared executor
+     * ({@link RunnablesExecutor#MULTI_THREADED}).
+     */
     public VerityTreeBuilder(byte[] salt) throws NoSuchAlgorithmException {
+        this(salt, RunnablesExecutor.MULTI_THREADED);
+    }
+
+    public VerityTreeBuilder(byte[] salt, RunnablesExecutor executor)
+            throws NoSuchAlgorithmException {
+        this(salt, executor, Long.MAX_VALUE);
+    }
+
+    /**
+     * Creates a builder whose workers together hold at most {@code bufferBudget} bytes of input in
+     * memory, but no less than one chunk of 4 KB. Workers beyond the budget do not take part in
+     * digesting.
+     */
+    public VerityTreeBuilder(byte[] salt, RunnablesExecutor executor, long bufferBudget)
+            throws NoSuchAlgorithmException {
         mSalt = salt;
         mMd = getNewMessageDigest();
+        mExecutor = executor;
+        mBufferBudget = bufferBudget;
     }
 
     /**
@@ -124,9 +130,11 @@ public class VerityTreeBuilder implements AutoCloseable {
         return MessageDigest.getInstance(JCA_ALGORITHM);
     }
 
+    /**
+     * The executor is not owned by this builder, so there is nothing to release.
+     */
     @Override
     public void close() {
-        mExecutor.shutdownNow();
     }
 
     /**
@@ -165,8 +173,29 @@ public class VerityTreeBuilder implements AutoCloseable {
         return getRootHashFromTree(verityBuffer);
     }
 
+    /**
+     * Returns the size of the verity tree of data of the provided size.
+     */
+    public int getVerityTreeSize(long dataSize) {
+        int[] levelOffset = calculateLevelOffset(dataSize, mMd.getDigestLength());
+        return levelOffset[levelOffset.length - 1];
+    }
+
     /**
      * Returns the byte buffer that contains the whole verity tree.
+     *
+     * @see #generateVerityTree(DataSource, ByteBuffer)
+     */
+    public ByteBuffer generateVerityTree(DataSource fileSource) throws IOException {
+        ByteBuffer verityBuffer = ByteBuffer.allocate(getVerityTreeSize(fileSource.size()));
+        generateVerityTree(fileSource, verityBuffer);
+        return verityBuffer;
+    }
+
+    /**
+     * Builds the whole verity tree into the provided buffer, starting at its position. The buffer
+     * must have exactly {@link #getVerityTreeSize(long)} bytes remaining. Its position is not
+     * changed.
      * <p>
      * The tree is built bottom up. The bottom level has 256-bit digest for each 4 KB block in the
      * input file.  If the total size is larger than 4 KB, take this level as input and repeat the
@@ -175,41 +204,36 @@ public class VerityTreeBuilder implements AutoCloseable {
      * <p>
      * The returned root hash is calculated from the last level of 4 KB chunk, similarly with salt.
      * <p>
-     * The tree is currently stored only in memory and is never written out.  Nevertheless, it is
-     * the actual verity tree format on disk, and is supposed to be re-generated on device.
+     * The buffer may be a memory-mapped file, in which case building the tree takes no more heap
+     * than the buffer budget, whatever the size of the input. The tree is the actual verity tree
+     * format on disk, and is supposed to be re-generated on device.
      */
-    public ByteBuffer generateVerityTree(DataSource fileSource) throws IOException {
+    public void generateVerityTree(DataSource fileSource, ByteBuffer verityBuffer)
+            throws IOException {
         int digestSize = mMd.getDigestLength();
 
         // Calculate the summed area table of level size. In other word, this is the offset
         // table of each level, plus the next non-existing level.
         int[] levelOffset = calculateLevelOffset(fileSource.size(), digestSize);
-
-        ByteBuffer verityBuffer = ByteBuffer.allocate(levelOffset[levelOffset.length - 1]);
+        if (verityBuffer.remaining() != levelOffset[levelOffset.length - 1]) {
+            throw new IllegalArgumentException(
+                    "Verity tree size: " + levelOffset[levelOffset.length - 1]
+                            + ", buffer remaining: " + verityBuffer.remaining());
+        }
+        ByteBuffer tree = verityBuffer.slice();
 
         // Generate the hash tree bottom-up.
         for (int i = levelOffset.length - 2; i >= 0; i--) {
-            DataSink middleBufferSink = new ByteBufferSink(
-                    slice(verityBuffer, levelOffset[i], levelOffset[i + 1]));
             DataSource src;
             if (i == levelOffset.length - 2) {
                 src = fileSource;
-                digestDataByChunks(src, middleBufferSink);
             } else {
-                src = DataSources.asDataSource(slice(verityBuffer.asReadOnlyBuffer(),
+                src = DataSources.asDataSource(slice(tree.asReadOnlyBuffer(),
                         levelOffset[i + 1], levelOffset[i + 2]));
-                digestDataByChunks(src, middleBufferSink);
-            }
-
-            // If the output is not full chunk, pad with 0s.
-            long totalOutput = divideRoundup(src.size(), CHUNK_SIZE) * digestSize;
-            int incomplete = (int) (totalOutput % CHUNK_SIZE);
-            if (incomplete > 0) {
-                byte[] padding = new byte[CHUNK_SIZE - incomplete];
-                middleBufferSink.consume(padding, 0, padding.length);
             }
+            // Pads the level with 0s if the output is not full chunk.
+            digestDataByChunks(src, slice(tree, levelOffset[i], levelOffset[i + 1]));
         }
-        return verityBuffer;
     }
 
     /**
@@ -221,60 +245,86 @@ public class VerityTreeBuilder implements AutoCloseable {
     }
 
     /**
-     * Digest data source by chunks then feeds them to the sink one by one.  If the last unit is
-     * less than the chunk size and padding is desired, feed with extra padding 0 to fill up the
-     * chunk before digesting.
+     * Digests data source by chunks and writes the digests to the output buffer, in order. If the
+     * last unit is less than the chunk size, it is padded with 0s to fill up the chunk before
+     * digesting. The rest of the output buffer is filled with 0s.
      */
-    private void digestDataByChunks(DataSource dataSource, DataSink dataSink) throws IOException {
+    private void digestDataByChunks(DataSource dataSource, ByteBuffer output) throws IOException {
         final long size = dataSource.size();
         final int chunks = (int) divideRoundup(size, CHUNK_SIZE);
+        final int digestSize = mMd.getDigestLength();
 
         /** Single IO operation size, in chunks. */
-        final int ioSizeChunks = MAX_PREFETCH_CHUNKS;
-
-        final byte[][] hashes = new byte[chunks][];
-
-        Phaser tasks = new Phaser(1);
-
-        // Reading the input file as fast as we can.
-        final long maxReadSize = ioSizeChunks * CHUNK_SIZE;
-
-        long readOffset = 0;
-        int startChunkIndex = 0;
-        while (readOffset < size) {
-            final long readLimit = Math.min(readOffset + maxReadSize, size);
-            final int readSize = (int) (readLimit - readOffset);
-            final int bufferSizeChunks = (int) divideRoundup(readSize, CHUNK_SIZE);
-
-            // Overllocating to zero-pad last chunk.
-            // With 4MiB block size, 32 threads and 4 queue size we might allocate up to 144MiB.
-            final ByteBuffer buffer = ByteBuffer.allocate(bufferSizeChunks * CHUNK_SIZE);
-            dataSource.copyTo(readOffset, readSize, buffer);
-            buffer.rewind();
-
-            final int readChunkIndex = startChunkIndex;
-            Runnable task = () -> {
-                final MessageDigest md = cloneMessageDigest();
-                for (int offset = 0, finish = buffer.capacity(), chunkIndex = readChunkIndex;
-                     offset < finish; offset += CHUNK_SIZE, ++chunkIndex) {
-                    ByteBuffer chunk = slice(buffer, offset, offset + CHUNK_SIZE);
-                    hashes[chunkIndex] = saltedDigest(md, chunk);
+        final int ioSizeChunks =
+                (int) Math.max(1, Math.min(MAX_PREFETCH_CHUNKS, mBufferBudget / CHUNK_SIZE));
+        final int maxReadSize = ioSizeChunks * CHUNK_SIZE;
+        final int batches = (int) divideRoundup(size, maxReadSize);
+        // Levels smaller than one batch need no more than their padded size.
+        final int bufferSize = (int) Math.min(maxReadSize, (long) chunks * CHUNK_SIZE);
+
+        // Each worker claims the next batch, reads it into its own buffer and digests its chunks
+        // straight into the output, so at most one batch per worker is held in memory. Workers
+        // which find the budget used up by other workers leave all batches to them, and workers
+        // which find no batch left allocate no buffer.
+        final Semaphore buffers =
+                new Semaphore((int) Math.max(1, Math.min(Integer.MAX_VALUE,
+                        mBufferBudget / Math.max(1, bufferSize))));
+        final AtomicInteger nextBatch = new AtomicInteger();
+        try {
+            mExecutor.execute(() -> () -> {
+                if (!buffers.tryAcquire()) {
+                    return;
                 }
-                tasks.arriveAndDeregister();
-            };
-            tasks.register();
-            mExecutor.execute(task);
-
-            startChunkIndex += bufferSizeChunks;
-            readOffset += readSize;
+                try {
+                    MessageDigest md = null;
+                    ByteBuffer buffer = null;
+                    final ByteBuffer out = output.duplicate();
+                    int batch;
+                    while ((batch = nextBatch.getAndIncrement()) < batches) {
+                        if (buffer == null) {
+                            md = cloneMessageDigest();
+                            buffer = ByteBuffer.allocate(bufferSize);
+                        }
+                        final long readOffset = (long) batch * maxReadSize;
+                        final int readSize = (int) Math.min(maxReadSize, size - readOffset);
+                        final int paddedSize =
+                                (int) divideRoundup(readSize, CHUNK_SIZE) * CHUNK_SIZE;
+                        buffer.clear();
+                        try {
+                            dataSource.copyTo(readOffset, readSize, buffer);
+                        } catch (IOException e) {
+                            throw new IllegalStateException("Failed to read chunk", e);
+                        }
+                        // Zero-pad last chunk.
+                        Arrays.fill(buffer.array(), readSize, paddedSize, (byte) 0);
+
+                        out.position(batch * ioSizeChunks * digestSize);
+                        for (int offset = 0; offset < paddedSize; offset += CHUNK_SIZE) {
+                            ByteBuffer chunk = slice(buffer, offset, offset + CHUNK_SIZE);
+                            out.put(saltedDigest(md, chunk));
+                        }
+                    }
+                } finally {
+                    buffers.release();
+                }
+            });
+        } catch (IllegalStateException e) {
+            // Executors may wrap the exception thrown by a worker, thus look for the read failure
+            // anywhere in the chain of causes.
+            for (Throwable cause = e.getCause(); cause != null; cause = cause.getCause()) {
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+            }
+            throw e;
         }
 
-        // Waiting for the tasks to complete.
-        tasks.arriveAndAwaitAdvance();
-
-        // Streaming hashes back.
-        for (byte[] hash : hashes) {
-            dataSink.consume(hash, 0, hash.length);
+        // Pad the output with 0s, as it may not be freshly allocated.
+        ByteBuffer padding = output.duplicate();
+        padding.position(chunks * digestSize);
+        byte[] zeros = new byte[Math.min(padding.remaining(), CHUNK_SIZE)];
+        while (padding.hasRemaining()) {
+            padding.put(zeros, 0, Math.min(zeros.length, padding.remaining()));
         }
     }
 
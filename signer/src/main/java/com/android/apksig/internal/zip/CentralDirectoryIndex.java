@@ -0,0 +1,100 @@
+package com.android.apksig.internal.zip;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Index of the records of a ZIP Central Directory, built once after the Central Directory is
+ * parsed. Looking up a record by name takes constant time and the records are also available in
+ * the order of their Local File Headers in the archive, so that signing and verification do not
+ * have to search or sort the list of records for every lookup.
+ *
+ * <p>Instances of this class are immutable and thus may be shared between threads.
+ */
+public class CentralDirectoryIndex {
+
+    private final List<CentralDirectoryRecord> mRecords;
+    private final List<CentralDirectoryRecord> mRecordsSortedByLocalFileHeaderOffset;
+    private final Map<String, CentralDirectoryRecord> mRecordsByName;
+    private final Set<String> mDuplicateNames;
+
+    /**
+     * Constructs a new index of the provided records, listed in the order in which they appear in
+     * the Central Directory.
+     */
+    public CentralDirectoryIndex(List<CentralDirectoryRecord> records) {
+        CentralDirectoryRecord[] recordsArray =
+                records.toArray(new CentralDirectoryRecord[records.size()]);
+        Map<String, CentralDirectoryRecord> recordsByName = new HashMap<>(recordsArray.length * 2);
+        Set<String> duplicateNames = null;
+        for (CentralDirectoryRecord record : recordsArray) {
+            String name = record.getName();
+            if (recordsByName.putIfAbsent(name, record) != null) {
+                if (duplicateNames == null) {
+                    duplicateNames = new LinkedHashSet<>();
+                }
+                duplicateNames.add(name);
+            }
+        }
+        mRecords = Collections.unmodifiableList(Arrays.asList(recordsArray.clone()));
+        // Arrays.sort is stable, thus records with the same Local File Header offset stay in
+        // Central Directory order.
+        Arrays.sort(recordsArray, CentralDirectoryRecord.BY_LOCAL_FILE_HEADER_OFFSET_COMPARATOR);
+        mRecordsSortedByLocalFileHeaderOffset =
+                Collections.unmodifiableList(Arrays.asList(recordsArray));
+        mRecordsByName = recordsByName;
+        mDuplicateNames =
+                (duplicateNames != null)
+                        ? Collections.unmodifiableSet(duplicateNames)
+                        : Collections.<String>emptySet();
+    }
+
+    /**
+     * Returns the number of records, including records with duplicate names.
+     */
+    public int size() {
+        return mRecords.size();
+    }
+
+    /**
+     * Returns all records in the order in which they appear in the Central Directory.
+     */
+    public List<CentralDirectoryRecord> getRecords() {
+        return mRecords;
+    }
+
+    /**
+     * Returns all records in the order in which their Local File Headers appear in the archive.
+     */
+    public List<CentralDirectoryRecord> getRecordsSortedByLocalFileHeaderOffset() {
+        return mRecordsSortedByLocalFileHeaderOffset;
+    }
+
+    /**
+     * Returns the first record with the provided name in the Central Directory or {@code null} if
+     * there is no such record.
+     */
+    public CentralDirectoryRecord findRecord(String name) {
+        return mRecordsByName.get(name);
+    }
+
+    /**
+     * Returns the names of all records.
+     */
+    public Set<String> getNames() {
+        return Collections.unmodifiableSet(mRecordsByName.keySet());
+    }
+
+    /**
+     * Returns the names which appear more than once in the Central Directory, in the order in which
+     * their second occurrences appear in it.
+     */
+    public Set<String> getDuplicateNames() {
+        return mDuplicateNames;
+    }
+}
@@ -0,0 +1,164 @@
+package com.android.apksig.internal.zip;
+
+import com.android.apksig.util.DataSink;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * {@link DataSink} which deflates received data, as stored in ZIP entries with the DEFLATED
+ * compression method, and outputs the deflated data into the provided delegate sink as it is
+ * produced. The CRC-32 and size of the received data are computed along the way.
+ *
+ * <p>{@link Deflater}s are taken from a process-wide pool and returned to it by {@link #finish()}
+ * or {@link #close()}, so that deflating many entries does not allocate a new native deflater
+ * for each of them.
+ */
+public class DeflatingDataSink implements DataSink, Closeable {
+
+    /** Maximum number of idle deflaters kept in the pool. */
+    private static final int MAX_POOLED_DEFLATERS = 8;
+
+    private static final ConcurrentLinkedQueue<Deflater> sDeflaterPool =
+            new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger sPooledDeflaterCount = new AtomicInteger();
+
+    private final DataSink mDelegate;
+    private final CRC32 mCrc32 = new CRC32();
+
+    private Deflater mDeflater;
+    private byte[] mOutputBuffer;
+    private byte[] mInputBuffer;
+    private long mInputByteCount;
+    private long mOutputByteCount;
+    private boolean mFinished;
+
+    /**
+     * Constructs a new {@code DeflatingDataSink} which deflates with the best compression, like
+     * {@link ZipUtils#deflate(ByteBuffer)}.
+     */
+    public DeflatingDataSink(DataSink delegate) {
+        mDelegate = delegate;
+        mDeflater = obtainDeflater();
+    }
+
+    @Override
+    public void consume(byte[] buf, int offset, int length) throws IOException {
+        checkNotFinished();
+        mCrc32.update(buf, offset, length);
+        mInputByteCount += length;
+        mDeflater.setInput(buf, offset, length);
+        while (!mDeflater.needsInput()) {
+            deflateChunk();
+        }
+    }
+
+    @Override
+    public void consume(ByteBuffer buf) throws IOException {
+        checkNotFinished();
+        if (buf.hasArray()) {
+            consume(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+            buf.position(buf.limit());
+        } else {
+            if (mInputBuffer == null) {
+                mInputBuffer = new byte[65536];
+            }
+            while (buf.hasRemaining()) {
+                int chunkSize = Math.min(buf.remaining(), mInputBuffer.length);
+                buf.get(mInputBuffer, 0, chunkSize);
+                consume(mInputBuffer, 0, chunkSize);
+            }
+        }
+    }
+
+    /**
+     * Outputs the rest of the deflated data into the delegate sink and returns the deflater to
+     * the pool. No more data may be consumed afterwards.
+     */
+    public void finish() throws IOException {
+        checkNotFinished();
+        mDeflater.finish();
+        while (!mDeflater.finished()) {
+            deflateChunk();
+        }
+        mFinished = true;
+        releaseDeflater();
+    }
+
+    /**
+     * Returns the number of bytes received so far.
+     */
+    public long getInputByteCount() {
+        return mInputByteCount;
+    }
+
+    /**
+     * Returns the CRC-32 of the data received so far.
+     */
+    public long getInputCrc32() {
+        return mCrc32.getValue();
+    }
+
+    /**
+     * Returns the number of deflated bytes output into the delegate sink so far.
+     */
+    public long getOutputByteCount() {
+        return mOutputByteCount;
+    }
+
+    /**
+     * Returns the deflater to the pool without finishing the deflated data, unless
+     * {@link #finish()} has been invoked already.
+     */
+    @Override
+    public void close() {
+        mFinished = true;
+        releaseDeflater();
+    }
+
+    private void deflateChunk() throws IOException {
+        if (mOutputBuffer == null) {
+            mOutputBuffer = new byte[65536];
+        }
+        int outputChunkSize = mDeflater.deflate(mOutputBuffer);
+        if (outputChunkSize > 0) {
+            mDelegate.consume(mOutputBuffer, 0, outputChunkSize);
+            mOutputByteCount += outputChunkSize;
+        }
+    }
+
+    private void checkNotFinished() {
+        if (mFinished) {
+            throw new IllegalStateException("Already finished");
+        }
+    }
+
+    private void releaseDeflater() {
+        if (mDeflater == null) {
+            return;
+        }
+        Deflater deflater = mDeflater;
+        mDeflater = null;
+        deflater.reset();
+        if (sPooledDeflaterCount.incrementAndGet() <= MAX_POOLED_DEFLATERS) {
+            sDeflaterPool.offer(deflater);
+        } else {
+            sPooledDeflaterCount.decrementAndGet();
+            deflater.end();
+        }
+    }
+
+    private static Deflater obtainDeflater() {
+        Deflater deflater = sDeflaterPool.poll();
+        if (deflater == null) {
+            return new Deflater(9, true);
+        }
+        sPooledDeflaterCount.decrementAndGet();
+        return deflater;
+    }
+}
@@ -6,6 +6,7 @@ package com.android.apksig.internal.zip;
 import com.android.apksig.internal.util.ByteBufferSink;
 import com.android.apksig.util.DataSink;
 import com.android.apksig.util.DataSource;
+import com.android.apksig.util.DataSources;
 import com.android.apksig.zip.ZipFormatException;
 
 import java.io.Closeable;
@@ -253,6 +254,28 @@ public class LocalFileRecord {
             long crc32,
             long uncompressedSize,
             DataSink output) throws IOException {
+        return outputRecordWithDeflateCompressedData(
+                name,
+                lastModifiedTime,
+                lastModifiedDate,
+                DataSources.asDataSource(ByteBuffer.wrap(compressedData)),
+                crc32,
+                uncompressedSize,
+                output);
+    }
+
+    /**
+     * Outputs the specified Local File Header record with its data, read from the provided data
+     * source, and returns the number of bytes output.
+     */
+    public static long outputRecordWithDeflateCompressedData(
+            String name,
+            int lastModifiedTime,
+            int lastModifiedDate,
+            DataSource compressedData,
+            long crc32,
+            long uncompressedSize,
+            DataSink output) throws IOException {
         byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
         int recordSize = HEADER_SIZE_BYTES + nameBytes.length;
         ByteBuffer result = ByteBuffer.allocate(recordSize);
@@ -264,7 +287,7 @@ public class LocalFileRecord {
         ZipUtils.putUnsignedInt16(result, lastModifiedTime);
         ZipUtils.putUnsignedInt16(result, lastModifiedDate);
         ZipUtils.putUnsignedInt32(result, crc32);
-        ZipUtils.putUnsignedInt32(result, compressedData.length);
+        ZipUtils.putUnsignedInt32(result, compressedData.size());
         ZipUtils.putUnsignedInt32(result, uncompressedSize);
         ZipUtils.putUnsignedInt16(result, nameBytes.length);
         ZipUtils.putUnsignedInt16(result, 0); // Extra field length
@@ -276,8 +299,8 @@ public class LocalFileRecord {
 
         long outputByteCount = result.remaining();
         output.consume(result);
-        outputByteCount += compressedData.length;
-        output.consume(compressedData, 0, compressedData.length);
+        outputByteCount += compressedData.size();
+        compressedData.feed(0, compressedData.size(), output);
         return outputByteCount;
     }
 
@@ -305,6 +328,29 @@ public class LocalFileRecord {
         lfhRecord.outputUncompressedData(source, sink);
     }
 
+    /**
+     * Sends uncompressed data pointed to by the provided ZIP Central Directory (CD) record into the
+     * provided data sink, inflating with the provided {@code inflater} (created with
+     * {@code nowrap == true}) instead of a new one. The inflater is reset before use and is not
+     * ended, so that it can be reused for other entries.
+     */
+    public static void outputUncompressedData(
+            DataSource source,
+            CentralDirectoryRecord cdRecord,
+            long cdStartOffsetInArchive,
+            DataSink sink,
+            Inflater inflater) throws ZipFormatException, IOException {
+        LocalFileRecord lfhRecord =
+                getRecord(
+                        source,
+                        cdRecord,
+                        cdStartOffsetInArchive,
+                        false, // don't care about the extra field
+                        false // don't read the Data Descriptor
+                );
+        lfhRecord.outputUncompressedData(source, sink, inflater);
+    }
+
     /**
      * Returns the uncompressed data pointed to by the provided ZIP Central Directory (CD) record.
      */
@@ -403,10 +449,21 @@ public class LocalFileRecord {
     public void outputUncompressedData(
             DataSource lfhSection,
             DataSink sink) throws IOException, ZipFormatException {
+        outputUncompressedData(lfhSection, sink, null);
+    }
+
+    /**
+     * Sends uncompressed data of this record into the the provided data sink, inflating with the
+     * provided reusable {@code inflater}, or with a new one if {@code inflater} is {@code null}.
+     */
+    public void outputUncompressedData(
+            DataSource lfhSection,
+            DataSink sink,
+            Inflater inflater) throws IOException, ZipFormatException {
         long dataStartOffsetInArchive = mStartOffsetInArchive + mDataStartOffset;
         try {
             if (mDataCompressed) {
-                try (InflateSinkAdapter inflateAdapter = new InflateSinkAdapter(sink)) {
+                try (InflateSinkAdapter inflateAdapter = new InflateSinkAdapter(sink, inflater)) {
                     lfhSection.feed(dataStartOffsetInArchive, mDataSize, inflateAdapter);
                     long actualUncompressedSize = inflateAdapter.getOutputByteCount();
                     if (actualUncompressedSize != mUncompressedDataSize) {
@@ -443,14 +500,26 @@ public class LocalFileRecord {
     private static class InflateSinkAdapter implements DataSink, Closeable {
         private final DataSink mDelegate;
 
-        private Inflater mInflater = new Inflater(true);
+        private final boolean mInflaterOwned;
+        private Inflater mInflater;
         private byte[] mOutputBuffer;
         private byte[] mInputBuffer;
         private long mOutputByteCount;
         private boolean mClosed;
 
-        private InflateSinkAdapter(DataSink delegate) {
+        /**
+         * @param inflater reusable inflater which is reset but not ended by this adapter, or
+         *                 {@code null} to use a new inflater owned by this adapter
+         */
+        private InflateSinkAdapter(DataSink delegate, Inflater inflater) {
             mDelegate = delegate;
+            mInflaterOwned = inflater == null;
+            if (inflater == null) {
+                mInflater = new Inflater(true);
+            } else {
+                inflater.reset();
+                mInflater = inflater;
+            }
         }
 
         @Override
@@ -503,7 +572,9 @@ public class LocalFileRecord {
             mInputBuffer = null;
             mOutputBuffer = null;
             if (mInflater != null) {
-                mInflater.end();
+                if (mInflaterOwned) {
+                    mInflater.end();
+                }
                 mInflater = null;
             }
         }
@@ -0,0 +1,52 @@
+package com.android.apksig.internal.zip;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits ZIP entries, listed in the order of their Local File Headers in the archive, into
+ * contiguous ranges which are processed by one worker at a time, so that each worker reads the
+ * archive mostly sequentially.
+ */
+public abstract class ZipEntryRanges {
+    /** Target number of bytes of the entries of a range. */
+    public static final long TARGET_RANGE_SIZE_BYTES = 1024 * 1024;
+
+    /** Minimum number of entries of a range. */
+    public static final int MIN_RANGE_ENTRIES = 16;
+
+    private ZipEntryRanges() {
+    }
+
+    /**
+     * Size, in bytes, of the entry at the provided index.
+     */
+    @FunctionalInterface
+    public interface EntrySizes {
+        long getSize(int entryIndex);
+    }
+
+    /**
+     * Splits the entries into contiguous {@code [start, end)} ranges of roughly
+     * {@link #TARGET_RANGE_SIZE_BYTES} bytes each, with at least {@link #MIN_RANGE_ENTRIES}
+     * entries per range.
+     */
+    public static List<int[]> split(int entryCount, EntrySizes entrySizes) {
+        List<int[]> ranges = new ArrayList<>();
+        int start = 0;
+        long rangeBytes = 0;
+        for (int i = 0; i < entryCount; i++) {
+            rangeBytes += entrySizes.getSize(i);
+            int rangeEntries = i + 1 - start;
+            if (rangeBytes >= TARGET_RANGE_SIZE_BYTES && rangeEntries >= MIN_RANGE_ENTRIES) {
+                ranges.add(new int[]{start, i + 1});
+                start = i + 1;
+                rangeBytes = 0;
+            }
+        }
+        if (start < entryCount) {
+            ranges.add(new int[]{start, entryCount});
+        }
+        return ranges;
+    }
+}
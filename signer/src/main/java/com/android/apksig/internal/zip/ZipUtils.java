@@ -4,14 +4,13 @@
 package com.android.apksig.internal.zip;
 
 import com.android.apksig.internal.util.Pair;
+import com.android.apksig.util.DataSinks;
 import com.android.apksig.util.DataSource;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.util.zip.CRC32;
-import java.util.zip.Deflater;
 
 
 public abstract class ZipUtils {
@@ -274,17 +273,15 @@ public abstract class ZipUtils {
             inputOffset = 0;
             input.get(inputBuf);
         }
-        CRC32 crc32 = new CRC32();
-        crc32.update(inputBuf, inputOffset, inputLength);
-        long crc32Value = crc32.getValue();
         ByteArrayOutputStream out = new ByteArrayOutputStream();
-        Deflater deflater = new Deflater(9, true);
-        deflater.setInput(inputBuf, inputOffset, inputLength);
-        deflater.finish();
-        byte[] buf = new byte[65536];
-        while (!deflater.finished()) {
-            int chunkSize = deflater.deflate(buf);
-            out.write(buf, 0, chunkSize);
+        long crc32Value;
+        try (DeflatingDataSink deflater = new DeflatingDataSink(DataSinks.asDataSink(out))) {
+            deflater.consume(inputBuf, inputOffset, inputLength);
+            deflater.finish();
+            crc32Value = deflater.getInputCrc32();
+        } catch (IOException e) {
+            // ByteArrayOutputStream does not throw IOException.
+            throw new IllegalStateException(e);
         }
         return new DeflateResult(inputLength, crc32Value, out.toByteArray());
     }
@@ -5,7 +5,9 @@ package com.android.apksig.util;
 
 import com.android.apksig.internal.util.ByteBufferDataSource;
 import com.android.apksig.internal.util.FileChannelDataSource;
+import com.android.apksig.internal.util.MappedFileDataSource;
 
+import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
@@ -64,4 +66,36 @@ public abstract class DataSources {
         }
         return new FileChannelDataSource(channel, offset, size);
     }
+
+    /**
+     * Returns a {@link DataSource} backed by the provided {@link RandomAccessFile} mapped into
+     * memory. Changes to the file will be visible in the data source, but changes to the size of
+     * the file will not: the data source covers the file as it is when this method is invoked.
+     *
+     * @see #asMappedDataSource(FileChannel, long, long)
+     */
+    public static DataSource asMappedDataSource(RandomAccessFile file) throws IOException {
+        FileChannel channel = file.getChannel();
+        return asMappedDataSource(channel, 0, channel.size());
+    }
+
+    /**
+     * Returns a {@link DataSource} backed by the provided region of the {@link FileChannel}
+     * mapped into memory. Changes to the file will be visible in the data source.
+     *
+     * <p>The returned data source feeds the data to sinks without copying it and without locking,
+     * so that different chunks can be read concurrently, e.g., by the chunked digests of APK
+     * Signature Scheme v2 and v3. If the region cannot be mapped, a data source equivalent to
+     * {@link #asDataSource(FileChannel, long, long)} is returned.
+     */
+    public static DataSource asMappedDataSource(FileChannel channel, long offset, long size) {
+        if (channel == null) {
+            throw new NullPointerException();
+        }
+        try {
+            return MappedFileDataSource.map(channel, offset, size);
+        } catch (IOException e) {
+            return new FileChannelDataSource(channel, offset, size);
+        }
+    }
 }
@@ -0,0 +1,56 @@
+package com.android.apksig.util;
+
+/**
+ * Factory for {@link RunnablesExecutor} instances.
+ */
+public abstract class RunnablesExecutors {
+    /**
+     * Upper bound on the default parallelism. Digesting is mostly memory-bandwidth bound, so more
+     * threads than this do not help.
+     */
+    private static final int MAX_DEFAULT_PARALLELISM = 32;
+
+    private RunnablesExecutors() {
+    }
+
+    /**
+     * Returns the default parallelism: the number of available processors, capped at 32.
+     */
+    public static int defaultParallelism() {
+        return Math.min(MAX_DEFAULT_PARALLELISM, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Returns the process-wide shared work-stealing executor sized to
+     * {@link #defaultParallelism()}. Its daemon threads are created on first use and live for the
+     * rest of the process. Closing the returned executor has no effect.
+     */
+    public static WorkStealingRunnablesExecutor shared() {
+        return SharedHolder.INSTANCE;
+    }
+
+    /**
+     * Returns a new work-stealing executor with {@link #defaultParallelism()} threads. The caller
+     * owns the returned executor and should {@link WorkStealingRunnablesExecutor#close() close} it
+     * once it is no longer needed.
+     */
+    public static WorkStealingRunnablesExecutor newWorkStealingExecutor() {
+        return newWorkStealingExecutor(defaultParallelism());
+    }
+
+    /**
+     * Returns a new work-stealing executor which runs {@code parallelism} runnables in parallel.
+     * The caller owns the returned executor and should
+     * {@link WorkStealingRunnablesExecutor#close() close} it once it is no longer needed.
+     *
+     * @throws IllegalArgumentException if {@code parallelism} is not positive
+     */
+    public static WorkStealingRunnablesExecutor newWorkStealingExecutor(int parallelism) {
+        return new WorkStealingRunnablesExecutor(parallelism, true);
+    }
+
+    private static class SharedHolder {
+        private static final WorkStealingRunnablesExecutor INSTANCE =
+                new WorkStealingRunnablesExecutor(defaultParallelism(), false);
+    }
+}
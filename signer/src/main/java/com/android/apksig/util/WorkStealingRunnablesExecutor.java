@@ -0,0 +1,152 @@
+package com.android.apksig.util;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link RunnablesExecutor} backed by a long-lived work-stealing {@link ForkJoinPool} of daemon
+ * threads.
+ *
+ * <p>Unlike an executor which creates a new thread pool for every {@link #execute} call, the
+ * threads of this executor are reused across calls, so that signing or verifying many APKs back to
+ * back does not keep creating and tearing down threads. The calling thread runs one of the
+ * provider's runnables itself and then waits for the rest. {@code execute} may be invoked
+ * concurrently from several threads, including from within a runnable running on this executor;
+ * in that case the waiting worker helps run queued tasks instead of blocking.
+ *
+ * <p>Instances are obtained from {@link RunnablesExecutors}. An executor which is no longer needed
+ * should be {@link #close() closed}. Closing the process-wide
+ * {@link RunnablesExecutors#shared() shared} executor has no effect, so it can safely be used in a
+ * try-with-resources statement.
+ */
+public final class WorkStealingRunnablesExecutor implements RunnablesExecutor, Closeable {
+    private static final AtomicInteger POOL_COUNTER = new AtomicInteger();
+
+    private final ForkJoinPool mPool;
+    private final int mParallelism;
+    private final boolean mCloseable;
+
+    WorkStealingRunnablesExecutor(int parallelism, boolean closeable) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+        mParallelism = parallelism;
+        mCloseable = closeable;
+        String namePrefix = "apksig-" + POOL_COUNTER.incrementAndGet() + "-worker-";
+        AtomicInteger threadCounter = new AtomicInteger();
+        mPool = new ForkJoinPool(
+                parallelism,
+                pool -> {
+                    ForkJoinWorkerThread thread =
+                            ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                    thread.setName(namePrefix + threadCounter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                null,
+                true);
+    }
+
+    /**
+     * Returns the number of runnables created and run in parallel by each {@link #execute} call.
+     */
+    public int getParallelism() {
+        return mParallelism;
+    }
+
+    /**
+     * Returns {@code true} if this executor has been closed.
+     */
+    public boolean isClosed() {
+        return mPool.isShutdown();
+    }
+
+    /**
+     * Creates {@link #getParallelism()} runnables using the provided {@code provider}, runs them
+     * in parallel and returns once all of them completed. If any of the runnables throws, the
+     * first exception is rethrown as is, even if thrown on another thread, after all runnables
+     * finished.
+     *
+     * @throws IllegalStateException if this executor has been closed
+     */
+    @Override
+    public void execute(RunnablesProvider provider) {
+        if (isClosed()) {
+            throw new IllegalStateException("Executor closed");
+        }
+        // Failures of the submitted runnables are recorded here rather than obtained from
+        // ForkJoinTask.join(), which wraps exceptions thrown on other threads into new instances.
+        Throwable[] taskFailures = new Throwable[mParallelism - 1];
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(mParallelism - 1);
+        for (int i = 1; i < mParallelism; i++) {
+            int taskIndex = i - 1;
+            tasks.add(mPool.submit(() -> {
+                try {
+                    provider.createRunnable().run();
+                } catch (RuntimeException | Error e) {
+                    taskFailures[taskIndex] = e;
+                }
+            }));
+        }
+
+        Throwable failure = null;
+        try {
+            provider.createRunnable().run();
+        } catch (RuntimeException | Error e) {
+            failure = e;
+        }
+        // Always wait for all runnables: they typically share state with the caller.
+        for (int i = 0; i < tasks.size(); i++) {
+            try {
+                tasks.get(i).join();
+            } catch (RuntimeException | Error e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+            // join() happens-after the task, thus its recorded failure is visible here.
+            if (failure == null) {
+                failure = taskFailures[i];
+            }
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure != null) {
+            throw (Error) failure;
+        }
+    }
+
+    /**
+     * Stops accepting new work. Runnables which are already running are allowed to complete.
+     * Closing an already closed executor, or the process-wide shared executor, has no effect.
+     */
+    @Override
+    public void close() {
+        if (!mCloseable) {
+            return;
+        }
+        mPool.shutdown();
+    }
+
+    /**
+     * Closes this executor and waits up to the provided time for running runnables to complete.
+     *
+     * The process-wide shared executor is never closed, thus this returns {@code false} for it
+     * immediately.
+     *
+     * @return {@code true} if all runnables completed, {@code false} if the timeout elapsed
+     */
+    public boolean closeAndAwait(long timeout, TimeUnit unit) throws InterruptedException {
+        if (!mCloseable) {
+            return false;
+        }
+        close();
+        return mPool.awaitTermination(timeout, unit);
+    }
+}
@@ -11,6 +11,7 @@ import com.android.apksig.apk.ApkFormatException;
 import com.android.apksig.apk.MinSdkVersionException;
 import com.android.apksig.util.DataSource;
 import com.android.apksig.util.DataSources;
+import com.android.apksig.util.RunnablesExecutor;
 import com.android.apksigner.utils.FileUtils;
 
 import org.jetbrains.annotations.NotNull;
@@ -19,6 +20,7 @@ import org.spongycastle.jce.provider.BouncyCastleProvider;
 
 import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintStream;
@@ -39,6 +41,15 @@ import java.security.interfaces.RSAKey;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 public class ApkSignerTool {
@@ -50,6 +61,7 @@ public class ApkSignerTool {
     private static final String HELP_PAGE_VERIFY = "help_verify.txt";
     private static final String HELP_PAGE_ROTATE = "help_rotate.txt";
     private static final String HELP_PAGE_LINEAGE = "help_lineage.txt";
+    private static final String HELP_PAGE_BATCH = "help_batch.txt";
     private static MessageDigest sha256 = null;
     private static MessageDigest sha1 = null;
     private static MessageDigest md5 = null;
@@ -75,6 +87,8 @@ public class ApkSignerTool {
                 rotate(Arrays.copyOfRange(params, 1, params.length));
             } else if ("lineage".equals(cmd)) {
                 lineage(Arrays.copyOfRange(params, 1, params.length));
+            } else if ("batch".equals(cmd)) {
+                batch(Arrays.copyOfRange(params, 1, params.length));
             } else if ("help".equals(cmd)) {
                 printUsage(HELP_PAGE_GENERAL);
             } else if ("version".equals(cmd)) {
@@ -102,9 +116,24 @@ public class ApkSignerTool {
     }
 
     private static void sign(String[] params) throws Exception {
+        sign(params, null);
+    }
+
+    /**
+     * Signs the APK as specified by the provided {@code sign} command parameters.
+     *
+     * @param signerConfigCache signer configs already loaded or being loaded, keyed by
+     *                          {@link SignerParams#getKeyMaterialId()}, or {@code null} to load
+     *                          the signers' keys afresh
+     * @return the signed APK or {@code null} if no APK was signed
+     */
+    private static File sign(
+            String[] params,
+            ConcurrentMap<String, Future<ApkSigner.SignerConfig>> signerConfigCache)
+            throws Exception {
         if (params.length == 0) {
             printUsage(HELP_PAGE_SIGN);
-            return;
+            return null;
         }
 
         File outputApk = null;
@@ -135,7 +164,7 @@ public class ApkSignerTool {
             optionOriginalForm = optionsParser.getOptionOriginalForm();
             if (("help".equals(optionName)) || ("h".equals(optionName))) {
                 printUsage(HELP_PAGE_SIGN);
-                return;
+                return null;
             } else if ("out".equals(optionName)) {
                 outputApk = new File(optionsParser.getRequiredValue("Output file name"));
             } else if ("in".equals(optionName)) {
@@ -283,18 +312,20 @@ public class ApkSignerTool {
             for (SignerParams signer : signers) {
                 signerNumber++;
                 signer.setName("signer #" + signerNumber);
-                ApkSigner.SignerConfig signerConfig = getSignerConfig(signer, passwordRetriever);
+                ApkSigner.SignerConfig signerConfig =
+                        getSignerConfig(signer, passwordRetriever, signerConfigCache);
                 if (signerConfig == null) {
-                    return;
+                    return null;
                 }
                 signerConfigs.add(signerConfig);
             }
             if (sourceStampFlagFound) {
                 sourceStampSignerParams.setName("stamp signer");
                 sourceStampSignerConfig =
-                        getSignerConfig(sourceStampSignerParams, passwordRetriever);
+                        getSignerConfig(
+                                sourceStampSignerParams, passwordRetriever, signerConfigCache);
                 if (sourceStampSignerConfig == null) {
-                    return;
+                    return null;
                 }
             }
         }
@@ -362,6 +393,52 @@ public class ApkSignerTool {
         if (verbose) {
             System.out.println("Signed");
         }
+        return outputApk;
+    }
+
+    /**
+     * Returns the signer config of the provided signer, taking it from the provided cache, if
+     * any, or loading it and adding it to the cache. Concurrent callers with the same key material
+     * wait for a single load, while signers with different key material are loaded in parallel.
+     * A failed load is not cached.
+     */
+    private static ApkSigner.SignerConfig getSignerConfig(
+            SignerParams signer,
+            PasswordRetriever passwordRetriever,
+            ConcurrentMap<String, Future<ApkSigner.SignerConfig>> signerConfigCache) {
+        if (signerConfigCache == null) {
+            return getSignerConfig(signer, passwordRetriever);
+        }
+        String keyMaterialId = signer.getKeyMaterialId();
+        FutureTask<ApkSigner.SignerConfig> load =
+                new FutureTask<>(() -> getSignerConfig(signer, passwordRetriever));
+        Future<ApkSigner.SignerConfig> signerConfigFuture =
+                signerConfigCache.putIfAbsent(keyMaterialId, load);
+        if (signerConfigFuture == null) {
+            signerConfigFuture = load;
+            load.run();
+        }
+        ApkSigner.SignerConfig signerConfig;
+        try {
+            signerConfig = signerConfigFuture.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            System.err.println("Interrupted while loading signer \"" + signer.getName() + "\"");
+            return null;
+        } catch (ExecutionException e) {
+            signerConfigCache.remove(keyMaterialId, signerConfigFuture);
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+        if (signerConfig == null) {
+            signerConfigCache.remove(keyMaterialId, signerConfigFuture);
+        }
+        return signerConfig;
     }
 
     private static ApkSigner.SignerConfig getSignerConfig(
@@ -398,6 +475,147 @@ public class ApkSignerTool {
         return new ApkSigner.SignerConfig.Builder(v1SigBasename, signer.getPrivateKey(), signer.getCerts()).build();
     }
 
+    private static void batch(String[] params) throws Exception {
+        int jobs = Runtime.getRuntime().availableProcessors();
+        boolean verbose = false;
+        OptionsParser optionsParser = new OptionsParser(params);
+        String optionName;
+        String optionOriginalForm;
+        while ((optionName = optionsParser.nextOption()) != null) {
+            optionOriginalForm = optionsParser.getOptionOriginalForm();
+            if (("help".equals(optionName)) || ("h".equals(optionName))) {
+                printUsage(HELP_PAGE_BATCH);
+                return;
+            } else if ("jobs".equals(optionName)) {
+                jobs = optionsParser.getRequiredIntValue("Number of concurrent jobs");
+            } else if ("v".equals(optionName) || "verbose".equals(optionName)) {
+                verbose = optionsParser.getOptionalBooleanValue(true);
+            } else {
+                throw new ParameterException(
+                        "Unsupported option: " + optionOriginalForm + ". See --help for supported"
+                                + " options.");
+            }
+        }
+        if (jobs < 1) {
+            throw new ParameterException("Number of concurrent jobs must be positive: " + jobs);
+        }
+        params = optionsParser.getRemainingParams();
+        if (params.length > 1) {
+            throw new ParameterException(
+                    "Unexpected parameter(s) after manifest file (" + params[1] + ")");
+        }
+        boolean fromStdin = (params.length == 0) || ("-".equals(params[0]));
+
+        // Keys are loaded once per distinct signer and the JCA providers, executors and JIT-compiled
+        // code stay warm across APKs.
+        ConcurrentMap<String, Future<ApkSigner.SignerConfig>> signerConfigCache =
+                new ConcurrentHashMap<>();
+        ExecutorService jobExecutor = Executors.newFixedThreadPool(jobs);
+        AtomicInteger signedCount = new AtomicInteger();
+        AtomicInteger failedCount = new AtomicInteger();
+        int jobCount = 0;
+        long batchStartNanos = System.nanoTime();
+        try (BufferedReader in =
+                     new BufferedReader(
+                             fromStdin
+                                     ? new InputStreamReader(System.in, StandardCharsets.UTF_8)
+                                     : new InputStreamReader(
+                                             new FileInputStream(params[0]),
+                                             StandardCharsets.UTF_8))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if ((line.isEmpty()) || (line.startsWith("#"))) {
+                    continue;
+                }
+                String jobName = "line " + lineNumber;
+                jobCount++;
+                String[] signParams;
+                try {
+                    signParams = splitBatchLine(line);
+                } catch (ParameterException e) {
+                    failedCount.incrementAndGet();
+                    System.err.println(jobName + ": FAILED: " + e.getMessage());
+                    continue;
+                }
+                boolean verboseJob = verbose;
+                // Jobs start as soon as their line is read, so that the manifest can be streamed.
+                jobExecutor.execute(() -> {
+                    long startNanos = System.nanoTime();
+                    try {
+                        File outputApk = sign(signParams, signerConfigCache);
+                        long millis = (System.nanoTime() - startNanos) / 1000000;
+                        if (outputApk == null) {
+                            failedCount.incrementAndGet();
+                            System.err.println(jobName + ": FAILED after " + millis + " ms");
+                            return;
+                        }
+                        signedCount.incrementAndGet();
+                        System.out.println(jobName + ": signed " + outputApk + " in " + millis
+                                + " ms");
+                    } catch (Exception e) {
+                        failedCount.incrementAndGet();
+                        long millis = (System.nanoTime() - startNanos) / 1000000;
+                        System.err.println(jobName + ": FAILED after " + millis + " ms: " + e);
+                        if (verboseJob) {
+                            e.printStackTrace();
+                        }
+                    }
+                });
+            }
+        } finally {
+            jobExecutor.shutdown();
+            while (!jobExecutor.awaitTermination(1, TimeUnit.MINUTES)) {
+                // Signing takes time; keep waiting for the jobs which have been started.
+            }
+        }
+        System.out.println("Signed " + signedCount.get() + " of " + jobCount + " APK(s) in "
+                + (System.nanoTime() - batchStartNanos) / 1000000 + " ms");
+        // A partially signed batch must not pass as success: the exit status gates CI pipelines.
+        if (failedCount.get() > 0) {
+            throw new Exception(failedCount.get() + " of " + jobCount + " APK(s) failed to sign");
+        }
+    }
+
+    /**
+     * Splits a line of a batch manifest into {@code sign} command parameters. Parameters are
+     * separated by whitespace; a parameter containing whitespace must be enclosed in double
+     * quotes.
+     */
+    private static String[] splitBatchLine(String line) throws ParameterException {
+        List<String> result = new ArrayList<>();
+        StringBuilder param = null;
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+                if (param == null) {
+                    param = new StringBuilder();
+                }
+            } else if ((!quoted) && (Character.isWhitespace(c))) {
+                if (param != null) {
+                    result.add(param.toString());
+                    param = null;
+                }
+            } else {
+                if (param == null) {
+                    param = new StringBuilder();
+                }
+                param.append(c);
+            }
+        }
+        if (quoted) {
+            throw new ParameterException("Unterminated quote in batch line: " + line);
+        }
+        if (param != null) {
+            result.add(param.toString());
+        }
+        return result.toArray(new String[0]);
+    }
+
     private static void verify(String [] params) throws Exception {
         if (params.length == 0) {
             printUsage(HELP_PAGE_VERIFY);
@@ -413,6 +631,7 @@ public class ApkSignerTool {
         boolean verbose = false;
         boolean warningsTreatedAsErrors = false;
         File v4SignatureFile = null;
+        int memoryBudgetMb = 0;
         OptionsParser optionsParser = new OptionsParser(params);
         String optionName;
         String optionOriginalForm = null;
@@ -436,6 +655,12 @@ public class ApkSignerTool {
             } else if ("v4-signature-file".equals(optionName)) {
                 v4SignatureFile = new File(optionsParser.getRequiredValue(
                         "Input V4 Signature File"));
+            } else if ("memory-budget".equals(optionName)) {
+                memoryBudgetMb = optionsParser.getRequiredIntValue("Memory budget in MB");
+                if (memoryBudgetMb <= 0) {
+                    throw new ParameterException(
+                            "Memory budget must be positive: " + memoryBudgetMb);
+                }
             } else if ("in".equals(optionName)) {
                 inputApk = new File(optionsParser.getRequiredValue("Input APK file"));
             } else {
@@ -486,6 +711,10 @@ public class ApkSignerTool {
             }
             apkVerifierBuilder.setV4SignatureFile(v4SignatureFile);
         }
+        if (memoryBudgetMb > 0) {
+            apkVerifierBuilder.setMemoryBudget(memoryBudgetMb * 1024L * 1024L);
+            apkVerifierBuilder.setExecutor(RunnablesExecutor.SINGLE_THREADED);
+        }
 
         ApkVerifier apkVerifier = apkVerifierBuilder.build();
         ApkVerifier.Result result;
@@ -266,6 +266,22 @@ public class SignerParams {
                 && (certs == null);
     }
 
+    /**
+     * Returns a string which identifies the private key and certificates this signer is loaded
+     * from, along with the JAR signature file basename. Signers with equal identifiers yield equal
+     * signer configs, which can thus be loaded once and shared.
+     */
+    String getKeyMaterialId() {
+        StringBuilder id = new StringBuilder();
+        for (Object param : new Object[] {
+                keystoreFile, keystoreKeyAlias, keystorePasswordSpec, keyPasswordSpec,
+                passwordCharset, keystoreType, keystoreProviderName, keystoreProviderClass,
+                keystoreProviderArg, keyFile, certFile, v1SigFileBasename}) {
+            id.append(param).append('\0');
+        }
+        return id.toString();
+    }
+
     public void loadPrivateKeyAndCerts(PasswordRetriever passwordRetriever) throws Exception {
         if (keystoreFile != null) {
             if (keyFile != null) {
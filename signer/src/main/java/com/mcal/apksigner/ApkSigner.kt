@@ -2,23 +2,41 @@
 package com.mcal.apksigner
 
 import com.android.apksig.ApkSigner
+import com.android.apksig.JarEntryDigestCache
 import com.android.apksigner.ApkSignerTool
+import com.android.apksig.util.DataSource
 import com.mcal.apksigner.utils.KeyStoreHelper
+import com.mcal.apksigner.utils.SigningKeyCache
 import java.io.File
 import java.io.InputStream
-import java.security.PrivateKey
-import java.security.cert.X509Certificate
 
-class ApkSigner(
-    private val unsignedApkFile: File,
+class ApkSigner private constructor(
+    private val unsignedApkFile: File?,
+    private val unsignedApkSource: DataSource?,
     private val signedApkFile: File,
 ) {
+    constructor(unsignedApkFile: File, signedApkFile: File) : this(unsignedApkFile, null, signedApkFile)
+
+    /**
+     * Signs an APK that is already available as a [DataSource] (e.g. built in memory), so the
+     * unsigned archive never has to be written to disk. Only [signRelease] with a keystore
+     * supports this input.
+     */
+    constructor(unsignedApk: DataSource, signedApkFile: File) : this(null, unsignedApk, signedApkFile)
+
     var useDefaultSignatureVersion = true
     var v1SigningEnabled = true
     var v2SigningEnabled = true
     var v3SigningEnabled = true
     var v4SigningEnabled = false
 
+    /**
+     * Reuses the v1 digests of unchanged entries from the previous signing of [signedApkFile],
+     * kept in a file next to it (see [JarEntryDigestCache]). Only [signRelease] with a keystore
+     * supports this.
+     */
+    var jarEntryDigestCacheEnabled = false
+
     fun signRelease(
         pk8File: File,
         x509File: File
@@ -26,7 +44,7 @@ class ApkSigner(
         val args = mutableListOf(
             "sign",
             "--in",
-            unsignedApkFile.path,
+            requireNotNull(unsignedApkFile) { "DataSource input is only supported with a keystore" }.path,
             "--out",
             signedApkFile.path,
             "--key",
@@ -60,18 +78,22 @@ class ApkSigner(
         aliasPassword: String,
     ): Boolean {
         return try {
-            val keystore = KeyStoreHelper.loadKeyStore(keyFile, password.toCharArray())
-            ApkSigner.Builder(
-                listOf(
-                    ApkSigner.SignerConfig.Builder(
-                        "CERT",
-                        keystore.getKey(alias, aliasPassword.toCharArray()) as PrivateKey,
-                        listOf(keystore.getCertificate(alias) as X509Certificate)
-                    ).build()
-                )
-            ).apply {
-                setInputApk(unsignedApkFile)
+            val keyMaterial = SigningKeyCache.get(
+                keyFile, password.toCharArray(), alias, aliasPassword.toCharArray()
+            )
+            val jarEntryDigestCache = if (jarEntryDigestCacheEnabled) {
+                JarEntryDigestCache.open(JarEntryDigestCache.getDefaultFile(signedApkFile))
+            } else {
+                null
+            }
+            ApkSigner.Builder(listOf(keyMaterial.signerConfig)).apply {
+                if (unsignedApkSource != null) {
+                    setInputApk(unsignedApkSource)
+                } else {
+                    setInputApk(requireNotNull(unsignedApkFile))
+                }
                 setOutputApk(signedApkFile)
+                setJarEntryDigestCache(jarEntryDigestCache)
                 if (!useDefaultSignatureVersion) {
                     setV1SigningEnabled(v1SigningEnabled)
                     setV2SigningEnabled(v2SigningEnabled)
@@ -79,6 +101,12 @@ class ApkSigner(
                     setV4SigningEnabled(v4SigningEnabled)
                 }
             }.build().sign()
+            try {
+                jarEntryDigestCache?.save()
+            } catch (e: Exception) {
+                // Only the next signing gets slower
+                e.printStackTrace()
+            }
             true
         } catch (e: Exception) {
             e.printStackTrace()
@@ -98,7 +126,7 @@ class ApkSigner(
         val args = mutableListOf(
             "sign",
             "--in",
-            unsignedApkFile.path,
+            requireNotNull(unsignedApkFile) { "DataSource input is only supported with a keystore" }.path,
             "--out",
             signedApkFile.path,
             "--key",
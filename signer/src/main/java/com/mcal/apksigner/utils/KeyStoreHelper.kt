@@ -70,6 +70,7 @@ object KeyStoreHelper {
         FileOutputStream(keystorePath).use { fos ->
             ks.store(fos, password)
         }
+        SigningKeyCache.invalidate(keystorePath)
     }
 
     @JvmStatic
@@ -0,0 +1,113 @@
+package com.mcal.apksigner.utils
+
+import com.android.apksig.ApkSigner
+import com.android.apksig.DefaultApkSignerEngine
+import java.io.File
+import java.nio.ByteBuffer
+import java.nio.CharBuffer
+import java.security.MessageDigest
+import java.security.PrivateKey
+import java.security.SecureRandom
+import java.security.cert.X509Certificate
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Process-wide cache of the key material loaded from keystores, so that signing several APKs with
+ * the same key decrypts the keystore only once.
+ *
+ * Entries are keyed by the canonical path of the keystore and the alias, and are only reused while
+ * the keystore's modification time and length are unchanged and the same passwords are supplied.
+ * Passwords are not kept: only a salted SHA-256 digest of them is stored in the entry.
+ */
+object SigningKeyCache {
+    /**
+     * Key material of one alias of a keystore.
+     */
+    class KeyMaterial internal constructor(
+        val privateKey: PrivateKey,
+        val certificates: List<X509Certificate>,
+    ) {
+        /** Signer config for [ApkSigner.Builder], named `CERT`. */
+        val signerConfig: ApkSigner.SignerConfig =
+            ApkSigner.SignerConfig.Builder(SIGNER_NAME, privateKey, certificates).build()
+
+        /** Signer config for driving a [DefaultApkSignerEngine] directly. */
+        val engineSignerConfig: DefaultApkSignerEngine.SignerConfig by lazy {
+            DefaultApkSignerEngine.SignerConfig.Builder(SIGNER_NAME, privateKey, certificates).build()
+        }
+    }
+
+    private const val SIGNER_NAME = "CERT"
+
+    private data class Key(val path: String, val alias: String)
+
+    private class Entry(
+        val lastModified: Long,
+        val length: Long,
+        val salt: ByteArray,
+        val passwordDigest: ByteArray,
+        val material: KeyMaterial,
+    )
+
+    private val entries = ConcurrentHashMap<Key, Entry>()
+    private val random = SecureRandom()
+
+    /**
+     * Returns the key material of [alias] in [keystoreFile], loading the keystore only if it is
+     * not cached yet, has changed since it was cached or was cached with different passwords.
+     */
+    @JvmStatic
+    @Throws(Exception::class)
+    fun get(keystoreFile: File, password: CharArray, alias: String, aliasPassword: CharArray): KeyMaterial {
+        val key = Key(keystoreFile.canonicalPath, alias)
+        val lastModified = keystoreFile.lastModified()
+        val length = keystoreFile.length()
+        val cached = entries[key]
+        if (cached != null
+            && cached.lastModified == lastModified
+            && cached.length == length
+            && MessageDigest.isEqual(cached.passwordDigest, digest(cached.salt, password, aliasPassword))
+        ) {
+            return cached.material
+        }
+
+        val keyStore = KeyStoreHelper.loadKeyStore(keystoreFile, password)
+        val privateKey = keyStore.getKey(alias, aliasPassword) as? PrivateKey
+            ?: throw LoadKeystoreException("No private key with alias: $alias")
+        val certificate = keyStore.getCertificate(alias) as? X509Certificate
+            ?: throw LoadKeystoreException("No certificate with alias: $alias")
+        val material = KeyMaterial(privateKey, listOf(certificate))
+
+        val salt = ByteArray(16).also { random.nextBytes(it) }
+        entries[key] = Entry(lastModified, length, salt, digest(salt, password, aliasPassword), material)
+        return material
+    }
+
+    /**
+     * Drops all cached aliases of [keystoreFile], e.g. after it has been rewritten.
+     */
+    @JvmStatic
+    fun invalidate(keystoreFile: File) {
+        val path = keystoreFile.canonicalPath
+        entries.keys.removeIf { it.path == path }
+    }
+
+    /**
+     * Drops all cached key material.
+     */
+    @JvmStatic
+    fun clear() {
+        entries.clear()
+    }
+
+    private fun digest(salt: ByteArray, password: CharArray, aliasPassword: CharArray): ByteArray {
+        val md = MessageDigest.getInstance("SHA-256")
+        md.update(salt)
+        md.update(encode(password))
+        md.update(0.toByte())
+        md.update(encode(aliasPassword))
+        return md.digest()
+    }
+
+    private fun encode(chars: CharArray): ByteBuffer = Charsets.UTF_8.encode(CharBuffer.wrap(chars))
+}